@@ -0,0 +1,73 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.benchmarks;
+
+import me.floody.butlerspeak.config.ConfigNode;
+import me.floody.butlerspeak.config.ConfigSnapshot;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads configuration values the way the plugins do, comparing the validated {@link ConfigSnapshot} with parsing the
+ * raw properties on every access, which the getters of {@link me.floody.butlerspeak.config.Configuration} do.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+@State(Scope.Benchmark)
+public class ConfigBenchmark {
+
+  private Properties properties;
+  private ConfigSnapshot snapshot;
+
+  @Setup
+  public void setUp() throws IOException {
+	this.properties = new Properties();
+	try (InputStream in = ConfigBenchmark.class.getResourceAsStream("/ButlerSpeak_EXAMPLE.properties")) {
+	  properties.load(in);
+	}
+	this.snapshot = ConfigSnapshot.parse(properties);
+  }
+
+  @Benchmark
+  public void snapshot(Blackhole blackhole) {
+	blackhole.consume(snapshot.getAfkIdleTime());
+	blackhole.consume(snapshot.getAfkChannel());
+	blackhole.consume(snapshot.isAfkKick());
+	blackhole.consume(snapshot.getAfkBypassGroups());
+	blackhole.consume(snapshot.getBotChannel());
+  }
+
+  @Benchmark
+  public void rawProperties(Blackhole blackhole) {
+	blackhole.consume(Long.parseLong(properties.getProperty(ConfigNode.AFK_IDLE_TIME.getKey())));
+	blackhole.consume(Integer.parseInt(properties.getProperty(ConfigNode.AFK_CHANNEL.getKey())));
+	blackhole.consume(Boolean.parseBoolean(properties.getProperty(ConfigNode.AFK_KICK.getKey())));
+	blackhole.consume(properties.getProperty(ConfigNode.AFK_GROUPS_BYPASS.getKey()).replaceAll("\\s+", "")
+			.split(","));
+	blackhole.consume(Integer.parseInt(properties.getProperty(ConfigNode.BOT_CHANNEL.getKey())));
+  }
+}
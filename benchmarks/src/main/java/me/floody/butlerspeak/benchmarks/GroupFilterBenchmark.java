@@ -0,0 +1,94 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.benchmarks;
+
+import me.floody.butlerspeak.utils.IdSet;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks clients' server groups against the configured bypass groups, comparing {@link IdSet} with the boxed
+ * <code>Set&lt;Integer&gt;</code> used before.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+@State(Scope.Benchmark)
+public class GroupFilterBenchmark {
+
+  /** The amount of configured bypass groups. */
+  @Param({"1", "8", "64"})
+  public int bypassGroups;
+
+  private IdSet idSet;
+  private Set<Integer> boxedSet;
+  private int[][] clientGroups;
+
+  @Setup
+  public void setUp() {
+	final Random random = new Random(42);
+	final int[] bypass = new int[bypassGroups];
+	this.boxedSet = new HashSet<>();
+	for (int i = 0; i < bypass.length; i++) {
+	  bypass[i] = 6 + random.nextInt(200);
+	  boxedSet.add(bypass[i]);
+	}
+	this.idSet = new IdSet(bypass);
+
+	// Most clients are only in the guest group or a few others, some are in many groups.
+	this.clientGroups = new int[1024][];
+	for (int i = 0; i < clientGroups.length; i++) {
+	  final int[] groups = new int[random.nextInt(10) == 0 ? 10 : 1 + random.nextInt(3)];
+	  for (int j = 0; j < groups.length; j++) {
+		groups[j] = 6 + random.nextInt(400);
+	  }
+	  clientGroups[i] = groups;
+	}
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(1024)
+  public void idSet(Blackhole blackhole) {
+	for (int[] groups : clientGroups) {
+	  blackhole.consume(idSet.containsAny(groups));
+	}
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(1024)
+  public void boxedSet(Blackhole blackhole) {
+	for (int[] groups : clientGroups) {
+	  boolean bypassed = false;
+	  for (int group : groups) {
+		if (boxedSet.contains(group)) {
+		  bypassed = true;
+		  break;
+		}
+	  }
+	  blackhole.consume(bypassed);
+	}
+  }
+}
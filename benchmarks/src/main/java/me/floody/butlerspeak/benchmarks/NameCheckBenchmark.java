@@ -0,0 +1,105 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.benchmarks;
+
+import me.floody.butlerspeak.utils.PatternSet;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a corpus of nicknames against the forbidden name patterns, as the name checker does for every joining or
+ * renamed client. The baseline compiles and matches every pattern on its own, like the checker did before patterns
+ * were precompiled into a {@link PatternSet}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+@State(Scope.Benchmark)
+public class NameCheckBenchmark {
+
+  private static final String[] FRAGMENTS = {"Max", "xX", "Xx", "Gamer", "Pro", "_", "Sniper", "Lisa", "Admin",
+		  "TTV", "K\u00f6nig", "Ninja", "1337", "Bot", "Shadow", "Wolf", "Fck", "Support", "Der", "Mr.", " ",
+		  "J\u00e4ger"};
+  private static final String[] FORBIDDEN = {".*f[u4]ck.*", ".*sh[i1]t.*", ".*b[i1]tch.*", ".*admin.*",
+		  ".*support.*", ".*\\[bot\\].*", ".*teamspeak.*", ".*owner.*", ".*moderator.*", ".*w[i1]chs.*"};
+
+  /** The amount of configured patterns. */
+  @Param({"1", "10", "50"})
+  public int patterns;
+
+  private PatternSet patternSet;
+  private List<String> rawPatterns;
+  private String[] nicknames;
+
+  @Setup
+  public void setUp() {
+	this.rawPatterns = new ArrayList<>();
+	for (int i = 0; i < patterns; i++) {
+	  // Repeat the realistic patterns with a suffix, so larger pattern lists are not made of duplicates.
+	  final String pattern = FORBIDDEN[i % FORBIDDEN.length];
+	  rawPatterns.add(i < FORBIDDEN.length ? pattern : pattern.substring(0, pattern.length() - 2) + i + ".*");
+	}
+	this.patternSet = new PatternSet(rawPatterns);
+
+	final Random random = new Random(42);
+	this.nicknames = new String[1024];
+	for (int i = 0; i < nicknames.length; i++) {
+	  final StringBuilder nickname = new StringBuilder();
+	  final int parts = 1 + random.nextInt(3);
+	  for (int j = 0; j < parts; j++) {
+		nickname.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+	  }
+	  if (random.nextBoolean()) {
+		nickname.append(random.nextInt(100));
+	  }
+	  nicknames[i] = nickname.toString();
+	}
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(1024)
+  public void patternSet(Blackhole blackhole) {
+	for (String nickname : nicknames) {
+	  blackhole.consume(patternSet.match(nickname));
+	}
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(1024)
+  public void compilePerCheck(Blackhole blackhole) {
+	for (String nickname : nicknames) {
+	  boolean matches = false;
+	  for (String pattern : rawPatterns) {
+		if (Pattern.compile(pattern, Pattern.CASE_INSENSITIVE).matcher(nickname).matches()) {
+		  matches = true;
+		  break;
+		}
+	  }
+	  blackhole.consume(matches);
+	}
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.benchmarks;
+
+import me.floody.butlerspeak.scheduler.ScheduledTask;
+import me.floody.butlerspeak.scheduler.Scheduler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replaces one pending one-shot task per simulated client, as the bot does when it debounces checks or moves the
+ * deadline of a client, e.g. whenever a channel is renamed again before its check ran.
+ * <p>
+ * The deadlines are spread over a minute, so every benchmark invocation cancels and enqueues tasks across the whole
+ * wheel while all other clients' tasks stay pending. The scheduler logs failed tasks, so the fork uses log4j's simple
+ * logger instead of the bot's log file configuration.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 3,
+		jvmArgsAppend = "-Dlog4j2.loggerContextFactory=org.apache.logging.log4j.simple.SimpleLoggerContextFactory")
+@State(Scope.Benchmark)
+public class SchedulerBenchmark {
+
+  /** The time the deadlines are spread over, in milliseconds. */
+  private static final long SPREAD = 60_000;
+
+  /** The amount of simulated clients, each owning one pending task. */
+  @Param({"10000"})
+  public int clients;
+
+  private Scheduler scheduler;
+  private ScheduledTask[] tasks;
+
+  @Setup
+  public void setUp() {
+	this.scheduler = new Scheduler(Runtime.getRuntime().availableProcessors());
+	scheduler.start();
+	this.tasks = new ScheduledTask[clients];
+	for (int i = 0; i < clients; i++) {
+	  tasks[i] = scheduler.schedule(SchedulerBenchmark::noop, deadline(i), TimeUnit.MILLISECONDS);
+	}
+  }
+
+  @TearDown
+  public void tearDown() {
+	scheduler.shutdown();
+  }
+
+  @Benchmark
+  public void rescheduleDeadlines() {
+	for (int i = 0; i < clients; i++) {
+	  tasks[i].cancel();
+	  tasks[i] = scheduler.schedule(SchedulerBenchmark::noop, deadline(i), TimeUnit.MILLISECONDS);
+	}
+  }
+
+  /** Returns the delay of the given client's task, so the deadlines are spread evenly. */
+  private long deadline(int client) {
+	return SPREAD * client / clients;
+  }
+
+  private static void noop() {
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.benchmarks;
+
+import me.floody.butlerspeak.utils.MessageTemplate;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.SimpleDateFormat;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the welcome message and the support channel name, comparing {@link MessageTemplate} with the chains of
+ * <code>String.replaceAll</code> and per-call date formatters used before.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+@State(Scope.Benchmark)
+public class TemplateBenchmark {
+
+  private static final String WELCOME = "Welcome, %clientName%! This is your %totalConnections%th connection. "
+		  + "You're connecting from %clientCountry% with the IP %clientIP%. You last connection was on "
+		  + "%lastConnection%.";
+  private static final String CHANNEL_NAME = "%clientName% (%date%)";
+  private static final DateTimeFormatter CHANNEL_DATE = DateTimeFormatter.ofPattern("HH:mm");
+
+  private final MessageTemplate welcome = new MessageTemplate(WELCOME);
+  private final MessageTemplate channelName = new MessageTemplate(CHANNEL_NAME);
+  private final Date lastConnection = new Date(1_500_000_000_000L);
+
+  @Benchmark
+  public String welcomeTemplate() {
+	return welcome.render(placeholder -> {
+	  switch (placeholder) {
+		case "clientName":
+		  return "xXShadowWolfXx";
+		case "clientIP":
+		  return "203.0.113.7";
+		case "clientCountry":
+		  return "DE";
+		case "totalConnections":
+		  return 42;
+		case "lastConnection":
+		  return lastConnection;
+		default:
+		  return null;
+	  }
+	});
+  }
+
+  @Benchmark
+  public String welcomeReplaceAll() {
+	return WELCOME
+			.replaceAll("%clientName%", "xXShadowWolfXx")
+			.replaceAll("%clientIP%", "203.0.113.7")
+			.replaceAll("%clientCountry%", "DE")
+			.replaceAll("%totalConnections%", String.valueOf(42))
+			.replaceAll("%lastConnection%", lastConnection.toString());
+  }
+
+  @Benchmark
+  public String channelNameTemplate() {
+	return channelName.render(placeholder -> {
+	  switch (placeholder) {
+		case "clientName":
+		  return "xXShadowWolfXx";
+		case "date":
+		  return CHANNEL_DATE.format(LocalTime.now());
+		default:
+		  return null;
+	  }
+	});
+  }
+
+  @Benchmark
+  public String channelNameReplaceAll() {
+	final SimpleDateFormat formattedDate = new SimpleDateFormat();
+	formattedDate.applyPattern("HH:mm");
+	return CHANNEL_NAME
+			.replaceAll("%clientName%", "xXShadowWolfXx")
+			.replaceAll("%date%", formattedDate.format(new Date()));
+  }
+}
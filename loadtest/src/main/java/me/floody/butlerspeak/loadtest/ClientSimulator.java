@@ -0,0 +1,144 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.loadtest;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates the behaviour of many clients: joining and leaving, renaming, starting and stopping to record, and
+ * going away from and returning to the keyboard.
+ * <p>
+ * The rates are given per second and applied on every tick, carrying fractions over to the following ticks.
+ * </p>
+ */
+final class ClientSimulator implements Runnable {
+
+  /** The interval in which the simulation runs, in milliseconds. */
+  static final long TICK = 100;
+
+  private static final String[] FRAGMENTS = {"Max", "xX", "Xx", "Gamer", "Pro", "_", "Sniper", "Lisa", "TTV",
+		  "K\u00f6nig", "Ninja", "1337", "Shadow", "Wolf", "Der", "Mr.", "J\u00e4ger", "Alex", "Tom", "Nova"};
+  private static final int[] GROUPS = {VirtualServer.GUEST_GROUP, 7, 10, 9, 6};
+  private static final double[] GROUP_WEIGHTS = {0.6, 0.2, 0.15, 0.04, 0.01};
+
+  private final VirtualServer server;
+  private final Random random = new Random(42);
+  private final int population;
+  private final double churn;
+  private final double renames;
+  private final double recordings;
+  private final double idleChanges;
+  private final double idleRatio;
+  private final double badNameRatio;
+  private final String badWord;
+  private final long idleThreshold;
+  private final double[] pending = new double[4];
+
+  ClientSimulator(VirtualServer server, Options options) {
+	this.server = server;
+	this.population = options.getInt("clients");
+	this.churn = options.getDouble("churn");
+	this.renames = options.getDouble("renames");
+	this.recordings = options.getDouble("recordings");
+	this.idleChanges = options.getDouble("idle-changes");
+	this.idleRatio = options.getDouble("idle-ratio");
+	this.badNameRatio = options.getDouble("bad-name-ratio");
+	this.badWord = options.get("bad-word");
+	this.idleThreshold = TimeUnit.SECONDS.toMillis(options.getInt("afk-idle-time"));
+  }
+
+  /** Connects the initial clients. */
+  void populate() {
+	for (int i = 0; i < population; i++) {
+	  joinClient();
+	}
+  }
+
+  @Override
+  public void run() {
+	for (int i = 0; i < events(0, churn); i++) {
+	  final int[] clients = server.getClientIds();
+	  if (clients.length > 0) {
+		server.leave(clients[random.nextInt(clients.length)]);
+	  }
+	  joinClient();
+	}
+	for (int i = 0; i < events(1, renames); i++) {
+	  final int[] clients = server.getClientIds();
+	  if (clients.length > 0) {
+		server.rename(clients[random.nextInt(clients.length)], nickname());
+	  }
+	}
+	for (int i = 0; i < events(2, recordings); i++) {
+	  final int[] clients = server.getClientIds();
+	  if (clients.length > 0) {
+		server.toggleRecording(clients[random.nextInt(clients.length)]);
+	  }
+	}
+	for (int i = 0; i < events(3, idleChanges); i++) {
+	  final int[] clients = server.getClientIds();
+	  if (clients.length > 0) {
+		server.toggleIdle(clients[random.nextInt(clients.length)]);
+	  }
+	}
+
+	server.tick(System.currentTimeMillis(), idleThreshold);
+  }
+
+  /** Adds the rate's share of this tick and returns the amount of events due, keeping the remaining fraction. */
+  private int events(int index, double perSecond) {
+	pending[index] += perSecond * TICK / 1000D;
+	final int due = (int) pending[index];
+	pending[index] -= due;
+	return due;
+  }
+
+  private void joinClient() {
+	final int[] channels = server.getChannelIds();
+	final int channel = random.nextInt(4) == 0 ? channels[random.nextInt(channels.length)]
+			: VirtualServer.DEFAULT_CHANNEL;
+	server.join(nickname(), channel, new int[] {group()}, random.nextDouble() < idleRatio);
+  }
+
+  private String nickname() {
+	final StringBuilder nickname = new StringBuilder();
+	final int parts = 1 + random.nextInt(3);
+	for (int i = 0; i < parts; i++) {
+	  nickname.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+	}
+	if (random.nextDouble() < badNameRatio) {
+	  nickname.insert(random.nextInt(nickname.length() + 1), badWord);
+	}
+
+	return nickname.append(random.nextInt(1000)).toString();
+  }
+
+  private int group() {
+	double value = random.nextDouble();
+	for (int i = 0; i < GROUPS.length; i++) {
+	  value -= GROUP_WEIGHTS[i];
+	  if (value < 0) {
+		return GROUPS[i];
+	  }
+	}
+
+	return VirtualServer.GUEST_GROUP;
+  }
+}
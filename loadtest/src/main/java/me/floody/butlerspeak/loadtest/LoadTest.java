@@ -0,0 +1,85 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.loadtest;
+
+import me.floody.butlerspeak.ButlerSpeak;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a load test against a simulated ServerQuery server.
+ * <p>
+ * The simulated server listens on the loopback interface and simulates the configured amount of clients. The bot
+ * is either started in the same process (<code>--bot</code>, using the <code>ButlerSpeak.properties</code> of the
+ * working directory) or separately, with <code>query.port</code> pointing to the simulated server. The results are
+ * reported periodically and once the test finished.
+ * </p>
+ */
+public final class LoadTest {
+
+  private LoadTest() {
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+	final Options options;
+	try {
+	  options = new Options(args);
+	} catch (IllegalArgumentException e) {
+	  System.err.println(e.getMessage());
+	  System.err.print(Options.usage());
+	  System.exit(1);
+	  return;
+	}
+
+	final Statistics statistics = new Statistics();
+	final VirtualServer server = new VirtualServer(statistics, options.get("bad-word"));
+	final ClientSimulator simulator = new ClientSimulator(server, options);
+	simulator.populate();
+
+	final SimulatedServer query = new SimulatedServer(server, statistics, options);
+	query.start();
+	System.out.println("Simulating " + server.getClientCount() + " clients, ServerQuery listening on 127.0.0.1:"
+			+ query.getPort());
+
+	final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+	  final Thread thread = new Thread(runnable, "Simulated-Clients");
+	  thread.setDaemon(true);
+	  return thread;
+	});
+	executor.scheduleAtFixedRate(simulator, ClientSimulator.TICK, ClientSimulator.TICK, TimeUnit.MILLISECONDS);
+	final long reportInterval = options.getInt("report-interval");
+	executor.scheduleAtFixedRate(() -> System.out.println(statistics.report(server.getClientCount(),
+			server.getPendingViolations())), reportInterval, reportInterval, TimeUnit.SECONDS);
+
+	if (options.getBoolean("bot")) {
+	  final Thread bot = new Thread(() -> ButlerSpeak.main(new String[0]), "ButlerSpeak");
+	  bot.setDaemon(true);
+	  bot.start();
+	}
+
+	TimeUnit.SECONDS.sleep(options.getInt("duration"));
+	executor.shutdownNow();
+	System.out.println("Load test finished.");
+	System.out.println(statistics.report(server.getClientCount(), server.getPendingViolations()));
+	System.exit(0);
+  }
+}
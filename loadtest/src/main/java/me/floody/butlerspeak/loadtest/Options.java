@@ -0,0 +1,102 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.loadtest;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The options of a load test, given as <code>--name=value</code> arguments.
+ */
+final class Options {
+
+  private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+  static {
+	DEFAULTS.put("port", "10011");
+	DEFAULTS.put("clients", "2000");
+	DEFAULTS.put("churn", "5");
+	DEFAULTS.put("renames", "2");
+	DEFAULTS.put("recordings", "1");
+	DEFAULTS.put("idle-changes", "5");
+	DEFAULTS.put("idle-ratio", "0.1");
+	DEFAULTS.put("bad-name-ratio", "0.02");
+	DEFAULTS.put("bad-word", "fuck");
+	DEFAULTS.put("afk-idle-time", "90");
+	DEFAULTS.put("flood-commands", "10");
+	DEFAULTS.put("flood-time", "3");
+	DEFAULTS.put("rtt", "20");
+	DEFAULTS.put("duration", "300");
+	DEFAULTS.put("report-interval", "10");
+	DEFAULTS.put("bot", "false");
+  }
+
+  private final Map<String, String> values = new HashMap<>(DEFAULTS);
+
+  /**
+   * Parses the arguments.
+   *
+   * @throws IllegalArgumentException
+   * 		if an argument is malformed or unknown
+   */
+  Options(String[] args) {
+	for (String arg : args) {
+	  final int separator = arg.indexOf('=');
+	  final String name = (separator < 0 ? arg : arg.substring(0, separator)).replaceFirst("^--", "")
+			  .toLowerCase(Locale.ROOT);
+	  if (!DEFAULTS.containsKey(name)) {
+		throw new IllegalArgumentException("Unknown option: " + arg);
+	  }
+	  values.put(name, separator < 0 ? "true" : arg.substring(separator + 1));
+	}
+  }
+
+  String get(String name) {
+	return values.get(name);
+  }
+
+  int getInt(String name) {
+	try {
+	  return Integer.parseInt(values.get(name));
+	} catch (NumberFormatException e) {
+	  throw new IllegalArgumentException("Option --" + name + " needs to be a number, but was: " + values.get(name));
+	}
+  }
+
+  double getDouble(String name) {
+	try {
+	  return Double.parseDouble(values.get(name));
+	} catch (NumberFormatException e) {
+	  throw new IllegalArgumentException("Option --" + name + " needs to be a number, but was: " + values.get(name));
+	}
+  }
+
+  boolean getBoolean(String name) {
+	return Boolean.parseBoolean(values.get(name));
+  }
+
+  /** Returns the usage of all options with their default values. */
+  static String usage() {
+	final StringBuilder usage = new StringBuilder("Options (with defaults):\n");
+	new java.util.TreeMap<>(DEFAULTS).forEach((name, value) -> usage.append("  --").append(name).append('=')
+			.append(value).append('\n'));
+	return usage.toString();
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.loadtest;
+
+import java.util.*;
+
+/**
+ * Encoding and decoding of the ServerQuery protocol's lines.
+ * <p>
+ * A request consists of the command's name followed by parameters (<code>key=value</code>) and options
+ * (<code>-name</code>), separated by spaces. Lists of entries, in requests and responses, are separated by a pipe.
+ * Spaces, pipes and other special characters within values are escaped with a backslash.
+ * </p>
+ */
+final class Protocol {
+
+  private static final String[][] ESCAPES = {
+		  {"\\", "\\\\"}, {"/", "\\/"}, {" ", "\\s"}, {"|", "\\p"}, {"\u0007", "\\a"}, {"\b", "\\b"}, {"\f", "\\f"},
+		  {"\n", "\\n"}, {"\r", "\\r"}, {"\t", "\\t"}, {"\u000b", "\\v"}
+  };
+
+  private Protocol() {
+  }
+
+  /** Escapes all special characters of the value. */
+  static String escape(String value) {
+	final StringBuilder escaped = new StringBuilder(value.length());
+	outer:
+	for (int i = 0; i < value.length(); i++) {
+	  final char c = value.charAt(i);
+	  for (String[] escape : ESCAPES) {
+		if (escape[0].charAt(0) == c) {
+		  escaped.append(escape[1]);
+		  continue outer;
+		}
+	  }
+	  escaped.append(c);
+	}
+
+	return escaped.toString();
+  }
+
+  /** Reverts {@link #escape(String)}. */
+  static String unescape(String value) {
+	if (value.indexOf('\\') < 0) {
+	  return value;
+	}
+
+	final StringBuilder unescaped = new StringBuilder(value.length());
+	for (int i = 0; i < value.length(); i++) {
+	  final char c = value.charAt(i);
+	  if (c != '\\' || i + 1 == value.length()) {
+		unescaped.append(c);
+		continue;
+	  }
+
+	  final char next = value.charAt(++i);
+	  String replacement = String.valueOf(next);
+	  for (String[] escape : ESCAPES) {
+		if (escape[1].charAt(1) == next) {
+		  replacement = escape[0];
+		  break;
+		}
+	  }
+	  unescaped.append(replacement);
+	}
+
+	return unescaped.toString();
+  }
+
+  /** Parses a request sent by a query client. */
+  static Request parse(String line) {
+	final String[] tokens = line.trim().split(" ");
+	final Request request = new Request(tokens[0].toLowerCase(Locale.ROOT));
+	for (int i = 1; i < tokens.length; i++) {
+	  if (tokens[i].isEmpty()) {
+		continue;
+	  }
+
+	  if (tokens[i].startsWith("-")) {
+		request.options.add(tokens[i].substring(1));
+		continue;
+	  }
+
+	  for (String entry : tokens[i].split("\\|")) {
+		final int separator = entry.indexOf('=');
+		final String key = separator < 0 ? entry : entry.substring(0, separator);
+		final String value = separator < 0 ? "" : unescape(entry.substring(separator + 1));
+		request.params.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+	  }
+	}
+
+	return request;
+  }
+
+  /** Formats the entries of a response, separating the entries by a pipe. */
+  static String format(List<Map<String, String>> entries) {
+	final StringBuilder line = new StringBuilder();
+	for (Map<String, String> entry : entries) {
+	  if (line.length() > 0) {
+		line.append('|');
+	  }
+	  line.append(format(entry));
+	}
+
+	return line.toString();
+  }
+
+  /** Formats a single entry. */
+  static String format(Map<String, String> entry) {
+	final StringBuilder line = new StringBuilder();
+	entry.forEach((key, value) -> {
+	  if (line.length() > 0) {
+		line.append(' ');
+	  }
+	  line.append(key);
+	  if (value != null) {
+		line.append('=').append(escape(value));
+	  }
+	});
+
+	return line.toString();
+  }
+
+  /**
+   * A parsed request.
+   */
+  static final class Request {
+
+	final String name;
+	final Map<String, List<String>> params = new HashMap<>();
+	final Set<String> options = new HashSet<>();
+
+	private Request(String name) {
+	  this.name = name;
+	}
+
+	/** Returns the first value of the parameter, or {@code null} if it is missing. */
+	String get(String key) {
+	  final List<String> values = params.get(key);
+	  return values == null ? null : values.get(0);
+	}
+
+	/** Returns the first value of the parameter as number. */
+	int getInt(String key) {
+	  final String value = get(key);
+	  if (value == null) {
+		throw new QueryException(1538, "invalid parameter");
+	  }
+
+	  try {
+		return Integer.parseInt(value);
+	  } catch (NumberFormatException e) {
+		throw new QueryException(1538, "invalid parameter");
+	  }
+	}
+
+	/** Returns all values of the parameter as numbers, e.g. of a list of client ids. */
+	int[] getInts(String key) {
+	  final List<String> values = params.getOrDefault(key, Collections.emptyList());
+	  final int[] ints = new int[values.size()];
+	  for (int i = 0; i < ints.length; i++) {
+		ints[i] = Integer.parseInt(values.get(i));
+	  }
+
+	  return ints;
+	}
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.loadtest;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single ServerQuery connection, handled by its own thread.
+ * <p>
+ * Every command is subject to the configured flood limits and answered after the configured round trip time.
+ * </p>
+ */
+final class QueryConnection implements Runnable {
+
+  private static final String WELCOME = "TS3\n\rWelcome to the TeamSpeak 3 ServerQuery interface, type \"help\" for a "
+		  + "list of commands and \"help <command>\" for information on a specific command.\n\r";
+
+  private final Socket socket;
+  private final VirtualServer server;
+  private final Statistics statistics;
+  private final SimulatedClient client;
+  private final Writer out;
+  private final long rttMillis;
+  private final double burst;
+  private final double tokensPerNano;
+  private double tokens;
+  private long lastRefill;
+  private volatile boolean registered;
+
+  QueryConnection(Socket socket, VirtualServer server, Statistics statistics, Options options) throws IOException {
+	this.socket = socket;
+	this.server = server;
+	this.statistics = statistics;
+	this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+	this.rttMillis = options.getInt("rtt");
+
+	final int floodCommands = options.getInt("flood-commands");
+	this.burst = floodCommands <= 0 ? Double.POSITIVE_INFINITY : floodCommands;
+	this.tokensPerNano = floodCommands <= 0 ? 0 : floodCommands / (options.getInt("flood-time") * 1_000_000_000D);
+	this.tokens = burst;
+	this.lastRefill = System.nanoTime();
+	this.client = server.connect(this);
+  }
+
+  SimulatedClient getClient() {
+	return client;
+  }
+
+  boolean isRegistered() {
+	return registered;
+  }
+
+  void setRegistered(boolean registered) {
+	this.registered = registered;
+  }
+
+  /** Sends a line to the query client. Responses and events may be sent by different threads. */
+  synchronized void send(String line) {
+	try {
+	  out.write(line);
+	  out.write("\n\r");
+	  out.flush();
+	} catch (IOException e) {
+	  // The reading thread notices the closed socket and removes the connection.
+	  closeSocket();
+	}
+  }
+
+  @Override
+  public void run() {
+	try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+			StandardCharsets.UTF_8))) {
+	  synchronized (this) {
+		out.write(WELCOME);
+		out.flush();
+	  }
+
+	  String line;
+	  while ((line = in.readLine()) != null) {
+		if (line.trim().isEmpty()) {
+		  continue;
+		}
+
+		final Protocol.Request request = Protocol.parse(line);
+		statistics.recordCommand(request.name);
+		final String response = respond(request);
+		if (rttMillis > 0) {
+		  Thread.sleep(rttMillis);
+		}
+		send(response);
+		if (request.name.equals("quit")) {
+		  break;
+		}
+	  }
+	} catch (IOException e) {
+	  // The query client disconnected.
+	} catch (InterruptedException e) {
+	  Thread.currentThread().interrupt();
+	} finally {
+	  close();
+	}
+  }
+
+  private String respond(Protocol.Request request) {
+	if (!acquireToken()) {
+	  statistics.recordFloodViolation();
+	  return error(524, "client is flooding");
+	}
+
+	try {
+	  final List<Map<String, String>> entries = server.execute(this, request);
+	  return entries.isEmpty() ? error(0, "ok") : Protocol.format(entries) + "\n\r" + error(0, "ok");
+	} catch (QueryException e) {
+	  return error(e.getId(), e.getMessage());
+	} catch (RuntimeException e) {
+	  return error(1538, "invalid parameter");
+	}
+  }
+
+  private boolean acquireToken() {
+	final long now = System.nanoTime();
+	tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+	lastRefill = now;
+	if (tokens < 1) {
+	  return false;
+	}
+
+	tokens--;
+	return true;
+  }
+
+  private static String error(int id, String message) {
+	return "error id=" + id + " msg=" + Protocol.escape(message);
+  }
+
+  private void close() {
+	server.disconnect(this);
+	closeSocket();
+  }
+
+  private void closeSocket() {
+	try {
+	  socket.close();
+	} catch (IOException e) {
+	  // Already closed.
+	}
+  }
+}
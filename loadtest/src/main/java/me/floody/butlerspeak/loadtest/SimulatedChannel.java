@@ -0,0 +1,67 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A channel of the simulated server.
+ * <p>
+ * The state is guarded by the {@link VirtualServer} the channel belongs to.
+ * </p>
+ */
+final class SimulatedChannel {
+
+  final int id;
+  int parentId;
+  String name;
+  boolean permanent;
+
+  SimulatedChannel(int id, int parentId, String name, boolean permanent) {
+	this.id = id;
+	this.parentId = parentId;
+	this.name = name;
+	this.permanent = permanent;
+  }
+
+  /** Returns the properties listed by <code>channellist</code> and <code>channelinfo</code>. */
+  Map<String, String> toProperties(int clients) {
+	final Map<String, String> properties = new LinkedHashMap<>();
+	properties.put("pid", String.valueOf(parentId));
+	properties.put("channel_order", "0");
+	properties.put("channel_name", name);
+	properties.put("channel_topic", "");
+	properties.put("channel_flag_default", id == 1 ? "1" : "0");
+	properties.put("channel_flag_password", "0");
+	properties.put("channel_flag_permanent", permanent ? "1" : "0");
+	properties.put("channel_flag_semi_permanent", "0");
+	properties.put("channel_codec", "4");
+	properties.put("channel_codec_quality", "6");
+	properties.put("channel_needed_talk_power", "0");
+	properties.put("channel_icon_id", "0");
+	properties.put("total_clients", String.valueOf(clients));
+	properties.put("total_clients_family", String.valueOf(clients));
+	properties.put("channel_maxclients", "-1");
+	properties.put("channel_maxfamilyclients", "-1");
+	properties.put("channel_needed_subscribe_power", "0");
+	properties.put("seconds_empty", clients == 0 ? "0" : "-1");
+	return properties;
+  }
+}
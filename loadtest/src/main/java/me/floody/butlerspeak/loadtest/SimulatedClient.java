@@ -0,0 +1,128 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A client connected to the simulated server, either a regular client or a query client.
+ * <p>
+ * The state is guarded by the {@link VirtualServer} the client is connected to.
+ * </p>
+ */
+final class SimulatedClient {
+
+  final int id;
+  final int databaseId;
+  final String uniqueIdentifier;
+  final boolean query;
+  final long created;
+  String nickname;
+  int channelId;
+  int[] serverGroups;
+  boolean recording;
+  long lastActive;
+  int totalConnections;
+  /** Whether the client is away from the keyboard, so its idle time keeps growing. */
+  boolean idle;
+  /** Whether exceeding the idle time was already counted as violation. */
+  boolean idleReported;
+  /** The time the client started violating a rule, or 0 if it does not (or the violation was handled). */
+  long violatingSince;
+
+  SimulatedClient(int id, String nickname, int channelId, int[] serverGroups, boolean query) {
+	this.id = id;
+	this.databaseId = id + 1000;
+	this.uniqueIdentifier = "sim" + id + "=";
+	this.query = query;
+	this.nickname = nickname;
+	this.channelId = channelId;
+	this.serverGroups = serverGroups;
+	this.created = System.currentTimeMillis();
+	this.lastActive = created;
+	this.totalConnections = 1;
+  }
+
+  /** Returns the properties listed by <code>clientlist</code> and <code>clientinfo</code>. */
+  Map<String, String> toProperties(long now) {
+	final Map<String, String> properties = new LinkedHashMap<>();
+	properties.put("cid", String.valueOf(channelId));
+	properties.put("client_database_id", String.valueOf(databaseId));
+	properties.put("client_nickname", nickname);
+	properties.put("client_type", query ? "1" : "0");
+	properties.put("client_unique_identifier", uniqueIdentifier);
+	properties.put("client_away", "0");
+	properties.put("client_away_message", "");
+	properties.put("client_input_muted", "0");
+	properties.put("client_output_muted", "0");
+	properties.put("client_is_recording", recording ? "1" : "0");
+	properties.put("client_idle_time", String.valueOf(now - lastActive));
+	properties.put("client_created", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(created)));
+	properties.put("client_lastconnected", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(created)));
+	properties.put("client_totalconnections", String.valueOf(totalConnections));
+	properties.put("client_servergroups", join(serverGroups));
+	properties.put("client_channel_group_id", "8");
+	properties.put("client_country", query ? "" : "DE");
+	properties.put("connection_client_ip", "127.0.0.1");
+	properties.put("client_version", query ? "ServerQuery" : "3.5.0 [Build: 1560000000]");
+	properties.put("client_platform", query ? "ServerQuery" : "Windows");
+	return properties;
+  }
+
+  /**
+   * Returns the properties of a <code>notifycliententerview</code> event, without the event's own fields. Like a real
+   * server, neither connection details, e.g. the IP or total connections, nor the client's version are part of it.
+   */
+  Map<String, String> toEnterViewProperties() {
+	final Map<String, String> properties = new LinkedHashMap<>();
+	properties.put("client_unique_identifier", uniqueIdentifier);
+	properties.put("client_nickname", nickname);
+	properties.put("client_input_muted", "0");
+	properties.put("client_output_muted", "0");
+	properties.put("client_outputonly_muted", "0");
+	properties.put("client_input_hardware", "1");
+	properties.put("client_output_hardware", "1");
+	properties.put("client_meta_data", "");
+	properties.put("client_is_recording", recording ? "1" : "0");
+	properties.put("client_database_id", String.valueOf(databaseId));
+	properties.put("client_channel_group_id", "8");
+	properties.put("client_servergroups", join(serverGroups));
+	properties.put("client_away", "0");
+	properties.put("client_away_message", "");
+	properties.put("client_type", query ? "1" : "0");
+	properties.put("client_talk_power", "0");
+	properties.put("client_description", "");
+	properties.put("client_country", query ? "" : "DE");
+	return properties;
+  }
+
+  private static String join(int[] ids) {
+	final StringBuilder joined = new StringBuilder();
+	for (int id : ids) {
+	  if (joined.length() > 0) {
+		joined.append(',');
+	  }
+	  joined.append(id);
+	}
+
+	return joined.toString();
+  }
+}
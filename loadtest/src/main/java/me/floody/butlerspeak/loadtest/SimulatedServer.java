@@ -0,0 +1,71 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.loadtest;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * A loopback ServerQuery server accepting any number of query connections.
+ */
+final class SimulatedServer implements Runnable {
+
+  private final ServerSocket serverSocket;
+  private final VirtualServer server;
+  private final Statistics statistics;
+  private final Options options;
+
+  SimulatedServer(VirtualServer server, Statistics statistics, Options options) throws IOException {
+	this.serverSocket = new ServerSocket(options.getInt("port"), 50, InetAddress.getLoopbackAddress());
+	this.server = server;
+	this.statistics = statistics;
+	this.options = options;
+  }
+
+  int getPort() {
+	return serverSocket.getLocalPort();
+  }
+
+  /** Accepts connections on a new thread. */
+  void start() {
+	final Thread thread = new Thread(this, "Simulated-ServerQuery");
+	thread.setDaemon(true);
+	thread.start();
+  }
+
+  @Override
+  public void run() {
+	while (!serverSocket.isClosed()) {
+	  try {
+		final Socket socket = serverSocket.accept();
+		socket.setTcpNoDelay(true);
+		final Thread thread = new Thread(new QueryConnection(socket, server, statistics, options),
+				"Simulated-ServerQuery-" + socket.getPort());
+		thread.setDaemon(true);
+		thread.start();
+	  } catch (IOException e) {
+		if (!serverSocket.isClosed()) {
+		  System.err.println("Could not accept a query connection: " + e.getMessage());
+		}
+	  }
+	}
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.loadtest;
+
+import me.floody.butlerspeak.metrics.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The results of a load test.
+ */
+final class Statistics {
+
+  private final Map<String, LongAdder> commands = new ConcurrentHashMap<>();
+  private final LongAdder floodViolations = new LongAdder();
+  private final Histogram enforcementLatency = new Histogram();
+  private volatile long maxEnforcementLatency;
+
+  void recordCommand(String name) {
+	commands.computeIfAbsent(name, n -> new LongAdder()).increment();
+  }
+
+  void recordFloodViolation() {
+	floodViolations.increment();
+  }
+
+  /** Records the time between a client starting to violate a rule and the first action targeting it. */
+  void recordEnforcement(long nanos) {
+	enforcementLatency.record(nanos);
+	if (nanos > maxEnforcementLatency) {
+	  maxEnforcementLatency = nanos;
+	}
+  }
+
+  long getCommandCount() {
+	long total = 0;
+	for (LongAdder count : commands.values()) {
+	  total += count.sum();
+	}
+
+	return total;
+  }
+
+  /** Returns a summary of all results. */
+  String report(int clients, int pendingViolations) {
+	final StringBuilder report = new StringBuilder();
+	report.append("Clients: ").append(clients).append('\n');
+	report.append("Commands issued: ").append(getCommandCount()).append('\n');
+	new TreeMap<>(commands).forEach((name, count) -> report.append("  ").append(name).append(": ")
+			.append(count.sum()).append('\n'));
+	report.append("Enforcement: ").append(enforcementLatency.getCount()).append(" handled, ")
+			.append(pendingViolations).append(" pending, latency p50 ").append(quantile(0.5)).append(", p99 ")
+			.append(quantile(0.99)).append(", max ")
+			.append(TimeUnit.NANOSECONDS.toMillis(maxEnforcementLatency)).append(" ms\n");
+	report.append("Flood violations: ").append(floodViolations.sum()).append('\n');
+	return report.toString();
+  }
+
+  /** Formats the upper bound of the enforcement latency's quantile. */
+  private String quantile(double quantile) {
+	final long millis = enforcementLatency.getQuantile(quantile);
+	return millis == Long.MAX_VALUE ? "> 30000 ms" : "<= " + millis + " ms";
+  }
+}
@@ -0,0 +1,409 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.loadtest;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The state of the simulated virtual server and the implementation of the commands used by the bot.
+ * <p>
+ * All state is guarded by this object's monitor. Changes visible to query clients are announced as events to all
+ * connections that registered for them, like a real server does.
+ * </p>
+ */
+final class VirtualServer {
+
+  static final int DEFAULT_CHANNEL = 1;
+  static final int GUEST_GROUP = 8;
+  static final int QUERY_GROUP = 2;
+
+  private final Map<Integer, SimulatedClient> clients = new LinkedHashMap<>();
+  private final Map<Integer, SimulatedChannel> channels = new LinkedHashMap<>();
+  private final List<QueryConnection> connections = new CopyOnWriteArrayList<>();
+  private final Statistics statistics;
+  private final String badWord;
+  private int nextClientId = 1;
+  private int nextChannelId = 1;
+
+  VirtualServer(Statistics statistics, String badWord) {
+	this.statistics = statistics;
+	this.badWord = badWord.toLowerCase(Locale.ROOT);
+	createChannel(0, "Lobby", true);
+	createChannel(0, "AFK", true);
+	createChannel(0, "Support", true);
+	for (int i = 1; i <= 10; i++) {
+	  createChannel(0, "Room " + i, true);
+	}
+  }
+
+  private SimulatedChannel createChannel(int parentId, String name, boolean permanent) {
+	final SimulatedChannel channel = new SimulatedChannel(nextChannelId++, parentId, name, permanent);
+	channels.put(channel.id, channel);
+	return channel;
+  }
+
+  /** Returns the server groups as listed by <code>servergrouplist</code>. */
+  private static List<Map<String, String>> serverGroups() {
+	final List<Map<String, String>> groups = new ArrayList<>();
+	groups.add(serverGroup(QUERY_GROUP, "Admin Server Query", 2));
+	groups.add(serverGroup(6, "Server Admin", 1));
+	groups.add(serverGroup(7, "Normal", 1));
+	groups.add(serverGroup(GUEST_GROUP, "Guest", 1));
+	groups.add(serverGroup(9, "Supporter", 1));
+	groups.add(serverGroup(10, "Member", 1));
+	return groups;
+  }
+
+  private static Map<String, String> serverGroup(int id, String name, int type) {
+	final Map<String, String> group = new LinkedHashMap<>();
+	group.put("sgid", String.valueOf(id));
+	group.put("name", name);
+	group.put("type", String.valueOf(type));
+	group.put("iconid", "0");
+	group.put("savedb", "1");
+	group.put("sortid", "0");
+	group.put("namemode", "0");
+	return group;
+  }
+
+  /** Returns the ids of all channels a regular client can join. */
+  synchronized int[] getChannelIds() {
+	return channels.keySet().stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /** Returns the ids of all regular clients. */
+  synchronized int[] getClientIds() {
+	return clients.values().stream().filter(client -> !client.query).mapToInt(client -> client.id).toArray();
+  }
+
+  synchronized int getClientCount() {
+	return (int) clients.values().stream().filter(client -> !client.query).count();
+  }
+
+  /** Returns the amount of clients violating a rule without any action taken yet. */
+  synchronized int getPendingViolations() {
+	return (int) clients.values().stream().filter(client -> client.violatingSince != 0).count();
+  }
+
+  /** Connects a regular client and announces it. */
+  synchronized SimulatedClient join(String nickname, int channelId, int[] serverGroups, boolean idle) {
+	final SimulatedClient client = new SimulatedClient(nextClientId++, nickname, channelId, serverGroups, false);
+	client.idle = idle;
+	clients.put(client.id, client);
+	if (isBadName(nickname)) {
+	  client.violatingSince = System.nanoTime();
+	}
+
+	final Map<String, String> event = new LinkedHashMap<>();
+	event.put("cfid", "0");
+	event.put("ctid", String.valueOf(channelId));
+	event.put("reasonid", "0");
+	event.put("clid", String.valueOf(client.id));
+	event.putAll(client.toEnterViewProperties());
+	broadcast("notifycliententerview " + Protocol.format(event));
+	return client;
+  }
+
+  /** Disconnects a regular client and announces it. */
+  synchronized void leave(int clientId) {
+	final SimulatedClient client = clients.remove(clientId);
+	if (client != null) {
+	  broadcast("notifyclientleftview cfid=" + client.channelId + " ctid=0 reasonid=8 reasonmsg=leaving clid="
+			  + clientId);
+	}
+  }
+
+  /** Changes the nickname of a client. Like a real server, no event is sent to query clients. */
+  synchronized void rename(int clientId, String nickname) {
+	final SimulatedClient client = clients.get(clientId);
+	if (client != null) {
+	  client.nickname = nickname;
+	  if (isBadName(nickname) && client.violatingSince == 0) {
+		client.violatingSince = System.nanoTime();
+	  }
+	}
+  }
+
+  /** Toggles whether a client records. Like a real server, no event is sent to query clients. */
+  synchronized void toggleRecording(int clientId) {
+	final SimulatedClient client = clients.get(clientId);
+	if (client != null) {
+	  client.recording = !client.recording;
+	  if (client.recording && client.violatingSince == 0) {
+		client.violatingSince = System.nanoTime();
+	  }
+	}
+  }
+
+  synchronized void toggleIdle(int clientId) {
+	final SimulatedClient client = clients.get(clientId);
+	if (client != null) {
+	  client.idle = !client.idle;
+	}
+  }
+
+  /**
+   * Updates the idle times. Active clients reset their idle time, idle clients start violating the AFK rule once
+   * their idle time exceeds the given threshold.
+   */
+  synchronized void tick(long now, long idleThreshold) {
+	for (SimulatedClient client : clients.values()) {
+	  if (client.query) {
+		continue;
+	  }
+
+	  if (!client.idle) {
+		client.lastActive = now;
+		client.idleReported = false;
+	  } else if (!client.idleReported && now - client.lastActive > idleThreshold) {
+		client.idleReported = true;
+		if (client.violatingSince == 0) {
+		  client.violatingSince = System.nanoTime();
+		}
+	  }
+	}
+  }
+
+  private boolean isBadName(String nickname) {
+	return nickname.toLowerCase(Locale.ROOT).contains(badWord);
+  }
+
+  /** Adds a new query connection, which is visible as query client. */
+  synchronized SimulatedClient connect(QueryConnection connection) {
+	final SimulatedClient client = new SimulatedClient(nextClientId++, "serveradmin from 127.0.0.1", DEFAULT_CHANNEL,
+			new int[] {QUERY_GROUP}, true);
+	clients.put(client.id, client);
+	connections.add(connection);
+	return client;
+  }
+
+  synchronized void disconnect(QueryConnection connection) {
+	connections.remove(connection);
+	clients.remove(connection.getClient().id);
+  }
+
+  private void broadcast(String event) {
+	for (QueryConnection connection : connections) {
+	  if (connection.isRegistered()) {
+		connection.send(event);
+	  }
+	}
+  }
+
+  /**
+   * Executes a command of the given connection.
+   *
+   * @return the entries of the response, empty if the command has no response
+   * @throws QueryException
+   * 		if the command failed
+   */
+  synchronized List<Map<String, String>> execute(QueryConnection connection, Protocol.Request request) {
+	final SimulatedClient self = connection.getClient();
+	final long now = System.currentTimeMillis();
+	switch (request.name) {
+	  case "login":
+	  case "logout":
+	  case "quit":
+	  case "gm":
+	  case "servernotifyunregister":
+		return Collections.emptyList();
+	  case "use":
+		if (request.get("client_nickname") != null) {
+		  self.nickname = request.get("client_nickname");
+		}
+		return Collections.emptyList();
+	  case "clientupdate":
+		if (request.get("client_nickname") != null) {
+		  self.nickname = request.get("client_nickname");
+		}
+		return Collections.emptyList();
+	  case "servernotifyregister":
+		connection.setRegistered(true);
+		return Collections.emptyList();
+	  case "version":
+		return single("version", "3.8.0", "build", "1560000000", "platform", "Linux");
+	  case "whoami":
+		return single("virtualserver_status", "online", "virtualserver_id", "1", "virtualserver_unique_identifier",
+				"simulated=", "virtualserver_port", "9987", "client_id", String.valueOf(self.id), "client_channel_id",
+				String.valueOf(self.channelId), "client_nickname", self.nickname, "client_database_id",
+				String.valueOf(self.databaseId), "client_login_name", "serveradmin", "client_unique_identifier",
+				self.uniqueIdentifier, "client_origin_server_id", "0");
+	  case "clientlist":
+		final List<Map<String, String>> clientList = new ArrayList<>(clients.size());
+		for (SimulatedClient client : clients.values()) {
+		  final Map<String, String> entry = new LinkedHashMap<>();
+		  entry.put("clid", String.valueOf(client.id));
+		  entry.putAll(client.toProperties(now));
+		  clientList.add(entry);
+		}
+		return clientList;
+	  case "clientinfo":
+		return Collections.singletonList(client(request.getInt("clid")).toProperties(now));
+	  case "channellist":
+		final List<Map<String, String>> channelList = new ArrayList<>(channels.size());
+		for (SimulatedChannel channel : channels.values()) {
+		  final Map<String, String> entry = new LinkedHashMap<>();
+		  entry.put("cid", String.valueOf(channel.id));
+		  entry.putAll(channel.toProperties(countClients(channel.id)));
+		  channelList.add(entry);
+		}
+		return channelList;
+	  case "channelinfo":
+		final SimulatedChannel info = channel(request.getInt("cid"));
+		return Collections.singletonList(info.toProperties(countClients(info.id)));
+	  case "servergrouplist":
+		return serverGroups();
+	  case "clientmove":
+		final SimulatedChannel target = channel(request.getInt("cid"));
+		for (int clientId : request.getInts("clid")) {
+		  final SimulatedClient client = client(clientId);
+		  if (client.channelId == target.id) {
+			throw new QueryException(770, "already member of channel");
+		  }
+		  enforced(client);
+		  move(client, target.id, 1, self);
+		}
+		return Collections.emptyList();
+	  case "clientkick":
+		final int reason = request.getInt("reasonid");
+		final String reasonMessage = request.get("reasonmsg") == null ? "" : request.get("reasonmsg");
+		for (int clientId : request.getInts("clid")) {
+		  final SimulatedClient client = client(clientId);
+		  enforced(client);
+		  if (reason == 4) {
+			move(client, DEFAULT_CHANNEL, 4, self);
+		  } else {
+			clients.remove(clientId);
+			broadcast("notifyclientleftview cfid=" + client.channelId + " ctid=0 reasonid=5 " + invoker(self)
+					+ " reasonmsg=" + Protocol.escape(reasonMessage) + " clid=" + clientId);
+		  }
+		}
+		return Collections.emptyList();
+	  case "clientpoke":
+		enforced(client(request.getInt("clid")));
+		return Collections.emptyList();
+	  case "sendtextmessage":
+		if (request.getInt("targetmode") == 1) {
+		  enforced(client(request.getInt("target")));
+		}
+		return Collections.emptyList();
+	  case "channelcreate":
+		return createChannel(request, self);
+	  case "channeledit":
+		final SimulatedChannel edited = channel(request.getInt("cid"));
+		if (request.get("channel_name") != null) {
+		  edited.name = request.get("channel_name");
+		  broadcast("notifychanneledited cid=" + edited.id + " reasonid=10 " + invoker(self) + " channel_name="
+				  + Protocol.escape(edited.name));
+		}
+		return Collections.emptyList();
+	  case "channeldelete":
+		final SimulatedChannel deleted = channel(request.getInt("cid"));
+		if (countClients(deleted.id) > 0 && !"1".equals(request.get("force"))) {
+		  throw new QueryException(772, "channel not empty");
+		}
+		for (SimulatedClient client : new ArrayList<>(clients.values())) {
+		  if (client.channelId == deleted.id) {
+			move(client, DEFAULT_CHANNEL, 1, self);
+		  }
+		}
+		channels.remove(deleted.id);
+		broadcast("notifychanneldeleted " + invoker(self) + " cid=" + deleted.id);
+		return Collections.emptyList();
+	  default:
+		throw new QueryException(256, "command not found");
+	}
+  }
+
+  private List<Map<String, String>> createChannel(Protocol.Request request, SimulatedClient self) {
+	final String name = request.get("channel_name");
+	for (SimulatedChannel channel : channels.values()) {
+	  if (channel.name.equals(name)) {
+		throw new QueryException(771, "channel name is already in use");
+	  }
+	}
+
+	final String parentId = request.get("cpid");
+	final SimulatedChannel channel = createChannel(parentId == null ? 0 : Integer.parseInt(parentId), name,
+			"1".equals(request.get("channel_flag_permanent")));
+	broadcast("notifychannelcreated cid=" + channel.id + " cpid=" + channel.parentId + " channel_name="
+			+ Protocol.escape(name) + " " + invoker(self));
+	// Like a real server, the query client is moved into the channel it created.
+	move(self, channel.id, 0, self);
+	return single("cid", String.valueOf(channel.id));
+  }
+
+  private void move(SimulatedClient client, int channelId, int reason, SimulatedClient invoker) {
+	client.channelId = channelId;
+	broadcast("notifyclientmoved ctid=" + channelId + " reasonid=" + reason
+			+ (reason == 0 ? "" : " " + invoker(invoker)) + " clid=" + client.id);
+  }
+
+  /** Records the first action targeting a client that violates a rule. */
+  private void enforced(SimulatedClient client) {
+	if (client.violatingSince != 0) {
+	  statistics.recordEnforcement(System.nanoTime() - client.violatingSince);
+	  client.violatingSince = 0;
+	}
+  }
+
+  private SimulatedClient client(int clientId) {
+	final SimulatedClient client = clients.get(clientId);
+	if (client == null) {
+	  throw new QueryException(512, "invalid clientID");
+	}
+
+	return client;
+  }
+
+  private SimulatedChannel channel(int channelId) {
+	final SimulatedChannel channel = channels.get(channelId);
+	if (channel == null) {
+	  throw new QueryException(768, "invalid channelID");
+	}
+
+	return channel;
+  }
+
+  private int countClients(int channelId) {
+	int count = 0;
+	for (SimulatedClient client : clients.values()) {
+	  if (client.channelId == channelId) {
+		count++;
+	  }
+	}
+
+	return count;
+  }
+
+  private static String invoker(SimulatedClient invoker) {
+	return "invokerid=" + invoker.id + " invokername=" + Protocol.escape(invoker.nickname) + " invokeruid="
+			+ Protocol.escape(invoker.uniqueIdentifier);
+  }
+
+  private static List<Map<String, String>> single(String... keysAndValues) {
+	final Map<String, String> entry = new LinkedHashMap<>();
+	for (int i = 0; i < keysAndValues.length; i += 2) {
+	  entry.put(keysAndValues[i], keysAndValues[i + 1]);
+	}
+
+	return Collections.singletonList(entry);
+  }
+}
@@ -19,112 +19,347 @@
 package me.floody.butlerspeak;
 
 import com.github.theholywaffle.teamspeak3.TS3Api;
-import com.github.theholywaffle.teamspeak3.TS3Config;
-import com.github.theholywaffle.teamspeak3.TS3Query;
-import com.github.theholywaffle.teamspeak3.api.exception.TS3CommandFailedException;
-import com.github.theholywaffle.teamspeak3.api.exception.TS3ConnectionFailedException;
+import com.github.theholywaffle.teamspeak3.api.event.TS3Event;
+import com.github.theholywaffle.teamspeak3.api.event.TS3Listener;
+import com.github.theholywaffle.teamspeak3.api.exception.TS3Exception;
 import me.floody.butlerspeak.config.ConfigNode;
+import me.floody.butlerspeak.config.ConfigSnapshot;
 import me.floody.butlerspeak.config.Configuration;
-import me.floody.butlerspeak.plugins.*;
+import me.floody.butlerspeak.history.ClientHistory;
+import me.floody.butlerspeak.metrics.Metrics;
+import me.floody.butlerspeak.metrics.MetricsServer;
+import me.floody.butlerspeak.plugins.EventRouter;
+import me.floody.butlerspeak.plugins.PluginProvider;
+import me.floody.butlerspeak.query.Bootstrap;
+import me.floody.butlerspeak.query.ChannelCache;
+import me.floody.butlerspeak.query.ClientSnapshotService;
+import me.floody.butlerspeak.query.CommandBatcher;
+import me.floody.butlerspeak.query.CommandDispatcher;
+import me.floody.butlerspeak.query.ConnectionManager;
+import me.floody.butlerspeak.query.ServerGroupCache;
+import me.floody.butlerspeak.scheduler.Scheduler;
+import me.floody.butlerspeak.utils.IdSet;
 import me.floody.butlerspeak.utils.Log;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class ButlerSpeak {
 
   private final TS3Api api;
-  private final Configuration config = new Configuration();
-  private final Log logger = new Log(this.getClass().getName());
-  private static volatile int clientId;
+  private final ConnectionManager connectionManager;
+  private final Scheduler scheduler;
+  private final Executor eventExecutor;
+  private final CommandDispatcher dispatcher;
+  private final CommandBatcher batcher;
+  private final ClientSnapshotService snapshotService;
+  private final ServerGroupCache groupCache;
+  private final ClientHistory history;
+  private final Bootstrap bootstrap;
+  private final ChannelCache channelCache;
+  private final Metrics metrics;
+  private final Configuration config;
+  private final Log logger;
+  private static final int WORKER_THREADS = 4;
+  private static final long DISPATCH_INTERVAL = 100;
+  private static final long HISTORY_INTERVAL = 1000;
 
   public static void main(String[] args) {
-	new ButlerSpeak();
+	final Configuration config = new Configuration();
+
+	// All servers share a single scheduler and worker pool instead of owning their own threads.
+	final Scheduler scheduler = new Scheduler(WORKER_THREADS);
+	scheduler.start();
+	final Executor eventExecutor = EventRouter.newExecutor(WORKER_THREADS);
+	final List<Metrics> metrics = new ArrayList<>();
+	for (Configuration serverConfig : config.getServerConfigurations()) {
+	  try {
+		metrics.add(new ButlerSpeak(serverConfig, scheduler, eventExecutor).getMetrics());
+	  } catch (TS3Exception e) {
+		new Log(ButlerSpeak.class.getName()).error(e.getMessage(), e.getCause());
+		System.exit(1);
+	  }
+	}
+
+	// The metrics of all servers are served by a single endpoint.
+	final int metricsPort = config.getMetricsPort();
+	if (metricsPort != -1) {
+	  try {
+		new MetricsServer(metricsPort, metrics).start();
+	  } catch (IOException e) {
+		new Log(ButlerSpeak.class.getName()).error("Could not start the metrics endpoint on port " + metricsPort + ".",
+				e);
+	  }
+	}
+
+	// Apply changes of the configuration file without restarting the bot.
+	config.watch();
   }
 
   /**
    * Constructs a new instance.
    * <p>
-   * This constructor sets up the query which is used to communicate with the TeamSpeak3 server.
+   * This constructor sets up the query which is used to communicate with a single virtual server. Every managed
+   * virtual server gets its own instance, sharing the given scheduler and the executor delivering events to the
+   * plugins.
    * </p><p><i>
    * Note that this constructor is <code>private</code> to prevent initializing new instances from
    * other classes.
    * </i></p>
+   *
+   * @throws TS3Exception
+   * 		if the server's clients, channels and groups could not be retrieved
    */
-  protected ButlerSpeak() {
-	final TS3Config ts3Config = new TS3Config();
-	ts3Config.setHost(config.get(ConfigNode.SERVER_HOST));
-	ts3Config.setQueryPort(config.getInt(ConfigNode.QUERY_PORT));
-	ts3Config.setFloodRate((config.getBoolean(ConfigNode.BOT_SLOWMODE) ? TS3Query.FloodRate.DEFAULT :
-			TS3Query.FloodRate.UNLIMITED));
-
-	final TS3Query query = new TS3Query(ts3Config);
-	query.connect();
-
-	// Tries to authenticate the TeamSpeak 3 server. If the connections fails, the application shuts
-	// down.
-	this.api = query.getApi();
+  protected ButlerSpeak(Configuration config, Scheduler scheduler, Executor eventExecutor) {
+	this.config = config;
+	this.scheduler = scheduler;
+	this.eventExecutor = eventExecutor;
+	this.logger = getAndSetLogger(this.getClass().getName());
+
+	// Events and commands use separate connections, so neither delays the other.
+	this.connectionManager = new ConnectionManager(config, logger);
+	connectionManager.connect();
+	this.api = connectionManager.getEventApi();
+
+	this.metrics = new Metrics(config.getName());
+	this.dispatcher = new CommandDispatcher(connectionManager, config.getSnapshot(), metrics);
+	metrics.bind(dispatcher, scheduler);
+	config.addReloadListener(dispatcher::applyLimits);
+	scheduler.schedulePeriodic(dispatcher, DISPATCH_INTERVAL, DISPATCH_INTERVAL, TimeUnit.MILLISECONDS);
+	this.batcher = new CommandBatcher(dispatcher, scheduler);
+	api.addTS3Listeners(batcher);
+	this.snapshotService = new ClientSnapshotService(this);
+	api.addTS3Listeners(snapshotService);
+	connectionManager.addReconnectListener(snapshotService::resync);
+	this.groupCache = new ServerGroupCache();
+	snapshotService.addListener(groupCache);
+	api.addTS3Listeners(groupCache);
+	// Registered before the plugins, so their listeners already see the record of a joining client.
+	this.history = createHistory();
+	snapshotService.addListener(history);
+	api.addTS3Listeners(history);
+	scheduler.schedulePeriodic(history, HISTORY_INTERVAL, HISTORY_INTERVAL, TimeUnit.MILLISECONDS);
+
+	// Retrieve the server's state once, so plugins don't need to query every client or channel on their own.
 	try {
-	  api.login(config.get(ConfigNode.QUERY_USERNAME), config.get(ConfigNode.QUERY_PASSWORD));
-	} catch (TS3CommandFailedException e) {
-	  logger.error("Could not connect to host " + config.get(ConfigNode.SERVER_HOST) + ". Please check your " +
-			  "login credentials!", e);
-	  System.exit(1);
-	} catch (TS3ConnectionFailedException e) {
-	  logger.error("Could not establish a connection to " + config.get(ConfigNode.SERVER_HOST) + ". Please check your" +
-			  " hostname (note that the port is not part of the hostname) and ports.", e);
-	  System.exit(1);
+	  this.bootstrap = Bootstrap.fetch(dispatcher);
+	} catch (TS3Exception e) {
+	  throw new TS3Exception("Could not retrieve the server's clients, channels and groups.", e);
 	}
+	logger.info("Retrieved " + bootstrap.getClients().size() + " clients, " + bootstrap.getChannels().size()
+			+ " channels and " + bootstrap.getServerGroups().size() + " server groups.");
+	checkServerGroups();
+	this.channelCache = new ChannelCache(bootstrap.getChannels(), dispatcher, logger);
+	api.addTS3Listeners(channelCache);
+	connectionManager.addReconnectListener(channelCache::reload);
+	loadPlugins();
+	snapshotService.start(bootstrap.getClients());
+  }
 
-	api.selectVirtualServerByPort(config.getInt(ConfigNode.SERVER_PORT),
-			config.get(ConfigNode.BOT_USERNAME));
-	api.registerAllEvents();
+  /**
+   * Creates the client history. Unless configured otherwise, every server gets its own file named after it.
+   */
+  private ClientHistory createHistory() {
+	String file = config.getSnapshot().getBotHistoryFile();
+	if (file == null) {
+	  file = config.getName() == null ? "ButlerSpeak.history" : "ButlerSpeak-" + config.getName() + ".history";
+	}
 
-	loadPlugins();
-	clientId = api.whoAmI().getId();
+	return new ClientHistory(file.isEmpty() ? null : Paths.get(file), logger);
   }
 
   /**
-   * Loads all plugins that should be enabled specified by the configuration file
+   * Loads all plugins that should be enabled specified by the configuration file.
+   * <p>
+   * Plugins are provided by the {@link PluginProvider}s found via {@link ServiceLoader}, only the enabled ones are
+   * created. They are initialized in parallel, using the data of the bootstrap instead of querying the server on their
+   * own. Since a plugin's constructor might wait for a command, which is sent by the scheduler's workers, plugins are
+   * initialized on threads of their own. Listeners are subscribed to their declared events once all plugins are
+   * initialized, every plugin receives its events through its own queue.
+   * </p>
    */
   private void loadPlugins() {
+	final Map<String, PluginProvider> providers = new HashMap<>();
+	for (PluginProvider provider : ServiceLoader.load(PluginProvider.class)) {
+	  final PluginProvider other = providers.putIfAbsent(provider.getName(), provider);
+	  if (other != null) {
+		logger.error("Plugin " + provider.getName() + " is provided by both " + other.getClass().getName() + " and "
+				+ provider.getClass().getName() + ", ignoring the latter.");
+	  }
+	}
+
+	final Map<String, PluginProvider> plugins = new LinkedHashMap<>();
 	for (String plugin : config.getStringArray(ConfigNode.BOT_PLUGINS)) {
-	  switch (plugin.toLowerCase()) {
-		case "welcome":
-		  api.addTS3Listeners(new WelcomeMessage(this));
-		  break;
-		case "afk":
-		  api.addTS3Listeners(new AfkManager(this));
-		  break;
-		case "badname":
-		  api.addTS3Listeners(new NameChecker(this));
-		  break;
-		case "recording":
-		  api.addTS3Listeners(new RecordingChecker(this));
-		  break;
-		case "support":
-		  api.addTS3Listeners(new SupportManager(this));
-		  break;
-		case "advertisement":
-		  new Advertisement(this);
-		  break;
-		default:
-		  logger.error("Could not load plugin: " + plugin + "."
-				  + " Please check your configuration file. Plugins should be separated by a comma (,).");
-		  break;
+	  final PluginProvider provider = providers.get(plugin.toLowerCase());
+	  if (provider == null) {
+		logger.error("Could not load plugin: " + plugin + "."
+				+ " Please check your configuration file. Plugins should be separated by a comma (,).");
+		continue;
+	  }
+
+	  plugins.put(plugin, provider);
+	}
+
+	final Map<String, TS3Listener> loaded = new ConcurrentHashMap<>();
+	final CountDownLatch initialized = new CountDownLatch(plugins.size());
+	final AtomicInteger threadCount = new AtomicInteger();
+	final ExecutorService initializer = Executors.newFixedThreadPool(Math.max(1, Math.min(plugins.size(),
+			WORKER_THREADS)), runnable -> new Thread(runnable, "ButlerSpeak-Plugins-" + threadCount.incrementAndGet()));
+	plugins.forEach((name, provider) -> initializer.execute(() -> {
+	  try {
+		loaded.put(name, provider.create(this));
+	  } catch (RuntimeException e) {
+		logger.error("Could not load plugin: " + name + ".", e);
+	  } finally {
+		initialized.countDown();
 	  }
+	}));
+	initializer.shutdown();
+	try {
+	  initialized.await();
+	} catch (InterruptedException e) {
+	  Thread.currentThread().interrupt();
+	  return;
+	}
 
-	  logger.info("Successfully loaded plugin: " + plugin);
+	final EventRouter router = new EventRouter(eventExecutor,
+			EventRouter.Overflow.fromName(config.getSnapshot().getBotEventOverflow()), logger);
+	config.addReloadListener(settings ->
+			router.setOverflow(EventRouter.Overflow.fromName(settings.getBotEventOverflow())));
+	metrics.bind(router);
+	for (Map.Entry<String, PluginProvider> plugin : plugins.entrySet()) {
+	  final TS3Listener instance = loaded.get(plugin.getKey());
+	  if (instance == null) {
+		continue;
+	  }
+
+	  final Set<Class<? extends TS3Event>> events = plugin.getValue().getEvents();
+	  if (!events.isEmpty()) {
+		router.register(events, instance);
+	  }
+	  logger.info("Successfully loaded plugin: " + plugin.getKey());
+	}
+	api.addTS3Listeners(router);
+  }
+
+  /**
+   * Logs every configured server group that does not exist on the server, since it would never match any client.
+   */
+  private void checkServerGroups() {
+	final Set<Integer> serverGroups = new HashSet<>();
+	bootstrap.getServerGroups().forEach(group -> serverGroups.add(group.getId()));
+
+	final ConfigSnapshot settings = config.getSnapshot();
+	final Set<Integer> configured = new TreeSet<>();
+	for (IdSet groups : Arrays.asList(settings.getWelcomeGroups(), settings.getAfkBypassGroups(),
+			settings.getBadnameBypassGroups(), settings.getRecordingBypassGroups(),
+			settings.getSupportNotifyGroups())) {
+	  Arrays.stream(groups.toArray()).forEach(configured::add);
+	}
+	configured.removeAll(serverGroups);
+	if (!configured.isEmpty()) {
+	  logger.info("The configured server groups " + configured + " do not exist on the server.");
 	}
   }
 
   /** Returns the client id for the query. */
   public int getClientId() {
-	return clientId;
+	return connectionManager.getEventClientId();
   }
 
-  /** Returns the {@link com.github.theholywaffle.teamspeak3.TS3Api} object. Used to interact with the server. */
+  /**
+   * Returns the {@link com.github.theholywaffle.teamspeak3.TS3Api} object of the connection receiving events.
+   * <p>
+   * Every call blocks until the server responded, thus plugins should send their commands via
+   * {@link #getDispatcher()}.
+   * </p>
+   */
   public TS3Api getApi() {
 	return api;
   }
 
+  /** Returns the {@link me.floody.butlerspeak.query.ConnectionManager} object managing all connections. */
+  public ConnectionManager getConnectionManager() {
+	return connectionManager;
+  }
+
+  /**
+   * Returns the {@link me.floody.butlerspeak.query.CommandDispatcher} object. Used to send commands to the server
+   * without exceeding its flood limits.
+   */
+  public CommandDispatcher getDispatcher() {
+	return dispatcher;
+  }
+
+  /**
+   * Returns the {@link me.floody.butlerspeak.query.CommandBatcher} object. Used to move or kick clients, combining
+   * the commands of several clients into one.
+   */
+  public CommandBatcher getCommandBatcher() {
+	return batcher;
+  }
+
+  /**
+   * Returns the {@link me.floody.butlerspeak.query.ServerGroupCache} object. Used to check clients against group
+   * filters without parsing their server groups again.
+   */
+  public ServerGroupCache getServerGroupCache() {
+	return groupCache;
+  }
+
+  /**
+   * Returns the {@link me.floody.butlerspeak.query.Bootstrap} object. Used to initialize plugins from the server's
+   * state when starting the bot.
+   */
+  public Bootstrap getBootstrap() {
+	return bootstrap;
+  }
+
+  /**
+   * Returns the {@link me.floody.butlerspeak.query.ChannelCache} object. Used to look up channels without querying
+   * them.
+   */
+  public ChannelCache getChannelCache() {
+	return channelCache;
+  }
+
+  /**
+   * Returns the {@link me.floody.butlerspeak.metrics.Metrics} object. Used to observe how the bot keeps up with the
+   * server.
+   */
+  public Metrics getMetrics() {
+	return metrics;
+  }
+
+  /**
+   * Returns the {@link me.floody.butlerspeak.history.ClientHistory} object. Used to look up what the bot observed
+   * about a client and to record moderation actions.
+   */
+  public ClientHistory getClientHistory() {
+	return history;
+  }
+
+  /** Returns the {@link me.floody.butlerspeak.scheduler.Scheduler} object. Used to schedule (periodic) tasks. */
+  public Scheduler getScheduler() {
+	return scheduler;
+  }
+
+  /**
+   * Returns the {@link me.floody.butlerspeak.query.ClientSnapshotService} object. Used to retrieve the connected
+   * clients without querying them one by one.
+   */
+  public ClientSnapshotService getSnapshotService() {
+	return snapshotService;
+  }
+
   /**
    * Returns the {@link me.floody.butlerspeak.config.Configuration} object. Used the retrieve the configuration's
    * values.
@@ -133,7 +368,11 @@ public class ButlerSpeak {
 	return config;
   }
 
+  /**
+   * Returns a new logger with the given name. If several servers are managed, the server's name is appended, so the
+   * log shows which server a message belongs to.
+   */
   public Log getAndSetLogger(String name) {
-	return new Log(name);
+	return new Log(config.getName() == null ? name : name + "." + config.getName());
   }
 }
\ No newline at end of file
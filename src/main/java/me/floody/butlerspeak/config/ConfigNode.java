@@ -26,6 +26,14 @@ public enum ConfigNode {
   BOT_CHANNEL("bot.channel"),
   BOT_SLOWMODE("bot.slowmode"),
   BOT_PLUGINS("bot.plugins"),
+  BOT_FLOOD_COMMANDS("bot.flood-commands"),
+  BOT_FLOOD_TIME("bot.flood-time"),
+  BOT_RECONCILE_INTERVAL("bot.reconcile-interval"),
+  BOT_SERVERS("bot.servers", true),
+  BOT_COMMAND_CONNECTIONS("bot.command-connections"),
+  BOT_METRICS_PORT("bot.metrics-port", true),
+  BOT_HISTORY_FILE("bot.history-file"),
+  BOT_EVENT_OVERFLOW("bot.event-overflow", true),
   SERVER_HOST("server.host"),
   SERVER_PORT("server.port"),
   QUERY_PORT("query.port"),
@@ -71,18 +79,32 @@ public enum ConfigNode {
   SUPPORT_MESSAGE("support.message"),
 
   ADVERTISEMENT_MESSAGE("advertisement.message"),
-  ADVERTISEMENT_DELAY("advertisement.delay");
+  ADVERTISEMENT_DELAY("advertisement.delay"),
+
+  RULES_NAMES("rules.names");
 
   /** The key of the node. */
   private String key;
+  /** Whether the node applies to all servers, thus it cannot be overridden for a single one. */
+  private boolean global;
 
   /** Simply sets {@link #key} to the desired value specified by <code>key</code>. */
   ConfigNode(String key) {
+    this(key, false);
+  }
+
+  ConfigNode(String key, boolean global) {
     this.key = key;
+    this.global = global;
   }
 
   /** Returns the key of the desired node. */
   public String getKey() {
     return key;
   }
+
+  /** Returns whether the node applies to all servers and is only read from the top-level properties. */
+  public boolean isGlobal() {
+    return global;
+  }
 }
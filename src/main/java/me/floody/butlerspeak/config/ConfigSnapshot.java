@@ -0,0 +1,594 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.config;
+
+import me.floody.butlerspeak.rules.RuleSet;
+import me.floody.butlerspeak.utils.IdSet;
+import me.floody.butlerspeak.utils.MessageTemplate;
+import me.floody.butlerspeak.utils.PatternSet;
+
+import java.util.*;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Validated, typed and immutable view of the configuration file.
+ * <p>
+ * All values are parsed once when the snapshot is created, thus reading a value is a simple field access. Sections
+ * of plugins which are not enabled in {@link ConfigNode#BOT_PLUGINS} are neither required nor validated and contain
+ * default values.
+ * </p>
+ */
+public final class ConfigSnapshot {
+
+  private final String botUsername;
+  private final int botChannel;
+  private final boolean botSlowmode;
+  private final List<String> botPlugins;
+  private final int botFloodCommands;
+  private final int botFloodTime;
+  private final int botReconcileInterval;
+  private final int botCommandConnections;
+  private final int botMetricsPort;
+  private final String botHistoryFile;
+  private final String botEventOverflow;
+  private final String serverHost;
+  private final int serverPort;
+  private final int queryPort;
+  private final String queryUsername;
+  private final String queryPassword;
+
+  private final MessageTemplate welcomeMessage;
+  private final int welcomeConnections;
+  private final IdSet welcomeGroups;
+
+  private final long afkIdleTime;
+  private final int afkChannel;
+  private final boolean afkNotify;
+  private final String afkNotifyType;
+  private final String afkNotifyMessage;
+  private final boolean afkKick;
+  private final long afkKickTime;
+  private final String afkKickReason;
+  private final IdSet afkBypassGroups;
+  private final IdSet afkBypassChannels;
+
+  private final IdSet badnameBypassChannels;
+  private final IdSet badnameBypassGroups;
+  private final PatternSet badnamePatterns;
+  private final String badnameChannelAction;
+  private final String badnameClientAction;
+  private final String badnameClientMessage;
+  private final String badnameClientKickMessage;
+  private final MessageTemplate badnameRename;
+
+  private final String recordingAction;
+  private final String recordingMoveMessage;
+  private final String recordingKickMessage;
+  private final IdSet recordingBypassChannels;
+  private final IdSet recordingBypassGroups;
+
+  private final int supportChannel;
+  private final boolean supportCreateChannel;
+  private final MessageTemplate supportChannelName;
+  private final IdSet supportNotifyGroups;
+  private final MessageTemplate supportNotifyMessage;
+  private final String supportNotifyFail;
+  private final String supportMessage;
+
+  private final String advertisementMessage;
+  private final long advertisementDelay;
+
+  private final RuleSet rules;
+
+  /**
+   * Parses and validates the given properties.
+   *
+   * @param properties
+   * 		the properties to parse
+   * @param plugins
+   * 		the plugins to validate the sections of, or {@code null} to use the plugins enabled in the properties
+   * @throws IllegalArgumentException
+   * 		if a required property is missing or a property has an invalid value
+   */
+  ConfigSnapshot(Properties properties, List<String> plugins) {
+	final Parser parser = new Parser(properties);
+
+	this.botUsername = parser.string(ConfigNode.BOT_USERNAME);
+	this.botChannel = parser.integer(ConfigNode.BOT_CHANNEL);
+	this.botSlowmode = parser.bool(ConfigNode.BOT_SLOWMODE);
+	this.botPlugins = plugins == null ? parser.lowerCaseList(ConfigNode.BOT_PLUGINS) : plugins;
+	// By default, the limits match the server's default flood protection in slowmode and are disabled otherwise.
+	this.botFloodCommands = parser.optionalInteger(ConfigNode.BOT_FLOOD_COMMANDS, botSlowmode ? 10 : 0);
+	this.botFloodTime = parser.optionalInteger(ConfigNode.BOT_FLOOD_TIME, 3);
+	if (botFloodCommands > 0 && botFloodTime <= 0) {
+	  throw new IllegalArgumentException("Property " + ConfigNode.BOT_FLOOD_TIME.getKey() + " needs to be positive.");
+	}
+	this.botReconcileInterval = parser.optionalInteger(ConfigNode.BOT_RECONCILE_INTERVAL, botSlowmode ? 15 : 5);
+	if (botReconcileInterval <= 0) {
+	  throw new IllegalArgumentException("Property " + ConfigNode.BOT_RECONCILE_INTERVAL.getKey()
+			  + " needs to be positive.");
+	}
+	this.botCommandConnections = parser.optionalInteger(ConfigNode.BOT_COMMAND_CONNECTIONS, 1);
+	if (botCommandConnections <= 0) {
+	  throw new IllegalArgumentException("Property " + ConfigNode.BOT_COMMAND_CONNECTIONS.getKey()
+			  + " needs to be positive.");
+	}
+	this.botMetricsPort = parseMetricsPort(parser);
+	this.botHistoryFile = parser.optionalString(ConfigNode.BOT_HISTORY_FILE, null);
+	this.botEventOverflow = parser.optionalString(ConfigNode.BOT_EVENT_OVERFLOW, "coalesce").toLowerCase(Locale.ROOT);
+	if (!Arrays.asList("coalesce", "drop-oldest", "block").contains(botEventOverflow)) {
+	  throw new IllegalArgumentException("Property " + ConfigNode.BOT_EVENT_OVERFLOW.getKey()
+			  + " needs to be either coalesce, drop-oldest or block.");
+	}
+	this.serverHost = parser.string(ConfigNode.SERVER_HOST);
+	this.serverPort = parser.integer(ConfigNode.SERVER_PORT);
+	this.queryPort = parser.integer(ConfigNode.QUERY_PORT);
+	this.queryUsername = parser.string(ConfigNode.QUERY_USERNAME);
+	this.queryPassword = parser.string(ConfigNode.QUERY_PASSWORD);
+
+	final Parser welcome = parser.section(botPlugins.contains("welcome"));
+	this.welcomeMessage = welcome.template(ConfigNode.WELCOME_MESSAGE);
+	this.welcomeConnections = welcome.integer(ConfigNode.WELCOME_CONNECTIONS);
+	this.welcomeGroups = welcome.idSet(ConfigNode.WELCOME_GROUPS);
+
+	final Parser afk = parser.section(botPlugins.contains("afk"));
+	this.afkIdleTime = afk.longValue(ConfigNode.AFK_IDLE_TIME);
+	this.afkChannel = afk.integer(ConfigNode.AFK_CHANNEL);
+	this.afkNotify = afk.bool(ConfigNode.AFK_NOTIFY);
+	this.afkNotifyType = afk.string(ConfigNode.AFK_NOTIFY_TYPE);
+	this.afkNotifyMessage = afk.string(ConfigNode.AFK_NOTIFY_MESSAGE);
+	this.afkKick = afk.bool(ConfigNode.AFK_KICK);
+	this.afkKickTime = afk.longValue(ConfigNode.AFK_KICK_TIME);
+	this.afkKickReason = afk.string(ConfigNode.AFK_KICK_REASON);
+	this.afkBypassGroups = afk.idSet(ConfigNode.AFK_GROUPS_BYPASS);
+	this.afkBypassChannels = afk.idSet(ConfigNode.AFK_CHANNEL_BYPASS);
+
+	final Parser badname = parser.section(botPlugins.contains("badname"));
+	this.badnameBypassChannels = badname.idSet(ConfigNode.BADNAME_CHANNEL);
+	this.badnameBypassGroups = badname.idSet(ConfigNode.BADNAME_GROUPS);
+	this.badnamePatterns = badname.patterns(ConfigNode.BADNAME_PATTERN);
+	this.badnameChannelAction = badname.string(ConfigNode.BADNAME_CHANNEL_ACTION);
+	this.badnameClientAction = badname.string(ConfigNode.BADNAME_CLIENT_ACTION);
+	this.badnameClientMessage = badname.string(ConfigNode.BADNAME_CLIENT_MESSAGE);
+	this.badnameClientKickMessage = badname.string(ConfigNode.BADNAME_CLIENT_KICK_MESSAGE);
+	this.badnameRename = badname.template(ConfigNode.BADNAME_RENAME);
+
+	final Parser recording = parser.section(botPlugins.contains("recording"));
+	this.recordingAction = recording.string(ConfigNode.RECORDING_ACTION);
+	this.recordingMoveMessage = recording.string(ConfigNode.RECORDING_MOVE_MSG);
+	this.recordingKickMessage = recording.string(ConfigNode.RECORDING_KICK_MSG);
+	this.recordingBypassChannels = recording.idSet(ConfigNode.RECORDING_CHANNEL);
+	this.recordingBypassGroups = recording.idSet(ConfigNode.RECORDING_GROUPS);
+
+	final Parser support = parser.section(botPlugins.contains("support"));
+	this.supportChannel = support.integer(ConfigNode.SUPPORT_CHANNEL);
+	this.supportCreateChannel = support.bool(ConfigNode.SUPPORT_CREATE_CHANNEL);
+	this.supportChannelName = support.template(ConfigNode.SUPPORT_CHANNEL_NAME);
+	this.supportNotifyGroups = support.idSet(ConfigNode.SUPPORT_NOTIFY_GROUPS);
+	this.supportNotifyMessage = support.template(ConfigNode.SUPPORT_NOTIFY_MESSAGE);
+	this.supportNotifyFail = support.string(ConfigNode.SUPPORT_NOTIFY_FAIL);
+	this.supportMessage = support.string(ConfigNode.SUPPORT_MESSAGE);
+
+	final Parser advertisement = parser.section(botPlugins.contains("advertisement"));
+	this.advertisementMessage = advertisement.string(ConfigNode.ADVERTISEMENT_MESSAGE);
+	this.advertisementDelay = advertisement.longValue(ConfigNode.ADVERTISEMENT_DELAY);
+
+	final Parser rules = parser.section(botPlugins.contains("rules"));
+	this.rules = rules.ruleSet(ConfigNode.RULES_NAMES);
+  }
+
+  /**
+   * Parses and validates the given properties without a configuration file, e.g. for tests and benchmarks. The bot
+   * itself obtains its snapshots from {@link Configuration#getSnapshot()}.
+   *
+   * @throws IllegalArgumentException
+   * 		if a required property is missing or a property has an invalid value
+   */
+  public static ConfigSnapshot parse(Properties properties) {
+	return new ConfigSnapshot(properties, null);
+  }
+
+  /** Returns the plugins enabled in the given properties in lower case. */
+  static List<String> parsePlugins(Properties properties) {
+	return new Parser(properties).lowerCaseList(ConfigNode.BOT_PLUGINS);
+  }
+
+  /**
+   * Parses the port of the metrics endpoint, which is shared by all servers.
+   *
+   * @throws IllegalArgumentException
+   * 		if the port is invalid
+   */
+  static int parseMetricsPort(Properties properties) {
+	return parseMetricsPort(new Parser(properties));
+  }
+
+  private static int parseMetricsPort(Parser parser) {
+	final int port = parser.optionalInteger(ConfigNode.BOT_METRICS_PORT, -1);
+	if (port < -1 || port > 65535) {
+	  throw new IllegalArgumentException("Property " + ConfigNode.BOT_METRICS_PORT.getKey() + " is out of range: "
+			  + port);
+	}
+
+	return port;
+  }
+
+  public String getBotUsername() {
+	return botUsername;
+  }
+
+  public int getBotChannel() {
+	return botChannel;
+  }
+
+  public boolean isBotSlowmode() {
+	return botSlowmode;
+  }
+
+  /** Returns the enabled plugins in lower case. Since plugins are loaded once, these never change on reload. */
+  public List<String> getBotPlugins() {
+	return botPlugins;
+  }
+
+  /** Returns the amount of commands allowed per {@link #getBotFloodTime()}, {@code 0} if unlimited. */
+  public int getBotFloodCommands() {
+	return botFloodCommands;
+  }
+
+  /** Returns the flood time in seconds. */
+  public int getBotFloodTime() {
+	return botFloodTime;
+  }
+
+  /** Returns the interval in seconds in which the client list is compared against the previous one. */
+  public int getBotReconcileInterval() {
+	return botReconcileInterval;
+  }
+
+  /** Returns the amount of connections used to send commands, in addition to the connection receiving events. */
+  public int getBotCommandConnections() {
+	return botCommandConnections;
+  }
+
+  /** Returns the local port of the HTTP metrics endpoint, or {@code -1} if it is disabled. */
+  public int getBotMetricsPort() {
+	return botMetricsPort;
+  }
+
+  /**
+   * Returns the file the client history is persisted to, an empty string if it is kept in memory only, or
+   * {@code null} if the default file should be used.
+   */
+  public String getBotHistoryFile() {
+	return botHistoryFile;
+  }
+
+  /** Returns what happens to new events once a plugin's event queue is full: coalesce, drop-oldest or block. */
+  public String getBotEventOverflow() {
+	return botEventOverflow;
+  }
+
+  public String getServerHost() {
+	return serverHost;
+  }
+
+  public int getServerPort() {
+	return serverPort;
+  }
+
+  public int getQueryPort() {
+	return queryPort;
+  }
+
+  public String getQueryUsername() {
+	return queryUsername;
+  }
+
+  public String getQueryPassword() {
+	return queryPassword;
+  }
+
+  public MessageTemplate getWelcomeMessage() {
+	return welcomeMessage;
+  }
+
+  public int getWelcomeConnections() {
+	return welcomeConnections;
+  }
+
+  /** Returns the groups excluded from receiving the welcome message, empty if every group receives it. */
+  public IdSet getWelcomeGroups() {
+	return welcomeGroups;
+  }
+
+  /** Returns the idle time in seconds after which clients will be moved. */
+  public long getAfkIdleTime() {
+	return afkIdleTime;
+  }
+
+  public int getAfkChannel() {
+	return afkChannel;
+  }
+
+  public boolean isAfkNotify() {
+	return afkNotify;
+  }
+
+  public String getAfkNotifyType() {
+	return afkNotifyType;
+  }
+
+  public String getAfkNotifyMessage() {
+	return afkNotifyMessage;
+  }
+
+  public boolean isAfkKick() {
+	return afkKick;
+  }
+
+  /** Returns the idle time in seconds after which clients will be kicked. */
+  public long getAfkKickTime() {
+	return afkKickTime;
+  }
+
+  public String getAfkKickReason() {
+	return afkKickReason;
+  }
+
+  public IdSet getAfkBypassGroups() {
+	return afkBypassGroups;
+  }
+
+  public IdSet getAfkBypassChannels() {
+	return afkBypassChannels;
+  }
+
+  public IdSet getBadnameBypassChannels() {
+	return badnameBypassChannels;
+  }
+
+  public IdSet getBadnameBypassGroups() {
+	return badnameBypassGroups;
+  }
+
+  /** Returns the compiled forbidden name patterns. */
+  public PatternSet getBadnamePatterns() {
+	return badnamePatterns;
+  }
+
+  public String getBadnameChannelAction() {
+	return badnameChannelAction;
+  }
+
+  public String getBadnameClientAction() {
+	return badnameClientAction;
+  }
+
+  public String getBadnameClientMessage() {
+	return badnameClientMessage;
+  }
+
+  public String getBadnameClientKickMessage() {
+	return badnameClientKickMessage;
+  }
+
+  public MessageTemplate getBadnameRename() {
+	return badnameRename;
+  }
+
+  public String getRecordingAction() {
+	return recordingAction;
+  }
+
+  public String getRecordingMoveMessage() {
+	return recordingMoveMessage;
+  }
+
+  public String getRecordingKickMessage() {
+	return recordingKickMessage;
+  }
+
+  public IdSet getRecordingBypassChannels() {
+	return recordingBypassChannels;
+  }
+
+  public IdSet getRecordingBypassGroups() {
+	return recordingBypassGroups;
+  }
+
+  public int getSupportChannel() {
+	return supportChannel;
+  }
+
+  public boolean isSupportCreateChannel() {
+	return supportCreateChannel;
+  }
+
+  public MessageTemplate getSupportChannelName() {
+	return supportChannelName;
+  }
+
+  public IdSet getSupportNotifyGroups() {
+	return supportNotifyGroups;
+  }
+
+  public MessageTemplate getSupportNotifyMessage() {
+	return supportNotifyMessage;
+  }
+
+  public String getSupportNotifyFail() {
+	return supportNotifyFail;
+  }
+
+  public String getSupportMessage() {
+	return supportMessage;
+  }
+
+  public String getAdvertisementMessage() {
+	return advertisementMessage;
+  }
+
+  /** Returns the delay between two advertisements in minutes. */
+  public long getAdvertisementDelay() {
+	return advertisementDelay;
+  }
+
+  /** Returns the compiled moderation rules. */
+  public RuleSet getRules() {
+	return rules;
+  }
+
+  /**
+   * Parses single properties. When the parser is disabled, every method returns a default value instead.
+   */
+  private static final class Parser {
+
+	private final Properties properties;
+	private final boolean enabled;
+
+	private Parser(Properties properties) {
+	  this(properties, true);
+	}
+
+	private Parser(Properties properties, boolean enabled) {
+	  this.properties = properties;
+	  this.enabled = enabled;
+	}
+
+	/** Returns a parser for a plugin's section, which is only validated if the plugin is enabled. */
+	private Parser section(boolean pluginEnabled) {
+	  return new Parser(properties, pluginEnabled);
+	}
+
+	private String string(ConfigNode node) {
+	  if (!enabled) {
+		return "";
+	  }
+
+	  final String value = properties.getProperty(node.getKey());
+	  if (value == null) {
+		throw new IllegalArgumentException("Missing property " + node.getKey() + ".");
+	  }
+
+	  return value;
+	}
+
+	private int integer(ConfigNode node) {
+	  return enabled ? (int) number(node, string(node).trim(), Integer.MIN_VALUE, Integer.MAX_VALUE) : 0;
+	}
+
+	/** Returns the trimmed value or the default value if the property is missing. */
+	private String optionalString(ConfigNode node, String defaultValue) {
+	  if (!enabled || properties.getProperty(node.getKey()) == null) {
+		return defaultValue;
+	  }
+
+	  return string(node).trim();
+	}
+
+	/** Returns the value or the default value if the property is missing. */
+	private int optionalInteger(ConfigNode node, int defaultValue) {
+	  if (!enabled || properties.getProperty(node.getKey()) == null) {
+		return defaultValue;
+	  }
+
+	  return integer(node);
+	}
+
+	private long longValue(ConfigNode node) {
+	  return enabled ? number(node, string(node).trim(), Long.MIN_VALUE, Long.MAX_VALUE) : 0;
+	}
+
+	private boolean bool(ConfigNode node) {
+	  if (!enabled) {
+		return false;
+	  }
+
+	  final String value = string(node).trim();
+	  if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+		throw new IllegalArgumentException("Property " + node.getKey() + " needs to be either true or false.");
+	  }
+
+	  return Boolean.parseBoolean(value);
+	}
+
+	/** Splits the value at any comma after removing all whitespaces. */
+	private String[] array(ConfigNode node) {
+	  return enabled ? string(node).replaceAll("\\s+", "").split(",") : new String[0];
+	}
+
+	private List<String> lowerCaseList(ConfigNode node) {
+	  final List<String> values = new ArrayList<>();
+	  for (String value : array(node)) {
+		values.add(value.toLowerCase(Locale.ROOT));
+	  }
+
+	  return Collections.unmodifiableList(values);
+	}
+
+	/** Returns the ids as set. A single id of {@code -1} results in an empty set. */
+	private IdSet idSet(ConfigNode node) {
+	  final String[] values = array(node);
+	  final int[] ids = new int[values.length];
+	  for (int i = 0; i < values.length; i++) {
+		ids[i] = (int) number(node, values[i], Integer.MIN_VALUE, Integer.MAX_VALUE);
+	  }
+
+	  if (ids.length == 1 && ids[0] == -1) {
+		return IdSet.EMPTY;
+	  }
+
+	  return new IdSet(ids);
+	}
+
+	/** Parses the value as message template, so its placeholders are only parsed once. */
+	private MessageTemplate template(ConfigNode node) {
+	  return new MessageTemplate(string(node));
+	}
+
+	private PatternSet patterns(ConfigNode node) {
+	  try {
+		return new PatternSet(Arrays.asList(array(node)));
+	  } catch (PatternSyntaxException ex) {
+		throw new IllegalArgumentException("Property " + node.getKey() + " contains an invalid pattern: "
+				+ ex.getPattern(), ex);
+	  }
+	}
+
+	/** Compiles the listed rules, whose properties are prefixed with <code>rules.&lt;name&gt;.</code>. */
+	private RuleSet ruleSet(ConfigNode node) {
+	  return enabled ? RuleSet.parse(array(node), properties::getProperty) : RuleSet.EMPTY;
+	}
+
+	private long number(ConfigNode node, String value, long min, long max) {
+	  final long number;
+	  try {
+		number = Long.parseLong(value);
+	  } catch (NumberFormatException ex) {
+		throw new IllegalArgumentException("Property " + node.getKey() + " needs to be a number, but was: " + value);
+	  }
+
+	  if (number < min || number > max) {
+		throw new IllegalArgumentException("Property " + node.getKey() + " is out of range: " + value);
+	  }
+
+	  return number;
+	}
+  }
+}
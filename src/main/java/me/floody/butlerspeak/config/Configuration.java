@@ -22,20 +22,41 @@ import me.floody.butlerspeak.utils.Log;
 
 import java.io.*;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Properties;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
  * Configuration handler for application. Access data via various getter methods.
+ * <p>
+ * Frequently read values should be accessed via {@link #getSnapshot()}, which returns a typed and validated
+ * {@link ConfigSnapshot}. Once {@link #watch()} was called, the snapshot is replaced whenever the configuration file
+ * changes on disk.
+ * </p><p>
+ * If <code>bot.servers</code> lists several virtual servers, every server gets its own view of the file (see
+ * {@link #getServerConfigurations()}). A server's properties are the top-level properties, overridden by all
+ * properties prefixed with <code>servers.&lt;name&gt;.</code>, e.g. <code>servers.events.server.port</code>.
+ * Properties applying to the whole process (see {@link ConfigNode#isGlobal()}) cannot be overridden.
+ * </p>
  */
 public class Configuration {
 
-  private final Properties properties;
+  /** Time to wait for further changes of the file before reloading it, in milliseconds. */
+  private static final long RELOAD_DELAY = 500;
+  /** Prefix of all properties overriding the top-level properties for a single virtual server. */
+  private static final String SERVER_PREFIX = "servers.";
+
+  private final File file;
+  private final String name;
+  private final List<Configuration> servers;
+  private final List<Consumer<ConfigSnapshot>> reloadListeners = new CopyOnWriteArrayList<>();
   private final Log logger = new Log(this.getClass().getName());
+  private volatile Properties properties;
+  private volatile ConfigSnapshot snapshot;
 
   /**
    * Constructs a new instance.
@@ -46,7 +67,7 @@ public class Configuration {
    * </p>
    */
   public Configuration() {
-	final File file = new File("ButlerSpeak.properties");
+	this.file = new File("ButlerSpeak.properties");
 	if (!file.exists()) {
 	  try (InputStream in = Configuration.class.getResourceAsStream("/ButlerSpeak.example.properties")) {
 		Files.copy(in, file.toPath());
@@ -60,15 +81,259 @@ public class Configuration {
 	  }
 	}
 
-	this.properties = new Properties();
+	this.name = null;
+	this.servers = new ArrayList<>();
 	try {
-	  properties.load(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")));
+	  this.properties = load();
+	  final List<String> names = serverNames(properties);
+	  if (names.isEmpty()) {
+		this.snapshot = new ConfigSnapshot(properties, null);
+		servers.add(this);
+	  }
+
+	  for (String serverName : names) {
+		servers.add(new Configuration(file, serverName, properties));
+	  }
 	} catch (IOException e) {
 	  logger.error("Could not load " + file.toString(), e);
 	  System.exit(1);
+	} catch (IllegalArgumentException e) {
+	  logger.error("Invalid configuration: " + e.getMessage());
+	  System.exit(1);
+	}
+  }
+
+  /** Constructs the view of a single virtual server. */
+  private Configuration(File file, String name, Properties properties) {
+	this.file = file;
+	this.name = name;
+	this.servers = Collections.singletonList(this);
+	this.properties = serverProperties(properties, name);
+	this.snapshot = newSnapshot(properties, name, null);
+  }
+
+  /**
+   * Returns the configurations of all virtual servers to manage. If <code>bot.servers</code> is not set, this
+   * configuration is the only one.
+   */
+  public List<Configuration> getServerConfigurations() {
+	return Collections.unmodifiableList(servers);
+  }
+
+  /** Returns the name of the virtual server or {@code null} if only a single server is managed. */
+  public String getName() {
+	return name;
+  }
+
+  /**
+   * Returns the latest validated snapshot of the configuration.
+   * <p>
+   * The returned snapshot never changes, thus it should be read once and used for a whole operation. If several
+   * servers are configured, only the servers' configurations provide a snapshot.
+   * </p>
+   */
+  public ConfigSnapshot getSnapshot() {
+	return snapshot;
+  }
+
+  /**
+   * Returns the local port of the HTTP metrics endpoint shared by all servers, or {@code -1} if it is disabled. The
+   * port is read from the top-level properties, since it cannot be overridden for a single server.
+   */
+  public int getMetricsPort() {
+	return ConfigSnapshot.parseMetricsPort(properties);
+  }
+
+  /** Adds a listener which will be notified with the new snapshot after the configuration was reloaded. */
+  public void addReloadListener(Consumer<ConfigSnapshot> listener) {
+	reloadListeners.add(listener);
+  }
+
+  /**
+   * Reloads the configuration file.
+   * <p>
+   * If the file cannot be read or contains invalid values, the current configuration will be kept. Note that the
+   * connection settings and the enabled plugins only take effect after a restart, thus the plugins' sections are
+   * validated against the plugins enabled on start.
+   * </p>
+   *
+   * @return whether the configuration was reloaded successfully
+   */
+  public boolean reload() {
+	final Properties newProperties;
+	final List<ConfigSnapshot> newSnapshots = new ArrayList<>(servers.size());
+	final List<String> changedPlugins = new ArrayList<>();
+	try {
+	  newProperties = load();
+	  // Every server needs to be valid before any of them is changed. Plugins are loaded once, so their sections are
+	  // validated against the loaded plugins.
+	  for (Configuration server : servers) {
+		newSnapshots.add(newSnapshot(newProperties, server.name, server.snapshot.getBotPlugins()));
+		if (!ConfigSnapshot.parsePlugins(serverProperties(newProperties, server.name))
+				.equals(server.snapshot.getBotPlugins())) {
+		  changedPlugins.add(server.name == null ? "" : " of server " + server.name);
+		}
+	  }
+	} catch (IOException e) {
+	  logger.error("Could not reload " + file.toString() + ", keeping the current configuration.", e);
+	  return false;
+	} catch (IllegalArgumentException e) {
+	  logger.error("Invalid configuration: " + e.getMessage() + " Keeping the current configuration.");
+	  return false;
+	}
+
+	if (!serverNames(newProperties).equals(serverNames(properties))) {
+	  logger.info("The list of servers changed, restart ButlerSpeak to apply it.");
+	}
+	for (String server : changedPlugins) {
+	  logger.info("The list of plugins" + server + " changed, restart ButlerSpeak to apply it.");
+	}
+
+	this.properties = newProperties;
+	logger.info("Reloaded configuration file " + file.toString());
+	for (int i = 0; i < servers.size(); i++) {
+	  servers.get(i).apply(newProperties, newSnapshots.get(i));
+	}
+
+	return true;
+  }
+
+  private void apply(Properties newProperties, ConfigSnapshot newSnapshot) {
+	this.properties = serverProperties(newProperties, name);
+	this.snapshot = newSnapshot;
+	for (Consumer<ConfigSnapshot> listener : reloadListeners) {
+	  try {
+		listener.accept(newSnapshot);
+	  } catch (RuntimeException e) {
+		logger.error("Could not apply the reloaded configuration.", e);
+	  }
 	}
   }
 
+  private static ConfigSnapshot newSnapshot(Properties properties, String name, List<String> plugins) {
+	try {
+	  if (name != null) {
+		checkGlobalNodes(properties, name);
+	  }
+	  return new ConfigSnapshot(serverProperties(properties, name), plugins);
+	} catch (IllegalArgumentException e) {
+	  throw name == null ? e : new IllegalArgumentException("Server " + name + ": " + e.getMessage(), e);
+	}
+  }
+
+  /** Rejects server-specific values of properties that apply to all servers. */
+  private static void checkGlobalNodes(Properties properties, String name) {
+	for (ConfigNode node : ConfigNode.values()) {
+	  final String key = SERVER_PREFIX + name + "." + node.getKey();
+	  if (node.isGlobal() && properties.getProperty(key) != null) {
+		throw new IllegalArgumentException("Property " + key + " is not allowed, " + node.getKey()
+				+ " applies to all servers.");
+	  }
+	}
+  }
+
+  /** Returns the top-level properties, overridden by the properties of the given server. */
+  private static Properties serverProperties(Properties properties, String name) {
+	if (name == null) {
+	  return properties;
+	}
+
+	final Properties merged = new Properties();
+	final String prefix = SERVER_PREFIX + name + ".";
+	for (String key : properties.stringPropertyNames()) {
+	  if (!key.startsWith(SERVER_PREFIX)) {
+		merged.setProperty(key, properties.getProperty(key));
+	  }
+	}
+	for (String key : properties.stringPropertyNames()) {
+	  if (key.startsWith(prefix)) {
+		merged.setProperty(key.substring(prefix.length()), properties.getProperty(key));
+	  }
+	}
+
+	return merged;
+  }
+
+  private static List<String> serverNames(Properties properties) {
+	final String value = properties.getProperty(ConfigNode.BOT_SERVERS.getKey(), "").trim();
+	if (value.isEmpty()) {
+	  return Collections.emptyList();
+	}
+
+	final List<String> names = new ArrayList<>();
+	for (String serverName : value.split("\\s*,\\s*")) {
+	  if (!serverName.isEmpty() && !names.contains(serverName)) {
+		names.add(serverName);
+	  }
+	}
+
+	return names;
+  }
+
+  /**
+   * Watches the configuration file and reloads it whenever it changes on disk.
+   */
+  public void watch() {
+	final Path path = file.getAbsoluteFile().toPath();
+	final WatchService watchService;
+	try {
+	  watchService = path.getFileSystem().newWatchService();
+	  path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+			  StandardWatchEventKinds.ENTRY_MODIFY);
+	} catch (IOException e) {
+	  logger.error("Could not watch " + file.toString() + " for changes, the configuration will not be reloaded.", e);
+	  return;
+	}
+
+	final Thread watcher = new Thread(() -> {
+	  while (!Thread.currentThread().isInterrupted()) {
+		try {
+		  final WatchKey key = watchService.take();
+		  boolean changed = containsFile(key, path);
+		  key.reset();
+		  if (!changed) {
+			continue;
+		  }
+
+		  // Editors often write a file in several steps, so wait until no further changes happen.
+		  WatchKey next;
+		  while ((next = watchService.poll(RELOAD_DELAY, TimeUnit.MILLISECONDS)) != null) {
+			next.pollEvents();
+			next.reset();
+		  }
+
+		  reload();
+		} catch (InterruptedException e) {
+		  return;
+		} catch (ClosedWatchServiceException e) {
+		  return;
+		}
+	  }
+	}, "ButlerSpeak-ConfigWatcher");
+	watcher.setDaemon(true);
+	watcher.start();
+  }
+
+  private boolean containsFile(WatchKey key, Path path) {
+	boolean changed = false;
+	for (WatchEvent<?> event : key.pollEvents()) {
+	  if (path.getFileName().equals(event.context())) {
+		changed = true;
+	  }
+	}
+
+	return changed;
+  }
+
+  private Properties load() throws IOException {
+	final Properties newProperties = new Properties();
+	try (Reader reader = new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8"))) {
+	  newProperties.load(reader);
+	}
+
+	return newProperties;
+  }
+
   /**
    * Returns the property's value as <code>String</code>.
    */
@@ -0,0 +1,367 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.history;
+
+import com.github.theholywaffle.teamspeak3.api.event.ClientJoinEvent;
+import com.github.theholywaffle.teamspeak3.api.event.ClientLeaveEvent;
+import com.github.theholywaffle.teamspeak3.api.event.TS3EventAdapter;
+import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
+import me.floody.butlerspeak.query.ClientSnapshot;
+import me.floody.butlerspeak.query.ClientSnapshotListener;
+import me.floody.butlerspeak.utils.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Keeps a {@link ClientRecord} of every client seen by the bot, keyed by the client's unique id.
+ * <p>
+ * All records are held in memory, so looking up a client never queries the server. Every observation is appended to
+ * the history file as a single line, which is replayed when starting the bot. Afterwards, and whenever the appended
+ * lines outgrow the compacted part, the file is compacted to one line per record and action. Thus, it does not grow
+ * with the bot's uptime but with the amount of clients.
+ * </p><p>
+ * Lines are written in batches whenever the history is run, thus the bot should run it periodically. If the bot
+ * crashes, only the observations since the last run are lost. Without a file, records are only kept in memory.
+ * </p>
+ */
+public class ClientHistory extends TS3EventAdapter implements ClientSnapshotListener, Runnable {
+
+  /** Amount of appended lines which never triggers a compaction, so small histories are not rewritten every run. */
+  static final int MIN_COMPACTION_LINES = 10_000;
+
+  private final Map<String, ClientRecord> records;
+  private final Map<Integer, String> online;
+  private final Queue<String> pending;
+  private final Path file;
+  private final Log logger;
+  private Writer writer;
+  private int compactedLines;
+  private int appendedLines;
+
+  /**
+   * Constructs a new instance and loads the records from the given file.
+   * <p>
+   * If the file cannot be read or written, the error is logged and the records are only kept in memory.
+   * </p>
+   *
+   * @param file
+   * 		the history file, or {@code null} to keep the records in memory only
+   * @param logger
+   * 		the logger to report errors to
+   */
+  public ClientHistory(Path file, Log logger) {
+	this.records = new ConcurrentHashMap<>();
+	this.online = new ConcurrentHashMap<>();
+	this.pending = new ConcurrentLinkedQueue<>();
+	this.file = file;
+	this.logger = logger;
+
+	if (file != null) {
+	  try {
+		load();
+		compact();
+		logger.info("Loaded the history of " + records.size() + " clients.");
+	  } catch (IOException e) {
+		logger.error("Could not load the client history from " + file + ". It will not be persisted.", e);
+	  }
+	}
+  }
+
+  /** Returns the record of the client with the given unique id, or {@code null} if the client was never seen. */
+  public ClientRecord get(String uniqueIdentifier) {
+	return records.get(uniqueIdentifier);
+  }
+
+  /** Returns the amount of known clients. */
+  public int size() {
+	return records.size();
+  }
+
+  /**
+   * Records a moderation action taken against the given client.
+   *
+   * @param client
+   * 		the client the action was taken against
+   * @param action
+   * 		the action's name, e.g. <code>badname-kick</code>
+   * @param reason
+   * 		the message sent to the client, or {@code null}
+   */
+  public void recordAction(Client client, String action, String reason) {
+	final String uniqueIdentifier = client.getUniqueIdentifier();
+	final long now = System.currentTimeMillis();
+	final ClientRecord.Action recorded = new ClientRecord.Action(now, action, reason == null ? "" : reason);
+	records.compute(uniqueIdentifier, (uid, record) ->
+			(record == null ? new ClientRecord(uid, now) : record).withAction(recorded));
+	append("A", uniqueIdentifier, Long.toString(now), escape(action), escape(recorded.getReason()));
+  }
+
+  @Override
+  public void onClientJoin(ClientJoinEvent e) {
+	if (e.getClientType() != 0) {
+	  return;
+	}
+
+	final String uniqueIdentifier = e.getUniqueClientIdentifier();
+	final long now = System.currentTimeMillis();
+	online.put(e.getClientId(), uniqueIdentifier);
+	records.compute(uniqueIdentifier, (uid, record) -> (record == null ? new ClientRecord(uid, now) : record)
+			.withJoin(now));
+	append("J", uniqueIdentifier, Long.toString(now));
+  }
+
+  @Override
+  public void onClientLeave(ClientLeaveEvent e) {
+	final String uniqueIdentifier = online.remove(e.getClientId());
+	if (uniqueIdentifier != null) {
+	  recordLeave(uniqueIdentifier);
+	}
+  }
+
+  /** Clients whose leave event was missed are removed once they are not part of a snapshot anymore. */
+  @Override
+  public void onClientLeft(Client client) {
+	if (online.remove(client.getId(), client.getUniqueIdentifier())) {
+	  recordLeave(client.getUniqueIdentifier());
+	}
+  }
+
+  /**
+   * Registers clients which were already connected when starting the bot or joined while the connection was down.
+   * Since their join was not observed, it is not counted as connection.
+   */
+  @Override
+  public void onSnapshot(ClientSnapshot snapshot) {
+	for (Client client : snapshot.getClients()) {
+	  if (!client.isRegularClient() || online.putIfAbsent(client.getId(), client.getUniqueIdentifier()) != null) {
+		continue;
+	  }
+
+	  final String uniqueIdentifier = client.getUniqueIdentifier();
+	  final long now = snapshot.getTimestamp();
+	  if (records.putIfAbsent(uniqueIdentifier, new ClientRecord(uniqueIdentifier, now)) == null) {
+		append("P", uniqueIdentifier, Long.toString(now));
+	  }
+	}
+  }
+
+  /** Writes all pending lines to the history file, which is compacted once they outgrow the compacted lines. */
+  @Override
+  public synchronized void run() {
+	if (writer == null) {
+	  pending.clear();
+	  return;
+	}
+
+	try {
+	  String line;
+	  while ((line = pending.poll()) != null) {
+		writer.write(line);
+		writer.write('\n');
+		appendedLines++;
+	  }
+	  writer.flush();
+
+	  if (appendedLines > Math.max(MIN_COMPACTION_LINES, compactedLines)) {
+		writer.close();
+		compact();
+	  }
+	} catch (IOException e) {
+	  logger.error("Could not write the client history to " + file + ". It will not be persisted anymore.", e);
+	  try {
+		writer.close();
+	  } catch (IOException ignored) {
+	  }
+	  this.writer = null;
+	}
+  }
+
+  private void recordLeave(String uniqueIdentifier) {
+	final long now = System.currentTimeMillis();
+	records.computeIfPresent(uniqueIdentifier, (uid, record) -> record.withLeave(now));
+	append("L", uniqueIdentifier, Long.toString(now));
+  }
+
+  private void append(String... fields) {
+	if (file != null) {
+	  pending.add(String.join("\t", fields));
+	}
+  }
+
+  /** Replays the history file. Malformed lines, e.g. a line cut off by a crash, are skipped. */
+  private void load() throws IOException {
+	if (!Files.exists(file)) {
+	  return;
+	}
+
+	int skipped = 0;
+	try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+	  String line;
+	  while ((line = reader.readLine()) != null) {
+		try {
+		  replay(line.split("\t", -1));
+		} catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+		  skipped++;
+		}
+	  }
+	}
+
+	if (skipped > 0) {
+	  logger.info("Skipped " + skipped + " malformed lines of the client history.");
+	}
+  }
+
+  private void replay(String[] fields) {
+	final String uniqueIdentifier = fields[1];
+	final long time = Long.parseLong(fields[2]);
+	switch (fields[0]) {
+	  case "R":
+		records.put(uniqueIdentifier, new ClientRecord(uniqueIdentifier, time, Long.parseLong(fields[3]), 0,
+				Long.parseLong(fields[4]), Integer.parseInt(fields[5]), ClientRecord.EMPTY_ACTIONS));
+		break;
+	  case "P":
+		records.putIfAbsent(uniqueIdentifier, new ClientRecord(uniqueIdentifier, time));
+		break;
+	  case "J":
+		records.compute(uniqueIdentifier, (uid, record) -> record == null ? new ClientRecord(uid, time).withJoin(time)
+				: record.getLastJoin() >= time ? record : record.withJoin(time));
+		break;
+	  case "L":
+		records.computeIfPresent(uniqueIdentifier, (uid, record) -> record.withLeave(time));
+		break;
+	  case "A":
+		final ClientRecord.Action action = new ClientRecord.Action(time, unescape(fields[3]), unescape(fields[4]));
+		records.compute(uniqueIdentifier, (uid, record) -> record == null
+				? new ClientRecord(uid, time).withAction(action)
+				: contains(record, action) ? record : record.withAction(action));
+		break;
+	  default:
+		throw new IllegalArgumentException("Unknown entry: " + fields[0]);
+	}
+  }
+
+  /**
+   * Rewrites the history file with a single line per record and action, replacing the file atomically, and reopens it
+   * for appending.
+   * <p>
+   * Observations might be part of the compacted records while their lines are still pending. Since replaying a join
+   * or action already part of a record has no effect, these are not counted twice when appended afterwards.
+   * </p>
+   */
+  private void compact() throws IOException {
+	final Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+	int lines = 0;
+	try (BufferedWriter out = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+	  for (ClientRecord record : records.values()) {
+		out.write(String.join("\t", "R", record.getUniqueIdentifier(), Long.toString(record.getFirstSeen()),
+				Long.toString(record.getLastJoin()), Long.toString(record.getLastLeave()),
+				Integer.toString(record.getConnections())));
+		out.write('\n');
+		for (ClientRecord.Action action : record.getActions()) {
+		  out.write(String.join("\t", "A", record.getUniqueIdentifier(), Long.toString(action.getTime()),
+				  escape(action.getAction()), escape(action.getReason())));
+		  out.write('\n');
+		}
+		lines += 1 + record.getActions().size();
+	  }
+	}
+
+	Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+	this.compactedLines = lines;
+	this.appendedLines = 0;
+  }
+
+  private static boolean contains(ClientRecord record, ClientRecord.Action action) {
+	for (ClientRecord.Action recorded : record.getActions()) {
+	  if (recorded.getTime() == action.getTime() && recorded.getAction().equals(action.getAction())) {
+		return true;
+	  }
+	}
+
+	return false;
+  }
+
+  /** Escapes backslashes, tabs and line breaks, so a value never spans several fields or lines. */
+  private static String escape(String value) {
+	final StringBuilder builder = new StringBuilder(value.length());
+	for (int i = 0; i < value.length(); i++) {
+	  final char c = value.charAt(i);
+	  switch (c) {
+		case '\\':
+		  builder.append("\\\\");
+		  break;
+		case '\t':
+		  builder.append("\\t");
+		  break;
+		case '\n':
+		  builder.append("\\n");
+		  break;
+		case '\r':
+		  builder.append("\\r");
+		  break;
+		default:
+		  builder.append(c);
+		  break;
+	  }
+	}
+
+	return builder.toString();
+  }
+
+  private static String unescape(String value) {
+	final StringBuilder builder = new StringBuilder(value.length());
+	for (int i = 0; i < value.length(); i++) {
+	  final char c = value.charAt(i);
+	  if (c != '\\') {
+		builder.append(c);
+		continue;
+	  }
+
+	  switch (value.charAt(++i)) {
+		case 't':
+		  builder.append('\t');
+		  break;
+		case 'n':
+		  builder.append('\n');
+		  break;
+		case 'r':
+		  builder.append('\r');
+		  break;
+		default:
+		  builder.append(value.charAt(i));
+		  break;
+	  }
+	}
+
+	return builder.toString();
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.history;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything the bot observed about a single client, identified by its unique id.
+ * <p>
+ * Records are immutable, every observation creates a new record. Only the most recent moderation actions are kept,
+ * so a record's size does not grow with the client's history.
+ * </p>
+ */
+public final class ClientRecord {
+
+  /** Amount of moderation actions kept per client. */
+  static final int MAX_ACTIONS = 16;
+  static final List<Action> EMPTY_ACTIONS = Collections.emptyList();
+
+  private final String uniqueIdentifier;
+  private final long firstSeen;
+  private final long lastJoin;
+  private final long previousJoin;
+  private final long lastLeave;
+  private final int connections;
+  private final List<Action> actions;
+
+  ClientRecord(String uniqueIdentifier, long firstSeen) {
+	this(uniqueIdentifier, firstSeen, 0, 0, 0, 0, EMPTY_ACTIONS);
+  }
+
+  ClientRecord(String uniqueIdentifier, long firstSeen, long lastJoin, long previousJoin, long lastLeave,
+			   int connections, List<Action> actions) {
+	this.uniqueIdentifier = uniqueIdentifier;
+	this.firstSeen = firstSeen;
+	this.lastJoin = lastJoin;
+	this.previousJoin = previousJoin;
+	this.lastLeave = lastLeave;
+	this.connections = connections;
+	this.actions = actions;
+  }
+
+  public String getUniqueIdentifier() {
+	return uniqueIdentifier;
+  }
+
+  /** Returns the time the bot saw the client for the first time, in milliseconds since the epoch. */
+  public long getFirstSeen() {
+	return firstSeen;
+  }
+
+  /** Returns the time the client joined last, in milliseconds since the epoch, or {@code 0} if never observed. */
+  public long getLastJoin() {
+	return lastJoin;
+  }
+
+  /**
+   * Returns the time the client joined before its last join, in milliseconds since the epoch, or {@code 0} if never
+   * observed. It is not persisted, but taken from the last join whenever the client joins again.
+   */
+  public long getPreviousJoin() {
+	return previousJoin;
+  }
+
+  /** Returns the time the client left last, in milliseconds since the epoch, or {@code 0} if never observed. */
+  public long getLastLeave() {
+	return lastLeave;
+  }
+
+  /** Returns the amount of connections observed by the bot. */
+  public int getConnections() {
+	return connections;
+  }
+
+  /** Returns the most recent moderation actions, oldest first. The returned list must not be modified. */
+  public List<Action> getActions() {
+	return actions;
+  }
+
+  /** Returns how often the given action is part of the most recent moderation actions. */
+  public int countActions(String action) {
+	int count = 0;
+	for (Action recorded : actions) {
+	  if (recorded.action.equals(action)) {
+		count++;
+	  }
+	}
+
+	return count;
+  }
+
+  ClientRecord withJoin(long time) {
+	return new ClientRecord(uniqueIdentifier, Math.min(firstSeen, time), Math.max(lastJoin, time), lastJoin,
+			lastLeave, connections + 1, actions);
+  }
+
+  ClientRecord withLeave(long time) {
+	return new ClientRecord(uniqueIdentifier, firstSeen, lastJoin, previousJoin, Math.max(lastLeave, time),
+			connections, actions);
+  }
+
+  ClientRecord withAction(Action action) {
+	final List<Action> actions = new ArrayList<>(Math.min(this.actions.size() + 1, MAX_ACTIONS));
+	actions.addAll(this.actions.subList(Math.max(0, this.actions.size() + 1 - MAX_ACTIONS), this.actions.size()));
+	actions.add(action);
+	return new ClientRecord(uniqueIdentifier, firstSeen, lastJoin, previousJoin, lastLeave, connections,
+			Collections.unmodifiableList(actions));
+  }
+
+  /**
+   * A moderation action taken against a client, e.g. a warning or a kick.
+   */
+  public static final class Action {
+
+	private final long time;
+	private final String action;
+	private final String reason;
+
+	Action(long time, String action, String reason) {
+	  this.time = time;
+	  this.action = action;
+	  this.reason = reason;
+	}
+
+	/** Returns the time the action was taken, in milliseconds since the epoch. */
+	public long getTime() {
+	  return time;
+	}
+
+	/** Returns the action's name, e.g. <code>badname-kick</code>. */
+	public String getAction() {
+	  return action;
+	}
+
+	/** Returns the message sent to the client, which might be empty. */
+	public String getReason() {
+	  return reason;
+	}
+  }
+}
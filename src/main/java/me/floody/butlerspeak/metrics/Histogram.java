@@ -0,0 +1,107 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with fixed buckets, which can be updated by several threads without locking.
+ */
+public final class Histogram {
+
+  /** The upper bounds of the buckets in milliseconds. A last bucket catches all greater durations. */
+  private static final long[] BOUNDS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000};
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sumNanos = new LongAdder();
+
+  /**
+   * Records a duration.
+   *
+   * @param nanos
+   * 		the duration in nanoseconds
+   */
+  public void record(long nanos) {
+	final long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos));
+	int bucket = 0;
+	while (bucket < BOUNDS.length && millis >= BOUNDS[bucket]) {
+	  bucket++;
+	}
+
+	buckets.incrementAndGet(bucket);
+	count.increment();
+	sumNanos.add(nanos);
+  }
+
+  /** Returns the amount of recorded durations. */
+  public long getCount() {
+	return count.sum();
+  }
+
+  /**
+   * Returns an estimate of the given quantile in milliseconds, i.e. the upper bound of the bucket containing it. If
+   * the quantile is greater than the greatest bound, {@link Long#MAX_VALUE} is returned.
+   *
+   * @param quantile
+   * 		the quantile, between 0 and 1
+   */
+  public long getQuantile(double quantile) {
+	final long total = count.sum();
+	if (total == 0) {
+	  return 0;
+	}
+
+	final long rank = (long) Math.ceil(quantile * total);
+	long seen = 0;
+	for (int i = 0; i < BOUNDS.length; i++) {
+	  seen += buckets.get(i);
+	  if (seen >= rank) {
+		return BOUNDS[i];
+	  }
+	}
+
+	return Long.MAX_VALUE;
+  }
+
+  /**
+   * Appends the histogram in the Prometheus text format, with durations in seconds.
+   *
+   * @param out
+   * 		the builder to append to
+   * @param name
+   * 		the name of the metric
+   * @param labels
+   * 		the labels of the histogram, formatted as <code>key="value"</code> and separated by commas
+   */
+  void write(StringBuilder out, String name, String labels) {
+	long cumulative = 0;
+	for (int i = 0; i <= BOUNDS.length; i++) {
+	  cumulative += buckets.get(i);
+	  final String bound = i < BOUNDS.length ? String.valueOf(BOUNDS[i] / 1000D) : "+Inf";
+	  out.append(name).append("_bucket{").append(labels).append(",le=\"").append(bound).append("\"} ")
+			  .append(cumulative).append('\n');
+	}
+
+	out.append(name).append("_sum{").append(labels).append("} ").append(sumNanos.sum() / 1e9).append('\n');
+	out.append(name).append("_count{").append(labels).append("} ").append(count.sum()).append('\n');
+  }
+}
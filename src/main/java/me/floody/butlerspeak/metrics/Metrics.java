@@ -0,0 +1,353 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.metrics;
+
+import com.github.theholywaffle.teamspeak3.api.exception.TS3CommandFailedException;
+import me.floody.butlerspeak.plugins.EventRouter;
+import me.floody.butlerspeak.query.CommandDispatcher;
+import me.floody.butlerspeak.query.CommandPriority;
+import me.floody.butlerspeak.scheduler.Scheduler;
+import me.floody.butlerspeak.utils.Log;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Collects the metrics of a single virtual server.
+ * <p>
+ * The dispatcher records every command it sends by its name (e.g. <code>clientmove</code>) together with the plugin
+ * that submitted it, how long it waited in the queue and how long the server took to answer each kind of command.
+ * Events received by the plugins are timestamped, so the time from an event to the command it caused is known as
+ * well, including the time the event waited for its plugin. The metrics are exposed via JMX and, if configured, via
+ * the HTTP endpoint of {@link MetricsServer}.
+ * </p>
+ */
+public final class Metrics implements MetricsMBean {
+
+  /** The error id the server answers commands with, if the client exceeds the flood limits. */
+  private static final int FLOOD_ERROR = 524;
+  /** The time the event handled by the current thread was received, or 0 if no event is handled. */
+  private static final ThreadLocal<long[]> EVENT_TIME = ThreadLocal.withInitial(() -> new long[1]);
+  /** The name of the class a command was sent for, derived from its (lambda) class. */
+  private static final ClassValue<String> SOURCES = new ClassValue<String>() {
+	@Override
+	protected String computeValue(Class<?> type) {
+	  String name = type.getName();
+	  name = name.substring(name.lastIndexOf('.') + 1);
+	  final int inner = name.indexOf('$');
+	  return inner > 0 ? name.substring(0, inner) : name;
+	}
+  };
+
+  private final String server;
+  /** The amount of sent commands by command name and submitting class, per priority. */
+  private final Map<String, Map<String, LongAdder[]>> commands;
+  private final Histogram[] queueTime;
+  /** The time the server took to answer, by command name. */
+  private final Map<String, Histogram> commandLatency;
+  private final Histogram eventToAction;
+  private final LongAdder sent;
+  private final LongAdder failed;
+  private final LongAdder floodErrors;
+  private final Log logger;
+  private volatile LongSupplier queued = () -> 0;
+  private volatile LongSupplier dropped = () -> 0;
+  private volatile LongSupplier schedulerQueued = () -> 0;
+  private volatile LongSupplier queuedEvents = () -> 0;
+  private volatile LongSupplier droppedEvents = () -> 0;
+  private volatile long commandsPerSecond;
+  private long lastSent;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param server
+   * 		the name of the virtual server, or {@code null} if only a single server is managed
+   */
+  public Metrics(String server) {
+	this.server = server == null ? "default" : server;
+	this.commands = new ConcurrentHashMap<>();
+	this.queueTime = newHistograms();
+	this.commandLatency = new ConcurrentHashMap<>();
+	this.eventToAction = new Histogram();
+	this.sent = new LongAdder();
+	this.failed = new LongAdder();
+	this.floodErrors = new LongAdder();
+	this.logger = new Log(this.getClass().getName());
+  }
+
+  private static Histogram[] newHistograms() {
+	final Histogram[] histograms = new Histogram[CommandPriority.values().length];
+	for (int i = 0; i < histograms.length; i++) {
+	  histograms[i] = new Histogram();
+	}
+
+	return histograms;
+  }
+
+  /**
+   * Observes the queue sizes of the given dispatcher and scheduler and registers the metrics via JMX.
+   */
+  public void bind(CommandDispatcher dispatcher, Scheduler scheduler) {
+	this.queued = dispatcher::getQueuedCount;
+	this.dropped = dispatcher::getDroppedCount;
+	this.schedulerQueued = scheduler::getQueuedCount;
+	scheduler.schedulePeriodic(this::sampleRate, 1, 1, TimeUnit.SECONDS);
+
+	try {
+	  ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+			  new ObjectName("me.floody.butlerspeak:type=Metrics,server=" + ObjectName.quote(server)));
+	} catch (JMException e) {
+	  logger.error("Could not register the metrics via JMX.", e);
+	}
+  }
+
+  /** Observes the plugins' event queues of the given router. */
+  public void bind(EventRouter router) {
+	this.queuedEvents = router::getQueuedCount;
+	this.droppedEvents = router::getDroppedCount;
+  }
+
+  /**
+   * Runs the handler of an event and timestamps it with the time the event was received, so commands submitted by
+   * the handler can be related to the event.
+   *
+   * @param receivedAt
+   * 		the time the event was received, as returned by {@link System#nanoTime()}
+   * @param handler
+   * 		the handler to run on the current thread
+   */
+  public static void handleEvent(long receivedAt, Runnable handler) {
+	final long[] eventTime = EVENT_TIME.get();
+	eventTime[0] = receivedAt;
+	try {
+	  handler.run();
+	} finally {
+	  eventTime[0] = 0;
+	}
+  }
+
+  /** Returns the time the event handled by the current thread was received, or 0 if no event is handled. */
+  public static long getEventTime() {
+	return EVENT_TIME.get()[0];
+  }
+
+  /**
+   * Records a command that is sent to the server.
+   *
+   * @param command
+   * 		the name of the command as sent to the server
+   * @param source
+   * 		the class the command was sent for, e.g. the class of the submitted (lambda) function
+   * @param priority
+   * 		the command's priority
+   * @param queuedAt
+   * 		the time the command was submitted, as returned by {@link System#nanoTime()}
+   * @param eventAt
+   * 		the time the event causing the command was received, or 0 if it was not caused by an event
+   */
+  public void recordSent(String command, Class<?> source, CommandPriority priority, long queuedAt, long eventAt) {
+	final long now = System.nanoTime();
+	sent.increment();
+	commands.computeIfAbsent(command, name -> new ConcurrentHashMap<>())
+			.computeIfAbsent(SOURCES.get(source), name -> newCounters())[priority.ordinal()].increment();
+	queueTime[priority.ordinal()].record(now - queuedAt);
+	if (eventAt != 0) {
+	  eventToAction.record(now - eventAt);
+	}
+  }
+
+  private static LongAdder[] newCounters() {
+	final LongAdder[] counters = new LongAdder[CommandPriority.values().length];
+	for (int i = 0; i < counters.length; i++) {
+	  counters[i] = new LongAdder();
+	}
+
+	return counters;
+  }
+
+  /**
+   * Records the server's response to a command.
+   *
+   * @param command
+   * 		the name of the command as sent to the server
+   * @param sentAt
+   * 		the time the command was sent, as returned by {@link System#nanoTime()}
+   * @param failure
+   * 		the error the server answered with, or {@code null} if the command succeeded
+   */
+  public void recordResponse(String command, long sentAt, Exception failure) {
+	commandLatency.computeIfAbsent(command, name -> new Histogram()).record(System.nanoTime() - sentAt);
+	if (failure == null) {
+	  return;
+	}
+
+	failed.increment();
+	if (failure instanceof TS3CommandFailedException
+			&& ((TS3CommandFailedException) failure).getError().getId() == FLOOD_ERROR) {
+	  floodErrors.increment();
+	}
+  }
+
+  private synchronized void sampleRate() {
+	final long total = sent.sum();
+	this.commandsPerSecond = total - lastSent;
+	this.lastSent = total;
+  }
+
+  @Override
+  public long getSentCommands() {
+	return sent.sum();
+  }
+
+  @Override
+  public long getCommandsPerSecond() {
+	return commandsPerSecond;
+  }
+
+  @Override
+  public long getFailedCommands() {
+	return failed.sum();
+  }
+
+  @Override
+  public long getFloodErrors() {
+	return floodErrors.sum();
+  }
+
+  @Override
+  public long getQueuedCommands() {
+	return queued.getAsLong();
+  }
+
+  @Override
+  public long getDroppedCommands() {
+	return dropped.getAsLong();
+  }
+
+  @Override
+  public long getSchedulerQueueDepth() {
+	return schedulerQueued.getAsLong();
+  }
+
+  @Override
+  public long getQueuedEvents() {
+	return queuedEvents.getAsLong();
+  }
+
+  @Override
+  public long getDroppedEvents() {
+	return droppedEvents.getAsLong();
+  }
+
+  @Override
+  public long getCommandLatencyMedianMillis() {
+	return quantile(commandLatency.values(), 0.5);
+  }
+
+  @Override
+  public long getCommandLatency99thPercentileMillis() {
+	return quantile(commandLatency.values(), 0.99);
+  }
+
+  @Override
+  public long getEventToAction99thPercentileMillis() {
+	return eventToAction.getQuantile(0.99);
+  }
+
+  /** Returns the greatest quantile of all commands. */
+  private static long quantile(Collection<Histogram> histograms, double quantile) {
+	long max = 0;
+	for (Histogram histogram : histograms) {
+	  max = Math.max(max, histogram.getQuantile(quantile));
+	}
+
+	return max;
+  }
+
+  /**
+   * Renders the metrics of all given servers in the Prometheus text format.
+   */
+  public static String render(Collection<Metrics> servers) {
+	final StringBuilder out = new StringBuilder();
+	header(out, "butlerspeak_commands_total", "counter", "Commands sent to the server.");
+	for (Metrics metrics : servers) {
+	  metrics.commands.forEach((command, sources) -> sources.forEach((source, counters) -> {
+		for (CommandPriority priority : CommandPriority.values()) {
+		  out.append("butlerspeak_commands_total{").append(metrics.labels(priority)).append(",command=\"")
+				  .append(command).append("\",source=\"").append(source).append("\"} ")
+				  .append(counters[priority.ordinal()].sum()).append('\n');
+		}
+	  }));
+	}
+
+	header(out, "butlerspeak_command_failures_total", "counter", "Commands the server answered with an error.");
+	servers.forEach(metrics -> metrics.sample(out, "butlerspeak_command_failures_total", metrics.failed.sum()));
+	header(out, "butlerspeak_flood_errors_total", "counter", "Commands rejected due to the server's flood limits.");
+	servers.forEach(metrics -> metrics.sample(out, "butlerspeak_flood_errors_total", metrics.floodErrors.sum()));
+	header(out, "butlerspeak_commands_dropped_total", "counter", "Commands dropped due to overload.");
+	servers.forEach(metrics -> metrics.sample(out, "butlerspeak_commands_dropped_total", metrics.getDroppedCommands()));
+	header(out, "butlerspeak_commands_queued", "gauge", "Commands waiting to be sent.");
+	servers.forEach(metrics -> metrics.sample(out, "butlerspeak_commands_queued", metrics.getQueuedCommands()));
+	header(out, "butlerspeak_scheduler_queued", "gauge", "Tasks waiting for a free worker thread.");
+	servers.forEach(metrics -> metrics.sample(out, "butlerspeak_scheduler_queued", metrics.getSchedulerQueueDepth()));
+	header(out, "butlerspeak_events_queued", "gauge", "Events waiting to be delivered to the plugins.");
+	servers.forEach(metrics -> metrics.sample(out, "butlerspeak_events_queued", metrics.getQueuedEvents()));
+	header(out, "butlerspeak_events_dropped_total", "counter", "Events dropped or coalesced, because a plugin could "
+			+ "not keep up.");
+	servers.forEach(metrics -> metrics.sample(out, "butlerspeak_events_dropped_total", metrics.getDroppedEvents()));
+
+	header(out, "butlerspeak_command_queue_seconds", "histogram", "Time commands waited to be sent.");
+	servers.forEach(metrics -> metrics.histograms(out, "butlerspeak_command_queue_seconds", metrics.queueTime));
+	header(out, "butlerspeak_command_latency_seconds", "histogram", "Time the server took to answer commands.");
+	servers.forEach(metrics -> metrics.commandLatency.forEach((command, histogram) -> histogram.write(out,
+			"butlerspeak_command_latency_seconds", "server=\"" + metrics.server + "\",command=\"" + command + "\"")));
+	header(out, "butlerspeak_event_to_action_seconds", "histogram",
+			"Time from receiving an event to sending a command caused by it.");
+	servers.forEach(metrics -> metrics.eventToAction.write(out, "butlerspeak_event_to_action_seconds",
+			"server=\"" + metrics.server + "\""));
+
+	return out.toString();
+  }
+
+  private static void header(StringBuilder out, String name, String type, String help) {
+	out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+	out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private void sample(StringBuilder out, String name, long value) {
+	out.append(name).append("{server=\"").append(server).append("\"} ").append(value).append('\n');
+  }
+
+  private void histograms(StringBuilder out, String name, Histogram[] histograms) {
+	for (CommandPriority priority : CommandPriority.values()) {
+	  histograms[priority.ordinal()].write(out, name, labels(priority));
+	}
+  }
+
+  private String labels(CommandPriority priority) {
+	return "server=\"" + server + "\",priority=\"" + priority.name().toLowerCase(Locale.ROOT) + "\"";
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.metrics;
+
+/**
+ * The management interface of {@link Metrics}, exposing the most important values via JMX.
+ */
+public interface MetricsMBean {
+
+  /** Returns the amount of commands sent to the server. */
+  long getSentCommands();
+
+  /** Returns the amount of commands sent during the last full second. */
+  long getCommandsPerSecond();
+
+  /** Returns the amount of commands the server answered with an error. */
+  long getFailedCommands();
+
+  /** Returns the amount of commands the server rejected, because the bot exceeded its flood limits. */
+  long getFloodErrors();
+
+  /** Returns the amount of commands waiting to be sent. */
+  long getQueuedCommands();
+
+  /** Returns the amount of commands dropped due to overload. */
+  long getDroppedCommands();
+
+  /** Returns the amount of tasks waiting for a free worker thread. */
+  long getSchedulerQueueDepth();
+
+  /** Returns the amount of events waiting to be delivered to the plugins. */
+  long getQueuedEvents();
+
+  /** Returns the amount of events dropped or coalesced, because a plugin could not keep up. */
+  long getDroppedEvents();
+
+  /** Returns the median time between sending a command and receiving its response, in milliseconds. */
+  long getCommandLatencyMedianMillis();
+
+  /** Returns the 99th percentile of the time between sending a command and receiving its response, in milliseconds. */
+  long getCommandLatency99thPercentileMillis();
+
+  /** Returns the 99th percentile of the time between receiving an event and sending a resulting command. */
+  long getEventToAction99thPercentileMillis();
+}
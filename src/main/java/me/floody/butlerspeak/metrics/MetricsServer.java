@@ -0,0 +1,77 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import me.floody.butlerspeak.utils.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A lightweight HTTP server serving the metrics of all managed servers at <code>/metrics</code>.
+ * <p>
+ * The server only listens on the loopback interface, so the metrics are not exposed to the network.
+ * </p>
+ */
+public class MetricsServer {
+
+  private final List<Metrics> metrics;
+  private final HttpServer server;
+  private final Log logger = new Log(this.getClass().getName());
+
+  /**
+   * Constructs a new instance listening on the given local port.
+   *
+   * @throws IOException
+   * 		if the port cannot be bound
+   */
+  public MetricsServer(int port, Collection<Metrics> metrics) throws IOException {
+	this.metrics = new ArrayList<>(metrics);
+	this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+	server.createContext("/metrics", exchange -> {
+	  try {
+		final byte[] body = Metrics.render(this.metrics).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+		  out.write(body);
+		}
+	  } catch (RuntimeException e) {
+		logger.error("Could not render the metrics.", e);
+		exchange.sendResponseHeaders(500, -1);
+	  } finally {
+		exchange.close();
+	  }
+	});
+  }
+
+  /** Starts serving requests on a background thread. */
+  public void start() {
+	server.start();
+	logger.info("Serving metrics at http://" + server.getAddress().getHostString() + ":"
+			+ server.getAddress().getPort() + "/metrics");
+  }
+}
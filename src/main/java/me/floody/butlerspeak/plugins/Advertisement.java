@@ -18,41 +18,65 @@
 
 package me.floody.butlerspeak.plugins;
 
-import com.github.theholywaffle.teamspeak3.TS3Api;
+import com.github.theholywaffle.teamspeak3.api.event.TS3EventAdapter;
 import me.floody.butlerspeak.ButlerSpeak;
-import me.floody.butlerspeak.config.ConfigNode;
+import me.floody.butlerspeak.config.ConfigSnapshot;
 import me.floody.butlerspeak.config.Configuration;
+import me.floody.butlerspeak.query.CommandDispatcher;
+import me.floody.butlerspeak.query.CommandPriority;
+import me.floody.butlerspeak.scheduler.ScheduledTask;
+import me.floody.butlerspeak.scheduler.Scheduler;
+import me.floody.butlerspeak.utils.Log;
 
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Broadcasts a message to the whole server every X minutes.
  */
-public class Advertisement implements Runnable {
+public class Advertisement extends TS3EventAdapter implements Runnable {
 
-  private final TS3Api api;
+  private final CommandDispatcher dispatcher;
   private final Configuration config;
-  private final ScheduledExecutorService executor;
+  private final Scheduler scheduler;
+  private final Log logger;
+  private ScheduledTask task;
+  private long delay;
 
   /**
    * Constructs a new instance and schedules the task to broadcast a message to the server.
    */
   public Advertisement(ButlerSpeak plugin) {
-	this.api = plugin.getApi();
+	this.dispatcher = plugin.getDispatcher();
 	this.config = plugin.getConfig();
-	this.executor = new ScheduledThreadPoolExecutor(1);
+	this.scheduler = plugin.getScheduler();
+	this.logger = plugin.getAndSetLogger(this.getClass().getName());
 
-	// First message should be sent after the specified delay.
-	executor.schedule(this, config.getLong(ConfigNode.ADVERTISEMENT_DELAY), TimeUnit.MINUTES);
+	schedule(config.getSnapshot());
+	config.addReloadListener(this::schedule);
+  }
+
+  /**
+   * Schedules the advertisement with the configured delay. If the delay did not change, the current schedule is kept.
+   */
+  private synchronized void schedule(ConfigSnapshot settings) {
+	final long newDelay = settings.getAdvertisementDelay();
+	if (task != null && newDelay == delay) {
+	  return;
+	}
+
+	if (task != null) {
+	  task.cancel();
+	}
+
+	// First message should be sent after the specified delay, every following message after the same delay.
+	this.delay = newDelay;
+	this.task = scheduler.schedulePeriodic(this, delay, delay, TimeUnit.MINUTES);
   }
 
   @Override
   public void run() {
-	api.sendServerMessage(config.get(ConfigNode.ADVERTISEMENT_MESSAGE));
-
-	// Once the message was sent, reschedule the task.
-	executor.schedule(this, config.getLong(ConfigNode.ADVERTISEMENT_DELAY), TimeUnit.MINUTES);
+	final String message = config.getSnapshot().getAdvertisementMessage();
+	dispatcher.submit(CommandPriority.BROADCAST, "sendtextmessage", api -> api.sendServerMessage(message))
+			.onFailure(ex -> logger.error("Could not broadcast the advertisement.", ex));
   }
 }
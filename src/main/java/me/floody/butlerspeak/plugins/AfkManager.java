@@ -18,173 +18,192 @@
 
 package me.floody.butlerspeak.plugins;
 
-import com.github.theholywaffle.teamspeak3.TS3Api;
 import com.github.theholywaffle.teamspeak3.api.event.ClientJoinEvent;
 import com.github.theholywaffle.teamspeak3.api.event.ClientLeaveEvent;
+import com.github.theholywaffle.teamspeak3.api.event.ClientMovedEvent;
 import com.github.theholywaffle.teamspeak3.api.event.TS3EventAdapter;
-import com.github.theholywaffle.teamspeak3.api.exception.TS3CommandFailedException;
 import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
 import me.floody.butlerspeak.ButlerSpeak;
-import me.floody.butlerspeak.config.ConfigNode;
+import me.floody.butlerspeak.config.ConfigSnapshot;
 import me.floody.butlerspeak.config.Configuration;
+import me.floody.butlerspeak.history.ClientHistory;
+import me.floody.butlerspeak.query.ClientSnapshot;
+import me.floody.butlerspeak.query.ClientSnapshotListener;
+import me.floody.butlerspeak.query.ClientSnapshotService;
+import me.floody.butlerspeak.query.CommandBatcher;
+import me.floody.butlerspeak.query.CommandDispatcher;
+import me.floody.butlerspeak.query.CommandPriority;
+import me.floody.butlerspeak.query.ServerGroupCache;
 import me.floody.butlerspeak.utils.Log;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.IntStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages idling clients.
+ * <p>
+ * Instead of checking every client over and over again, the manager computes from the observed idle time when each
+ * client reaches its next threshold (moving, then kicking) and only requests a new {@link ClientSnapshot} at the
+ * earliest of these deadlines. Since the idle time can only grow until the client becomes active, a client cannot
+ * reach a threshold earlier than computed.
+ * </p>
  */
-public class AfkManager extends TS3EventAdapter {
+public class AfkManager extends TS3EventAdapter implements ClientSnapshotListener {
 
-  private final TS3Api api;
+  private final CommandDispatcher dispatcher;
+  private final CommandBatcher batcher;
   private final Configuration config;
-  private final ScheduledExecutorService executor;
-  private final Map<Integer, AfkMover> workers;
+  private final ServerGroupCache groupCache;
+  private final ClientSnapshotService snapshotService;
+  private final ClientHistory history;
+  private final Set<Integer> idleClients;
   private final Log logger;
-  private final List<Integer> ignoredGroups;
-  private final List<Integer> ignoredChannels;
 
   /**
    * Constructs a new instance.
    * <p>
-   * Adds two listener for a client join and leave event. When a client's connecting to the server, a new
-   * instance of {@link AfkMover AfkMover} will be created which keeps track of the client's idle time and moves the
-   * client once exceeding a certain amount of seconds.
+   * Listens to every new {@link ClientSnapshot} to keep track of the clients' idle time and moves the clients once
+   * exceeding a certain amount of seconds. When a client leaves the server, its state will be removed.
    * </p>
    */
   public AfkManager(ButlerSpeak plugin) {
-	this.api = plugin.getApi();
+	this.dispatcher = plugin.getDispatcher();
+	this.batcher = plugin.getCommandBatcher();
 	this.config = plugin.getConfig();
-	this.executor = new ScheduledThreadPoolExecutor(1);
-	this.workers = new HashMap<>();
+	this.groupCache = plugin.getServerGroupCache();
+	this.snapshotService = plugin.getSnapshotService();
+	this.history = plugin.getClientHistory();
+	this.idleClients = ConcurrentHashMap.newKeySet();
 	this.logger = plugin.getAndSetLogger(this.getClass().getName());
-	this.ignoredGroups = config.getIntegerList(ConfigNode.AFK_GROUPS_BYPASS);
-	this.ignoredChannels = config.getIntegerList(ConfigNode.AFK_CHANNEL_BYPASS);
 
-	api.getClients().forEach(client -> {
-	  if (IntStream.of(client.getServerGroups()).anyMatch(ignoredGroups::contains)) {
-		return;
-	  }
-
-	  int clientId = client.getId();
-	  final AfkMover worker = new AfkMover(clientId);
-	  executor.schedule(worker, 0, TimeUnit.SECONDS);
-
-	  // After scheduling the task for a client, wait a bit to prevent flooding.
-	  try {
-		Thread.sleep(350);
-	  } catch (InterruptedException ex) {
-		// Nothing
-	  }
-	});
+	snapshotService.addListener(this);
+	// The thresholds might have changed, thus all deadlines need to be computed again.
+	config.addReloadListener(settings -> snapshotService.requestRefresh(System.currentTimeMillis()));
   }
 
+  /** A new client is not idle yet, thus it cannot exceed the idle time before the configured amount of seconds. */
   @Override
   public void onClientJoin(ClientJoinEvent e) {
-	final int clientId = e.getClientId();
-	final Client client;
-	try {
-	  client = api.getClientInfo(clientId);
-	} catch (TS3CommandFailedException ex) {
-	  return;
-	}
-
-	if (client.isServerQueryClient() || IntStream.of(client.getServerGroups()).anyMatch(ignoredGroups::contains)) {
-	  return;
-	}
-
-	final AfkMover worker = new AfkMover(clientId);
-	workers.put(clientId, worker);
-	executor.schedule(worker, 0, TimeUnit.SECONDS);
+	snapshotService.requestRefresh(System.currentTimeMillis() + thresholdMillis(config.getSnapshot().getAfkIdleTime()));
   }
 
   @Override
   public void onClientLeave(ClientLeaveEvent e) {
-	final AfkMover worker = workers.remove(e.getClientId());
-	if (worker == null) {
-	  return;
-	}
+	idleClients.remove(e.getClientId());
+  }
 
-	worker.shutdown();
+  @Override
+  public void onClientLeft(Client client) {
+	idleClients.remove(client.getId());
   }
 
   /**
-   * Keeps track of a client's idle time and moves/kicks the client after exceeding a certain amount of seconds
-   * specified in <code>ButlerSpeak.properties</code>.
+   * Moving a client might end its bypass, so the client needs to be checked. A client moving out of the afk channel
+   * is active again and will be handled like a new client.
    */
-  private class AfkMover implements Runnable {
+  @Override
+  public void onClientMoved(ClientMovedEvent e) {
+	final ConfigSnapshot settings = config.getSnapshot();
+	final int targetChannel = e.getTargetChannelId();
+	if (targetChannel == settings.getAfkChannel() || settings.getAfkBypassChannels().contains(targetChannel)) {
+	  return;
+	}
 
-	private final int clientId;
-	private boolean cancelled;
-	private boolean isIdle;
+	if (idleClients.remove(e.getClientId())) {
+	  snapshotService.requestRefresh(System.currentTimeMillis() + thresholdMillis(settings.getAfkIdleTime()));
+	  return;
+	}
 
-	/**
-	 * Initializes a new instance for the given <code>clientId</code>.
-	 */
-	private AfkMover(int clientId) {
-	  this.clientId = clientId;
+	final Client client = snapshotService.getSnapshot().get(e.getClientId());
+	if (client == null || settings.getAfkBypassChannels().contains(client.getChannelId())) {
+	  snapshotService.requestRefresh(System.currentTimeMillis());
 	}
+  }
 
-	@Override
-	public void run() {
-	  if (cancelled) {
-		return;
+  @Override
+  public void onSnapshot(ClientSnapshot snapshot) {
+	final ConfigSnapshot settings = config.getSnapshot();
+	long nextDeadline = Long.MAX_VALUE;
+	for (Client client : snapshot.getClients()) {
+	  if (groupCache.isInAny(client, settings.getAfkBypassGroups())
+			  || settings.getAfkBypassChannels().contains(client.getChannelId())) {
+		continue;
 	  }
 
-	  final Client client = api.getClientInfo(clientId);
-	  if (ignoredChannels.contains(client.getChannelId())) {
-		reschedule();
-		return;
-	  }
+	  nextDeadline = Math.min(nextDeadline, checkClient(client, settings, snapshot.getTimestamp()));
+	}
 
-	  long idleTime = client.getIdleTime() / 1000;
-	  long configIdleTime = config.getLong(ConfigNode.AFK_IDLE_TIME);
-	  if (idleTime > configIdleTime && !isIdle) {
-		if (config.getBoolean(ConfigNode.AFK_NOTIFY)) {
-		  String notifyMessage = config.get(ConfigNode.AFK_NOTIFY_MESSAGE);
-		  switch (config.get(ConfigNode.AFK_NOTIFY_TYPE)) {
-			case "poke":
-			  api.pokeClient(clientId, notifyMessage);
-			  break;
-			case "chat":
-			  api.sendPrivateMessage(clientId, notifyMessage);
-			  break;
-		  }
-		}
+	if (nextDeadline != Long.MAX_VALUE) {
+	  snapshotService.requestRefresh(nextDeadline);
+	}
+  }
 
-		this.isIdle = true;
-		api.moveClient(clientId, config.getInt(ConfigNode.AFK_CHANNEL));
-	  } else if (idleTime < configIdleTime && isIdle) {
-		this.isIdle = false;
+  /**
+   * Checks the client's idle time and moves/kicks the client after exceeding a certain amount of seconds specified
+   * in <code>ButlerSpeak.properties</code>.
+   *
+   * @return the time at which the client reaches its next threshold, or {@link Long#MAX_VALUE} if there is none
+   */
+  private long checkClient(Client client, ConfigSnapshot settings, long timestamp) {
+	final int clientId = client.getId();
+	boolean isIdle = idleClients.contains(clientId);
+
+	long idleTime = client.getIdleTime() / 1000;
+	long configIdleTime = settings.getAfkIdleTime();
+	if (idleTime > configIdleTime && !isIdle && client.getChannelId() == settings.getAfkChannel()) {
+	  // Clients idling in the afk channel already are not moved, but might still be kicked.
+	  isIdle = true;
+	  idleClients.add(clientId);
+	} else if (idleTime > configIdleTime && !isIdle) {
+	  if (settings.isAfkNotify()) {
+		String notifyMessage = settings.getAfkNotifyMessage();
+		switch (settings.getAfkNotifyType()) {
+		  case "poke":
+			dispatcher.submit(CommandPriority.NOTIFICATION, clientId, "clientpoke",
+					api -> api.pokeClient(clientId, notifyMessage));
+			break;
+		  case "chat":
+			dispatcher.submit(CommandPriority.NOTIFICATION, clientId, "sendtextmessage",
+					api -> api.sendPrivateMessage(clientId, notifyMessage));
+			break;
+		}
 	  }
 
-	  if (config.getBoolean(ConfigNode.AFK_KICK) && (idleTime > config.getLong(ConfigNode.AFK_KICK_TIME) && isIdle)) {
-		api.kickClientFromServer(config.get(ConfigNode.AFK_KICK_REASON), clientId);
-		logger.info("Kicked client " + client.getNickname() + "( " + clientId + ") for being idle too long!");
-	  }
+	  isIdle = true;
+	  idleClients.add(clientId);
+	  batcher.moveClient(getClass(), clientId, settings.getAfkChannel())
+			  .onFailure(ex -> logger.error("Could not move idle client " + client.getNickname() + ".", ex));
+	} else if (idleTime < configIdleTime && isIdle) {
+	  isIdle = false;
+	  idleClients.remove(clientId);
+	}
 
-	  reschedule();
+	if (!isIdle) {
+	  return timestamp + thresholdMillis(configIdleTime) - client.getIdleTime();
 	}
 
-	/**
-	 * Cancels the {@link AfkManager#executor}.
-	 */
-	private void shutdown() {
-	  cancelled = true;
-	  isIdle = false;
+	if (!settings.isAfkKick()) {
+	  return Long.MAX_VALUE;
 	}
 
-	/**
-	 * Reschedules {@link AfkManager#executor}.
-	 */
-	private void reschedule() {
-	  executor.schedule(this, (config.getBoolean(ConfigNode.BOT_SLOWMODE) ? 5 : 1), TimeUnit.SECONDS);
+	if (idleTime > settings.getAfkKickTime()) {
+	  batcher.kickClientFromServer(getClass(), settings.getAfkKickReason(), clientId)
+			  .onSuccess(v -> {
+				logger.info("Kicked client " + client.getNickname() + "( " + clientId + ") for being idle too long!");
+				history.recordAction(client, "afk-kick", settings.getAfkKickReason());
+			  })
+			  .onFailure(ex -> logger.error("Could not kick idle client " + client.getNickname() + ".", ex));
+	  return Long.MAX_VALUE;
 	}
+
+	return timestamp + thresholdMillis(settings.getAfkKickTime()) - client.getIdleTime();
+  }
+
+  /**
+   * Returns the idle time in milliseconds at which a client exceeds the given threshold. Since idle times are
+   * compared in whole seconds, the threshold is exceeded one second after it was reached.
+   */
+  private static long thresholdMillis(long thresholdSeconds) {
+	return (thresholdSeconds + 1) * 1000;
   }
 }
@@ -0,0 +1,163 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.plugins;
+
+import com.github.theholywaffle.teamspeak3.api.event.*;
+import me.floody.butlerspeak.ButlerSpeak;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Providers of the plugins shipped with ButlerSpeak.
+ */
+public final class BuiltinPlugins {
+
+  private BuiltinPlugins() {
+  }
+
+  /** Provides the {@link WelcomeMessage}. */
+  public static final class Welcome implements PluginProvider {
+
+	@Override
+	public String getName() {
+	  return "welcome";
+	}
+
+	@Override
+	public Set<Class<? extends TS3Event>> getEvents() {
+	  return new HashSet<>(Arrays.asList(ClientJoinEvent.class));
+	}
+
+	@Override
+	public TS3Listener create(ButlerSpeak plugin) {
+	  return new WelcomeMessage(plugin);
+	}
+  }
+
+  /** Provides the {@link AfkManager}. */
+  public static final class Afk implements PluginProvider {
+
+	@Override
+	public String getName() {
+	  return "afk";
+	}
+
+	@Override
+	public Set<Class<? extends TS3Event>> getEvents() {
+	  return new HashSet<>(Arrays.asList(ClientJoinEvent.class, ClientLeaveEvent.class, ClientMovedEvent.class));
+	}
+
+	@Override
+	public TS3Listener create(ButlerSpeak plugin) {
+	  return new AfkManager(plugin);
+	}
+  }
+
+  /** Provides the {@link NameChecker}. */
+  public static final class BadName implements PluginProvider {
+
+	@Override
+	public String getName() {
+	  return "badname";
+	}
+
+	@Override
+	public Set<Class<? extends TS3Event>> getEvents() {
+	  return new HashSet<>(Arrays.asList(ClientJoinEvent.class, ClientLeaveEvent.class));
+	}
+
+	@Override
+	public TS3Listener create(ButlerSpeak plugin) {
+	  return new NameChecker(plugin);
+	}
+  }
+
+  /** Provides the {@link RecordingChecker}. */
+  public static final class Recording implements PluginProvider {
+
+	@Override
+	public String getName() {
+	  return "recording";
+	}
+
+	@Override
+	public Set<Class<? extends TS3Event>> getEvents() {
+	  return new HashSet<>(Arrays.asList(ClientJoinEvent.class, ClientLeaveEvent.class, ClientMovedEvent.class));
+	}
+
+	@Override
+	public TS3Listener create(ButlerSpeak plugin) {
+	  return new RecordingChecker(plugin);
+	}
+  }
+
+  /** Provides the {@link SupportManager}. */
+  public static final class Support implements PluginProvider {
+
+	@Override
+	public String getName() {
+	  return "support";
+	}
+
+	@Override
+	public Set<Class<? extends TS3Event>> getEvents() {
+	  return new HashSet<>(Arrays.asList(ClientJoinEvent.class, ClientLeaveEvent.class, ClientMovedEvent.class));
+	}
+
+	@Override
+	public TS3Listener create(ButlerSpeak plugin) {
+	  return new SupportManager(plugin);
+	}
+  }
+
+  /** Provides the {@link Advertisement}, which does not listen to any event. */
+  public static final class Advertising implements PluginProvider {
+
+	@Override
+	public String getName() {
+	  return "advertisement";
+	}
+
+	@Override
+	public TS3Listener create(ButlerSpeak plugin) {
+	  return new Advertisement(plugin);
+	}
+  }
+
+  /** Provides the {@link RuleEngine}. */
+  public static final class Rules implements PluginProvider {
+
+	@Override
+	public String getName() {
+	  return "rules";
+	}
+
+	@Override
+	public Set<Class<? extends TS3Event>> getEvents() {
+	  return new HashSet<>(Arrays.asList(ClientJoinEvent.class, ClientLeaveEvent.class));
+	}
+
+	@Override
+	public TS3Listener create(ButlerSpeak plugin) {
+	  return new RuleEngine(plugin);
+	}
+  }
+}
@@ -0,0 +1,404 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.plugins;
+
+import com.github.theholywaffle.teamspeak3.api.event.*;
+import me.floody.butlerspeak.metrics.Metrics;
+import me.floody.butlerspeak.utils.Log;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers events to the plugins that declared them via {@link PluginProvider#getEvents()}.
+ * <p>
+ * The router is the only plugin listener registered with the query, so every event is looked up once by its class
+ * and only passed to the plugins subscribed to it. Every plugin has its own bounded queue, which is drained on the
+ * router's executor, so the query's event thread never waits for a plugin and a slow plugin does not delay the
+ * others. Each plugin receives its events one at a time, in the order they were received. A failing plugin neither
+ * affects other plugins nor stops the event delivery.
+ * </p><p>
+ * If a plugin cannot keep up and its queue is full, the {@link Overflow} policy decides what happens.
+ * </p>
+ */
+public class EventRouter implements TS3Listener {
+
+  /** Maximum amount of queued events per plugin. */
+  static final int QUEUE_CAPACITY = 1024;
+  /** Amount of events delivered at once, before a queue gives its thread to other plugins. */
+  static final int BATCH_SIZE = 64;
+  private static final PluginQueue[] NONE = new PluginQueue[0];
+
+  private final Map<Class<?>, PluginQueue[]> routes;
+  private final List<PluginQueue> queues;
+  private final Executor executor;
+  private final Log logger;
+  private volatile Overflow overflow;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param executor
+   * 		the executor draining the plugins' queues, usually created via {@link #newExecutor(int)}
+   * @param overflow
+   * 		the policy applied once a plugin's queue is full
+   * @param logger
+   * 		the logger to report failing plugins to
+   */
+  public EventRouter(Executor executor, Overflow overflow, Log logger) {
+	this.routes = new ConcurrentHashMap<>();
+	this.queues = new ArrayList<>();
+	this.executor = executor;
+	this.overflow = overflow;
+	this.logger = logger;
+  }
+
+  /**
+   * Returns an executor for the plugins' queues. On Java 21 and newer, every queue is drained on its own virtual
+   * thread, otherwise the given amount of platform threads is shared.
+   */
+  public static ExecutorService newExecutor(int threads) {
+	try {
+	  return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+	} catch (ReflectiveOperationException ex) {
+	  final AtomicInteger threadCount = new AtomicInteger();
+	  return Executors.newFixedThreadPool(threads, runnable -> {
+		final Thread thread = new Thread(runnable, "ButlerSpeak-Events-" + threadCount.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	  });
+	}
+  }
+
+  /** Changes the policy applied once a plugin's queue is full. */
+  public void setOverflow(Overflow overflow) {
+	this.overflow = overflow;
+  }
+
+  /**
+   * Subscribes the listener to the given events. Events are matched by their exact class.
+   *
+   * @param events
+   * 		the classes of the events to deliver
+   * @param listener
+   * 		the plugin's listener
+   */
+  public synchronized void register(Set<Class<? extends TS3Event>> events, TS3Listener listener) {
+	final PluginQueue queue = new PluginQueue(listener);
+	queues.add(queue);
+	for (Class<? extends TS3Event> event : events) {
+	  final PluginQueue[] subscribed = routes.getOrDefault(event, NONE);
+	  final PluginQueue[] updated = Arrays.copyOf(subscribed, subscribed.length + 1);
+	  updated[subscribed.length] = queue;
+	  routes.put(event, updated);
+	}
+  }
+
+  /** Returns the amount of events waiting to be delivered to any plugin. */
+  public synchronized int getQueuedCount() {
+	int queued = 0;
+	for (PluginQueue queue : queues) {
+	  queued += queue.size();
+	}
+
+	return queued;
+  }
+
+  /** Returns the amount of events dropped or coalesced, because a plugin could not keep up. */
+  public synchronized long getDroppedCount() {
+	long dropped = 0;
+	for (PluginQueue queue : queues) {
+	  dropped += queue.getDropped();
+	}
+
+	return dropped;
+  }
+
+  private void route(TS3Event event) {
+	final PluginQueue[] subscribed = routes.get(event.getClass());
+	if (subscribed == null) {
+	  return;
+	}
+
+	final long receivedAt = System.nanoTime();
+	for (PluginQueue queue : subscribed) {
+	  queue.offer(event, receivedAt);
+	}
+  }
+
+  @Override
+  public void onTextMessage(TextMessageEvent e) {
+	route(e);
+  }
+
+  @Override
+  public void onClientJoin(ClientJoinEvent e) {
+	route(e);
+  }
+
+  @Override
+  public void onClientLeave(ClientLeaveEvent e) {
+	route(e);
+  }
+
+  @Override
+  public void onServerEdit(ServerEditedEvent e) {
+	route(e);
+  }
+
+  @Override
+  public void onChannelEdit(ChannelEditedEvent e) {
+	route(e);
+  }
+
+  @Override
+  public void onChannelDescriptionChanged(ChannelDescriptionEditedEvent e) {
+	route(e);
+  }
+
+  @Override
+  public void onClientMoved(ClientMovedEvent e) {
+	route(e);
+  }
+
+  @Override
+  public void onChannelCreate(ChannelCreateEvent e) {
+	route(e);
+  }
+
+  @Override
+  public void onChannelDeleted(ChannelDeletedEvent e) {
+	route(e);
+  }
+
+  @Override
+  public void onChannelMoved(ChannelMovedEvent e) {
+	route(e);
+  }
+
+  @Override
+  public void onChannelPasswordChanged(ChannelPasswordChangedEvent e) {
+	route(e);
+  }
+
+  @Override
+  public void onPrivilegeKeyUsed(PrivilegeKeyUsedEvent e) {
+	route(e);
+  }
+
+  /**
+   * Returns the client or channel an event is about, or {@code -1} if the event is not about a single client or
+   * channel. Clients and channels are told apart by the upper half.
+   */
+  private static long subject(TS3Event event) {
+	if (event instanceof ClientMovedEvent) {
+	  return ((ClientMovedEvent) event).getClientId();
+	} else if (event instanceof ClientJoinEvent) {
+	  return ((ClientJoinEvent) event).getClientId();
+	} else if (event instanceof ClientLeaveEvent) {
+	  return ((ClientLeaveEvent) event).getClientId();
+	} else if (event instanceof ChannelEditedEvent) {
+	  return 1L << 32 | ((ChannelEditedEvent) event).getChannelId();
+	} else if (event instanceof ChannelDescriptionEditedEvent) {
+	  return 1L << 32 | ((ChannelDescriptionEditedEvent) event).getChannelId();
+	} else if (event instanceof ChannelPasswordChangedEvent) {
+	  return 1L << 32 | ((ChannelPasswordChangedEvent) event).getChannelId();
+	} else if (event instanceof ChannelMovedEvent) {
+	  return 1L << 32 | ((ChannelMovedEvent) event).getChannelId();
+	} else if (event instanceof ChannelCreateEvent) {
+	  return 1L << 32 | ((ChannelCreateEvent) event).getChannelId();
+	} else if (event instanceof ChannelDeletedEvent) {
+	  return 1L << 32 | ((ChannelDeletedEvent) event).getChannelId();
+	} else if (event instanceof ServerEditedEvent) {
+	  return 2L << 32;
+	}
+
+	return -1;
+  }
+
+  /** Returns whether a newer event of the same class and subject makes the older one obsolete. */
+  private static boolean isCoalescable(TS3Event event) {
+	return event instanceof ClientMovedEvent || event instanceof ChannelEditedEvent
+			|| event instanceof ChannelDescriptionEditedEvent || event instanceof ChannelPasswordChangedEvent
+			|| event instanceof ChannelMovedEvent || event instanceof ServerEditedEvent;
+  }
+
+  /**
+   * Determines what happens to a new event if a plugin's queue is full.
+   */
+  public enum Overflow {
+
+	/**
+	 * Replaces a queued event of the same kind about the same client or channel, e.g. an older move of the client,
+	 * with the new one. If there is none, the oldest event is dropped. Suitable for plugins which only react to the
+	 * current state, like all built-in plugins.
+	 */
+	COALESCE,
+	/** Drops the oldest queued event. */
+	DROP_OLDEST,
+	/** Blocks the query's event thread until the plugin caught up, delaying the events of all plugins. */
+	BLOCK;
+
+	/** Returns the policy with the given name as used in the configuration file, e.g. <code>drop-oldest</code>. */
+	public static Overflow fromName(String name) {
+	  return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+	}
+  }
+
+  /**
+   * A received event together with the time it was received.
+   */
+  private static final class QueuedEvent {
+
+	private final long receivedAt;
+	private TS3Event event;
+
+	private QueuedEvent(TS3Event event, long receivedAt) {
+	  this.event = event;
+	  this.receivedAt = receivedAt;
+	}
+  }
+
+  /**
+   * The events waiting to be delivered to a single plugin. At most one thread drains the queue at any time.
+   */
+  private final class PluginQueue implements Runnable {
+
+	private final TS3Listener listener;
+	private final Deque<QueuedEvent> events;
+	private boolean scheduled;
+	private long dropped;
+
+	private PluginQueue(TS3Listener listener) {
+	  this.listener = listener;
+	  this.events = new ArrayDeque<>();
+	}
+
+	private synchronized int size() {
+	  return events.size();
+	}
+
+	private synchronized long getDropped() {
+	  return dropped;
+	}
+
+	private synchronized void offer(TS3Event event, long receivedAt) {
+	  while (events.size() >= QUEUE_CAPACITY) {
+		final Overflow policy = overflow;
+		if (policy == Overflow.BLOCK) {
+		  try {
+			wait();
+			continue;
+		  } catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		  }
+		}
+
+		dropped++;
+		if (dropped % 100 == 1) {
+		  logger.info("Plugin " + listener.getClass().getName() + " cannot keep up with the events, dropped "
+				  + dropped + " events so far.");
+		}
+		if (policy == Overflow.COALESCE && coalesce(event)) {
+		  return;
+		}
+		events.pollFirst();
+	  }
+
+	  events.addLast(new QueuedEvent(event, receivedAt));
+	  if (!scheduled) {
+		this.scheduled = true;
+		submit();
+	  }
+	}
+
+	/**
+	 * Replaces the most recent queued event of the same class and subject. Looking further back than another event
+	 * about the same subject, e.g. the client's join, would change their order.
+	 */
+	private boolean coalesce(TS3Event event) {
+	  final long subject = subject(event);
+	  if (subject == -1 || !isCoalescable(event)) {
+		return false;
+	  }
+
+	  final Iterator<QueuedEvent> iterator = events.descendingIterator();
+	  while (iterator.hasNext()) {
+		final QueuedEvent queued = iterator.next();
+		if (subject(queued.event) != subject) {
+		  continue;
+		}
+
+		if (queued.event.getClass() != event.getClass()) {
+		  return false;
+		}
+
+		queued.event = event;
+		return true;
+	  }
+
+	  return false;
+	}
+
+	private void submit() {
+	  try {
+		executor.execute(this);
+	  } catch (RejectedExecutionException ex) {
+		this.scheduled = false;
+		logger.error("Could not deliver events to plugin " + listener.getClass().getName() + ".", ex);
+	  }
+	}
+
+	@Override
+	public void run() {
+	  for (int i = 0; i < BATCH_SIZE; i++) {
+		final QueuedEvent next;
+		synchronized (this) {
+		  next = events.pollFirst();
+		  if (next == null) {
+			this.scheduled = false;
+			return;
+		  }
+		  notifyAll();
+		}
+
+		try {
+		  Metrics.handleEvent(next.receivedAt, () -> next.event.fire(listener));
+		} catch (RuntimeException ex) {
+		  logger.error("Listener " + listener.getClass().getName() + " failed to handle "
+				  + next.event.getClass().getSimpleName() + ".", ex);
+		}
+	  }
+
+	  synchronized (this) {
+		if (events.isEmpty()) {
+		  this.scheduled = false;
+		} else {
+		  submit();
+		}
+	  }
+	}
+  }
+}
@@ -18,216 +18,216 @@
 
 package me.floody.butlerspeak.plugins;
 
-import com.github.theholywaffle.teamspeak3.TS3Api;
 import com.github.theholywaffle.teamspeak3.api.ChannelProperty;
 import com.github.theholywaffle.teamspeak3.api.event.*;
-import com.github.theholywaffle.teamspeak3.api.exception.TS3CommandFailedException;
-import com.github.theholywaffle.teamspeak3.api.wrapper.ChannelInfo;
+import com.github.theholywaffle.teamspeak3.api.wrapper.Channel;
 import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
 import me.floody.butlerspeak.ButlerSpeak;
-import me.floody.butlerspeak.config.ConfigNode;
+import me.floody.butlerspeak.config.ConfigSnapshot;
 import me.floody.butlerspeak.config.Configuration;
+import me.floody.butlerspeak.history.ClientHistory;
+import me.floody.butlerspeak.query.ChannelCache;
+import me.floody.butlerspeak.query.ClientSnapshot;
+import me.floody.butlerspeak.query.ClientSnapshotListener;
+import me.floody.butlerspeak.query.ClientSnapshotService;
+import me.floody.butlerspeak.query.CommandBatcher;
+import me.floody.butlerspeak.query.CommandDispatcher;
+import me.floody.butlerspeak.query.CommandPriority;
+import me.floody.butlerspeak.query.ServerGroupCache;
+import me.floody.butlerspeak.scheduler.ScheduledTask;
+import me.floody.butlerspeak.scheduler.Scheduler;
 import me.floody.butlerspeak.utils.Log;
+import me.floody.butlerspeak.utils.PatternSet;
 
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
-import java.util.stream.IntStream;
 
 /**
  * Checks channel and client's name for forbidden words.
  */
-public class NameChecker extends TS3EventAdapter {
+public class NameChecker extends TS3EventAdapter implements ClientSnapshotListener {
 
-  private final TS3Api api;
+  private final CommandDispatcher dispatcher;
+  private final CommandBatcher batcher;
   private final Configuration config;
-  private final ScheduledExecutorService executor;
-  private final Map<Integer, CheckClientName> workers;
+  private final ServerGroupCache groupCache;
+  private final ClientSnapshotService snapshotService;
+  private final ClientHistory history;
+  private final ChannelCache channelCache;
+  private final Scheduler scheduler;
+  private final Set<Integer> warnedClients;
+  private final Map<Integer, ScheduledTask> pendingChecks;
   private final Log logger;
-  private final List<String> regexPattern;
-  private final List<Integer> ignoredChannel;
-  private final List<Integer> ignoredGroups;
+  private static final DateTimeFormatter RENAME_DATE = DateTimeFormatter.ofPattern("dd-MMM, HH:mm");
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+  /** Time to wait for further changes of a channel before checking it, in milliseconds. */
+  private static final long CHECK_DELAY = 500;
 
   /**
    * Initializes a new instance.
    * <p>
-   * When first initialized, all clients and channels will be if they contain any forbidden words that matches the
-   * specified regexPattern. Also, it listens to {@link ClientJoinEvent}, {@link ChannelEditedEvent} and
-   * {@link ChannelCreateEvent} to check the name upon changes.
+   * When first initialized, all channels will be checked if they contain any forbidden words that matches the
+   * configured patterns. Clients are checked when joining and after renaming themselves. Channels are checked again
+   * once the {@link ChannelCache} reports that they were created or renamed.
    * </p>
    */
   public NameChecker(ButlerSpeak plugin) {
-	this.api = plugin.getApi();
+	this.dispatcher = plugin.getDispatcher();
+	this.batcher = plugin.getCommandBatcher();
 	this.config = plugin.getConfig();
-	this.executor = new ScheduledThreadPoolExecutor(1);
-	this.workers = new HashMap<>();
+	this.groupCache = plugin.getServerGroupCache();
+	this.snapshotService = plugin.getSnapshotService();
+	this.history = plugin.getClientHistory();
+	this.channelCache = plugin.getChannelCache();
+	this.scheduler = plugin.getScheduler();
+	this.warnedClients = ConcurrentHashMap.newKeySet();
+	this.pendingChecks = new ConcurrentHashMap<>();
 	this.logger = plugin.getAndSetLogger(this.getClass().getName());
-	this.regexPattern = config.getStringList(ConfigNode.BADNAME_PATTERN);
-	this.ignoredChannel = config.getIntegerList(ConfigNode.BADNAME_CHANNEL);
-	this.ignoredGroups = config.getIntegerList(ConfigNode.BADNAME_GROUPS);
-
-	// On first start, check the existing channels and connected clients for bad names.
-	api.getChannels().forEach(channel -> checkChannel(channel.getId()));
-	api.getClients().forEach(client -> {
-	  if (Arrays.stream(client.getServerGroups()).anyMatch((ignoredGroups::contains))) {
-		return;
+
+	final ConfigSnapshot settings = config.getSnapshot();
+	for (Channel channel : channelCache.getChannels()) {
+	  if (!settings.getBadnameBypassChannels().contains(channel.getId())) {
+		checkChannelName(channel.getId(), channel.getName(), settings);
 	  }
+	}
+	channelCache.addNameListener(channel -> scheduleCheck(channel.getId()));
+	snapshotService.addListener(this);
+  }
 
-	  final CheckClientName worker = new CheckClientName(client);
-	  workers.put(client.getId(), worker);
-	  executor.schedule(worker, 0, TimeUnit.SECONDS);
+  @Override
+  public void onClientLeave(ClientLeaveEvent e) {
+	warnedClients.remove(e.getClientId());
+  }
 
-	  // After scheduling the task for a client, wait a bit to prevent flooding.
-	  try {
-		Thread.sleep(350);
-	  } catch (InterruptedException ex) {
-		// Nothing
-	  }
-	});
+  @Override
+  public void onClientLeft(Client client) {
+	warnedClients.remove(client.getId());
   }
 
+  /** Joined clients are checked right away, using the nickname they joined with. */
   @Override
   public void onClientJoin(ClientJoinEvent e) {
-	final Client client;
-	try {
-	  client = api.getClientInfo(e.getClientId());
-	} catch (TS3CommandFailedException ex) {
-	  // Client is a query, do nothing.
-	  return;
-	}
-
-	if (client.isServerQueryClient() || IntStream.of(client.getServerGroups()).anyMatch(ignoredGroups::contains)) {
-	  return;
+	if (e.getClientType() == 0) {
+	  checkClient(ClientSnapshot.fromJoinEvent(e), config.getSnapshot());
 	}
-
-	final CheckClientName worker = new CheckClientName(client);
-	workers.put(client.getId(), worker);
-	executor.schedule(worker, 0, TimeUnit.SECONDS);
   }
 
+  /** Clients are only checked again after changing their nickname or server groups. */
   @Override
-  public void onClientLeave(ClientLeaveEvent e) {
-	final CheckClientName worker = workers.remove(e.getClientId());
-	if (worker == null) {
+  public void onClientEdited(Client before, Client after) {
+	if (before != null && before.getNickname().equals(after.getNickname())
+			&& ServerGroupCache.hasSameServerGroups(before, after)) {
 	  return;
 	}
 
-	worker.shutdown();
+	checkClient(after, config.getSnapshot());
   }
 
-  /** When a channel is edited, the new channel's name will be checked for any forbidden words. */
   @Override
-  public void onChannelEdit(ChannelEditedEvent e) {
-	checkChannel(e.getChannelId());
+  public void onSnapshot(ClientSnapshot snapshot) {
   }
 
-  /** When a new channel is created, the channel's name will be checked for any forbidden words. */
-  @Override
-  public void onChannelCreate(ChannelCreateEvent e) {
-	checkChannel(e.getChannelId());
+  /**
+   * Checks the channel once it was not changed for {@link #CHECK_DELAY} milliseconds, so a burst of edits results in
+   * a single check of the latest name.
+   */
+  private void scheduleCheck(int channelId) {
+	pendingChecks.compute(channelId, (id, pending) -> {
+	  if (pending != null) {
+		pending.cancel();
+	  }
+
+	  return scheduler.schedule(() -> checkChannel(id), CHECK_DELAY, TimeUnit.MILLISECONDS);
+	});
   }
 
   /**
-   * Checks whether the channel matches the RegEx regexPattern. If so, the channel will either be renamed or deleted.
+   * Checks whether the channel matches any forbidden pattern. If so, the channel will either be renamed or deleted.
    *
    * @param channelId
    * 		The channel to be checked
    */
   private void checkChannel(int channelId) {
-	if (ignoredChannel.contains(channelId)) {
-	  return;
+	pendingChecks.remove(channelId);
+	final ConfigSnapshot settings = config.getSnapshot();
+	final Channel channel = channelCache.getChannel(channelId);
+	if (channel != null && !settings.getBadnameBypassChannels().contains(channelId)) {
+	  checkChannelName(channelId, channel.getName(), settings);
 	}
+  }
 
-	ChannelInfo channelInfo = api.getChannelInfo(channelId);
-	String channelName = channelInfo.getName();
-	regexPattern.forEach(pattern -> {
-	  Pattern p = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
-	  if (!p.matcher(channelName).matches()) {
-		return;
-	  }
-
-	  switch (config.get(ConfigNode.BADNAME_CHANNEL_ACTION)) {
-		case "rename":
-		  SimpleDateFormat simpleDate = new SimpleDateFormat();
-		  simpleDate.applyPattern("dd-MMM, HH:mm");
-
-		  String newChannelName = config.get(ConfigNode.BADNAME_RENAME)
-				  .replaceAll("%date%", simpleDate.format(new Date()))
-				  .replaceAll("\\s+", "\u0020");
-
-		  try {
-			api.editChannel(channelId, ChannelProperty.CHANNEL_NAME, newChannelName);
-		  } catch (TS3CommandFailedException ex) {
-			api.deleteChannel(channelId);
-		  }
-		  break;
-		case "delete":
-		  try {
-			api.deleteChannel(channelId);
-		  } catch (TS3CommandFailedException ex) {
-			logger.error("Could not delete channel: " + channelName, ex);
-		  }
-		  break;
-	  }
-	});
+  /**
+   * Renames or deletes the channel if its name matches any forbidden pattern.
+   */
+  private void checkChannelName(int channelId, String channelName, ConfigSnapshot settings) {
+	final PatternSet.Match match = settings.getBadnamePatterns().match(channelName);
+	if (match == null) {
+	  return;
+	}
 
-	// Needs to wait a moment to prevent flooding.
-	try {
-	  Thread.sleep(350);
-	} catch (InterruptedException ex) {
-	  // Nothing
+	logger.info("Channel " + channelName + " (" + channelId + ") matches the forbidden pattern "
+			+ match.getPattern() + ".");
+	switch (settings.getBadnameChannelAction()) {
+	  case "rename":
+		final String renamed = settings.getBadnameRename().render(
+				placeholder -> placeholder.equals("date") ? RENAME_DATE.format(LocalDateTime.now()) : null);
+		final String newChannelName = WHITESPACE.matcher(renamed).replaceAll("\u0020");
+
+		// If the channel cannot be renamed, delete it instead.
+		dispatcher.submit(CommandPriority.ENFORCEMENT, channelId, "channeledit",
+				api -> api.editChannel(channelId, ChannelProperty.CHANNEL_NAME, newChannelName))
+				.onFailure(ex -> deleteChannel(channelId, channelName));
+		break;
+	  case "delete":
+		deleteChannel(channelId, channelName);
+		break;
 	}
   }
 
+  private void deleteChannel(int channelId, String channelName) {
+	dispatcher.submit(CommandPriority.ENFORCEMENT, channelId, "channeldelete", api -> api.deleteChannel(channelId))
+			.onFailure(ex -> logger.error("Could not delete channel: " + channelName, ex));
+  }
+
   /**
    * Checks whether the client's nickname contains any forbidden words.
    */
-  private class CheckClientName implements Runnable {
-
-	private boolean cancelled;
-	private final Client client;
-	private boolean isWarned;
-
-	private CheckClientName(Client client) {
-	  this.client = client;
+  private void checkClient(Client client, ConfigSnapshot settings) {
+	if (groupCache.isInAny(client, settings.getBadnameBypassGroups())) {
+	  return;
 	}
 
-	@Override
-	public void run() {
-	  if (cancelled) {
-		return;
-	  }
-
-	  String clientName = client.getNickname();
-	  regexPattern.forEach(pattern -> {
-		Pattern p = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
-		if (!p.matcher(clientName).matches()) {
-		  return;
-		}
+	final String clientName = client.getNickname();
+	final PatternSet.Match match = settings.getBadnamePatterns().match(clientName);
+	if (match == null) {
+	  return;
+	}
 
-		switch (config.get(ConfigNode.BADNAME_CLIENT_ACTION)) {
-		  case "warn":
-			if (isWarned) {
-			  break;
-			}
-
-			isWarned = true;
-			api.pokeClient(client.getId(), config.get(ConfigNode.BADNAME_CLIENT_MESSAGE));
-			break;
-		  case "kick":
-			api.kickClientFromServer(config.get(ConfigNode.BADNAME_CLIENT_KICK_MESSAGE), client);
-			break;
+	switch (settings.getBadnameClientAction()) {
+	  case "warn":
+		// Clients will only be warned once.
+		if (!warnedClients.add(client.getId())) {
+		  break;
 		}
-	  });
-
-	  executor.schedule(this, (config.getBoolean(ConfigNode.BOT_SLOWMODE) ? 5 : 1), TimeUnit.SECONDS);
-	}
 
-	public void shutdown() {
-	  cancelled = true;
+		dispatcher.submit(CommandPriority.NOTIFICATION, client.getId(), "clientpoke",
+				api -> api.pokeClient(client.getId(), settings.getBadnameClientMessage()))
+				.onSuccess(v -> history.recordAction(client, "badname-warn", settings.getBadnameClientMessage()))
+				.onFailure(ex -> logger.error("Could not warn client " + clientName + ".", ex));
+		logger.info("Warned client " + clientName + " (" + client.getId() + ") for matching the forbidden pattern "
+				+ match.getPattern() + ".");
+		break;
+	  case "kick":
+		batcher.kickClientFromServer(getClass(), settings.getBadnameClientKickMessage(), client.getId())
+				.onSuccess(v -> history.recordAction(client, "badname-kick", settings.getBadnameClientKickMessage()))
+				.onFailure(ex -> logger.error("Could not kick client " + clientName + ".", ex));
+		logger.info("Kicked client " + clientName + " (" + client.getId() + ") for matching the forbidden pattern "
+				+ match.getPattern() + ".");
+		break;
 	}
   }
 }
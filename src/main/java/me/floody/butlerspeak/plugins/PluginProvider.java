@@ -0,0 +1,63 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.plugins;
+
+import com.github.theholywaffle.teamspeak3.api.event.TS3Event;
+import com.github.theholywaffle.teamspeak3.api.event.TS3Listener;
+import me.floody.butlerspeak.ButlerSpeak;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Service provider interface for plugins.
+ * <p>
+ * Providers are discovered via {@link java.util.ServiceLoader}, thus third-party plugins only need to be put on the
+ * classpath together with a <code>META-INF/services/me.floody.butlerspeak.plugins.PluginProvider</code> file naming
+ * their provider. A plugin is only created if its name is listed in <code>bot.plugins</code>. Providers should not
+ * refer to the plugin's class outside of {@link #create(ButlerSpeak)}, so disabled plugins are never loaded.
+ * </p><p>
+ * The created plugin only receives the events returned by {@link #getEvents()}. Plugins without events, e.g. ones
+ * that only run scheduled tasks, may simply extend
+ * {@link com.github.theholywaffle.teamspeak3.api.event.TS3EventAdapter}.
+ * </p>
+ */
+public interface PluginProvider {
+
+  /** Returns the name used to enable the plugin in <code>bot.plugins</code>, in lower case. */
+  String getName();
+
+  /**
+   * Returns the classes of the events the plugin listens to, e.g.
+   * {@link com.github.theholywaffle.teamspeak3.api.event.ClientJoinEvent}. By default, the plugin receives no events.
+   */
+  default Set<Class<? extends TS3Event>> getEvents() {
+	return Collections.emptySet();
+  }
+
+  /**
+   * Creates the plugin for the given server. Plugins of the same server are created in parallel on a pool of their
+   * own, so they may wait for commands. Their events are delivered once all of them were created.
+   *
+   * @param plugin
+   * 		the instance managing the server
+   * @return the plugin, receiving the events returned by {@link #getEvents()}
+   */
+  TS3Listener create(ButlerSpeak plugin);
+}
@@ -18,152 +18,152 @@
 
 package me.floody.butlerspeak.plugins;
 
-import com.github.theholywaffle.teamspeak3.TS3Api;
 import com.github.theholywaffle.teamspeak3.api.event.ClientJoinEvent;
 import com.github.theholywaffle.teamspeak3.api.event.ClientLeaveEvent;
+import com.github.theholywaffle.teamspeak3.api.event.ClientMovedEvent;
 import com.github.theholywaffle.teamspeak3.api.event.TS3EventAdapter;
-import com.github.theholywaffle.teamspeak3.api.exception.TS3CommandFailedException;
 import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
 import me.floody.butlerspeak.ButlerSpeak;
-import me.floody.butlerspeak.config.ConfigNode;
+import me.floody.butlerspeak.config.ConfigSnapshot;
 import me.floody.butlerspeak.config.Configuration;
+import me.floody.butlerspeak.history.ClientHistory;
+import me.floody.butlerspeak.query.ClientSnapshot;
+import me.floody.butlerspeak.query.ClientSnapshotListener;
+import me.floody.butlerspeak.query.ClientSnapshotService;
+import me.floody.butlerspeak.query.CommandBatcher;
+import me.floody.butlerspeak.query.CommandDispatcher;
+import me.floody.butlerspeak.query.CommandPriority;
+import me.floody.butlerspeak.query.ServerGroupCache;
 import me.floody.butlerspeak.utils.Log;
 
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.IntStream;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Checks whether a client is recording.
+ * <p>
+ * Clients are checked as soon as they join recording, start recording or move into another channel. Every new
+ * {@link ClientSnapshot}, including the periodic reconciliation of the {@link ClientSnapshotService}, is used as
+ * reconciliation pass, so clients that are still recording in a forbidden channel are handled again without querying
+ * them one by one.
+ * </p>
  */
-public class RecordingChecker extends TS3EventAdapter {
+public class RecordingChecker extends TS3EventAdapter implements ClientSnapshotListener {
 
-  private final TS3Api api;
+  private final CommandDispatcher dispatcher;
+  private final CommandBatcher batcher;
   private final Configuration config;
-  private final ScheduledExecutorService executor;
-  private final Map<Integer, RecordingManager> workers;
+  private final ServerGroupCache groupCache;
+  private final ClientSnapshotService snapshotService;
+  private final ClientHistory history;
+  private final Map<Integer, Long> handledClients;
   private final Log logger;
-  private final List<Integer> ignoredChannel;
-  private final List<Integer> ignoredGroups;
 
   /** Simply constructs a new instance. */
   public RecordingChecker(ButlerSpeak plugin) {
-	this.api = plugin.getApi();
+	this.dispatcher = plugin.getDispatcher();
+	this.batcher = plugin.getCommandBatcher();
 	this.config = plugin.getConfig();
-	this.executor = new ScheduledThreadPoolExecutor(1);
-	this.workers = new HashMap<>();
+	this.groupCache = plugin.getServerGroupCache();
+	this.snapshotService = plugin.getSnapshotService();
+	this.history = plugin.getClientHistory();
+	this.handledClients = new ConcurrentHashMap<>();
 	this.logger = plugin.getAndSetLogger(this.getClass().getName());
-	this.ignoredChannel = config.getIntegerList(ConfigNode.RECORDING_CHANNEL);
-	this.ignoredGroups = config.getIntegerList(ConfigNode.RECORDING_GROUPS);
 
-	api.getClients().forEach(client -> {
-	  if (IntStream.of(client.getServerGroups()).anyMatch(ignoredGroups::contains)) {
-		return;
-	  }
-
-	  int clientId = client.getId();
-	  final RecordingManager worker = new RecordingManager(clientId);
-	  workers.put(clientId, worker);
-	  executor.schedule(worker, 0, TimeUnit.SECONDS);
-
-	  // After scheduling the task for a client, wait a bit to prevent flooding.
-	  try {
-		Thread.sleep(350);
-	  } catch (InterruptedException ex) {
-		// Nothing
-	  }
-	});
+	snapshotService.addListener(this);
   }
 
   @Override
   public void onClientJoin(ClientJoinEvent e) {
-	final Client client;
-	try {
-	  client = api.getClientInfo(e.getClientId());
-	} catch (TS3CommandFailedException ex) {
-	  // Client is a query, do nothing.
-	  return;
+	if (e.getClientType() == 0 && e.isClientRecording()) {
+	  checkClient(ClientSnapshot.fromJoinEvent(e), e.getClientTargetId(), config.getSnapshot());
 	}
-
-	if (client.isServerQueryClient() || IntStream.of(client.getServerGroups()).anyMatch(ignoredGroups::contains)) {
-	  return;
-	}
-
-	int clientId = client.getId();
-	final RecordingManager worker = new RecordingManager(clientId);
-	workers.put(clientId, worker);
-	executor.schedule(worker, 0, TimeUnit.SECONDS);
   }
 
   @Override
   public void onClientLeave(ClientLeaveEvent e) {
-	final RecordingManager worker = workers.remove(e.getClientId());
-	if (worker == null) {
-	  return;
-	}
+	handledClients.remove(e.getClientId());
+  }
 
-	worker.shutdown();
+  @Override
+  public void onClientLeft(Client client) {
+	handledClients.remove(client.getId());
   }
 
   /**
-   * Manages recording clients and performs the specified action.
+   * A recording client might move from a bypassed channel into a forbidden one. Clients handled recently are skipped,
+   * since moving them triggers this event as well.
    */
-  private class RecordingManager implements Runnable {
-
-	private boolean cancelled;
-	private final int clientId;
-	private Client client;
-
-	/**
-	 * Constructs a new instance for the given clientId.
-	 */
-	private RecordingManager(int clientId) {
-	  this.clientId = clientId;
+  @Override
+  public void onClientMoved(ClientMovedEvent e) {
+	final Client client = snapshotService.getSnapshot().get(e.getClientId());
+	if (client != null && client.isRecording()
+			&& !isHandledSince(client.getId(), System.currentTimeMillis() - snapshotService.getReconcileInterval())) {
+	  checkClient(client, e.getTargetChannelId(), config.getSnapshot());
 	}
+  }
 
-	@Override
-	public void run() {
-	  if (cancelled) {
-		return;
-	  }
+  /** Handles clients as soon as the client list shows they started recording. */
+  @Override
+  public void onClientEdited(Client before, Client after) {
+	if (after.isRecording() && (before == null || !before.isRecording())) {
+	  checkClient(after, after.getChannelId(), config.getSnapshot());
+	}
+  }
 
-	  client = api.getClientInfo(clientId);
-	  if (!client.isRecording() || ignoredChannel.contains(client.getChannelId())) {
-		reschedule();
-		return;
+  @Override
+  public void onSnapshot(ClientSnapshot snapshot) {
+	final ConfigSnapshot settings = config.getSnapshot();
+	// Clients handled recently are most likely still shown in their previous channel.
+	final long handledSince = snapshot.getTimestamp() - snapshotService.getReconcileInterval();
+	for (Client client : snapshot.getClients()) {
+	  if (client.isRecording() && !isHandledSince(client.getId(), handledSince)) {
+		checkClient(client, client.getChannelId(), settings);
 	  }
+	}
+  }
 
-	  // Based on the action, the recording client will either be kicked or moved to the default channel.
-	  switch (config.get(ConfigNode.RECORDING_ACTION)) {
-		case "kick":
-		  api.kickClientFromServer(config.get(ConfigNode.RECORDING_KICK_MSG), client);
-		  logger.info("Kicked client " + client.getNickname() + " for recording in a forbidden channel.");
-		  break;
-		case "move":
-		  api.kickClientFromChannel(client);
-		  api.sendPrivateMessage(clientId, config.get(ConfigNode.RECORDING_MOVE_MSG));
-		  break;
-	  }
+  private boolean isHandledSince(int clientId, long since) {
+	final Long handledAt = handledClients.get(clientId);
+	return handledAt != null && handledAt >= since;
+  }
 
-	  reschedule();
+  /**
+   * Handles the recording client unless the channel or one of the client's server groups is bypassed.
+   */
+  private void checkClient(Client client, int channelId, ConfigSnapshot settings) {
+	if (settings.getRecordingBypassChannels().contains(channelId)
+			|| groupCache.isInAny(client, settings.getRecordingBypassGroups())) {
+	  return;
 	}
 
-	/**
-	 * Cancels the {@link RecordingChecker#executor}. This method is called from {@link RecordingChecker#onClientLeave}
-	 */
-	private void shutdown() {
-	  cancelled = true;
-	}
+	handledClients.put(client.getId(), System.currentTimeMillis());
+	handleRecording(client, settings);
+  }
 
-	/**
-	 * Reschedules the {@link RecordingChecker#executor}.
-	 */
-	private void reschedule() {
-	  executor.schedule(this, (config.getBoolean(ConfigNode.BOT_SLOWMODE) ? 5 : 1), TimeUnit.SECONDS);
+  /**
+   * Performs the specified action for a client that is recording in a forbidden channel.
+   */
+  private void handleRecording(Client client, ConfigSnapshot settings) {
+	// Based on the action, the recording client will either be kicked or moved to the default channel.
+	switch (settings.getRecordingAction()) {
+	  case "kick":
+		batcher.kickClientFromServer(getClass(), settings.getRecordingKickMessage(), client.getId())
+				.onSuccess(v -> {
+				  logger.info("Kicked client " + client.getNickname() + " for recording in a forbidden channel.");
+				  history.recordAction(client, "recording-kick", settings.getRecordingKickMessage());
+				})
+				.onFailure(ex -> logger.error("Could not kick recording client " + client.getNickname() + ".", ex));
+		break;
+	  case "move":
+		batcher.kickClientFromChannel(getClass(), null, client.getId())
+				.then(v -> {
+				  history.recordAction(client, "recording-move", settings.getRecordingMoveMessage());
+				  return dispatcher.submit(CommandPriority.NOTIFICATION, client.getId(), "sendtextmessage",
+						  api -> api.sendPrivateMessage(client.getId(), settings.getRecordingMoveMessage()));
+				})
+				.onFailure(ex -> logger.error("Could not move recording client " + client.getNickname() + ".", ex));
+		break;
 	}
   }
 }
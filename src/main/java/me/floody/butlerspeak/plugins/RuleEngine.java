@@ -0,0 +1,256 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.plugins;
+
+import com.github.theholywaffle.teamspeak3.api.event.ClientJoinEvent;
+import com.github.theholywaffle.teamspeak3.api.event.ClientLeaveEvent;
+import com.github.theholywaffle.teamspeak3.api.event.TS3EventAdapter;
+import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
+import me.floody.butlerspeak.ButlerSpeak;
+import me.floody.butlerspeak.config.ConfigNode;
+import me.floody.butlerspeak.config.Configuration;
+import me.floody.butlerspeak.history.ClientHistory;
+import me.floody.butlerspeak.query.ClientSnapshot;
+import me.floody.butlerspeak.query.ClientSnapshotListener;
+import me.floody.butlerspeak.query.ClientSnapshotService;
+import me.floody.butlerspeak.query.CommandBatcher;
+import me.floody.butlerspeak.query.CommandDispatcher;
+import me.floody.butlerspeak.query.CommandPriority;
+import me.floody.butlerspeak.query.ServerGroupCache;
+import me.floody.butlerspeak.rules.Rule;
+import me.floody.butlerspeak.rules.RuleSet;
+import me.floody.butlerspeak.utils.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Enforces the moderation rules configured in <code>ButlerSpeak.properties</code>.
+ * <p>
+ * All rules are evaluated in a single pass over every new {@link ClientSnapshot}, so additional rules neither add
+ * another loop nor further queries. A rule's action is performed once a client starts matching it, and again only
+ * after the client stopped matching it in between. Once a rule moved or kicked a client, the following rules are
+ * checked against the client's new state in the next pass.
+ * </p><p>
+ * Like the {@link AfkManager}, the engine only requests a snapshot at the earliest time a client might exceed an
+ * idle time. All other changes are observed by the periodic reconciliation of the {@link ClientSnapshotService}.
+ * </p><p>
+ * The rules can replace the afk, recording and badname plugins. If any of them is still enabled, it walks the
+ * client list on its own, thus a hint is logged.
+ * </p>
+ */
+public class RuleEngine extends TS3EventAdapter implements ClientSnapshotListener {
+
+  private final CommandDispatcher dispatcher;
+  private final CommandBatcher batcher;
+  private final Configuration config;
+  private final ServerGroupCache groupCache;
+  private final ClientSnapshotService snapshotService;
+  private final ClientHistory history;
+  /** The rules each client matched when evaluated last, as bitmask of the rules' indices within {@link #rules}. */
+  private final Map<Integer, Long> matchedRules;
+  private final Log logger;
+  private RuleSet rules;
+
+  /** Simply constructs a new instance. */
+  public RuleEngine(ButlerSpeak plugin) {
+	this.dispatcher = plugin.getDispatcher();
+	this.batcher = plugin.getCommandBatcher();
+	this.config = plugin.getConfig();
+	this.groupCache = plugin.getServerGroupCache();
+	this.snapshotService = plugin.getSnapshotService();
+	this.history = plugin.getClientHistory();
+	this.matchedRules = new HashMap<>();
+	this.logger = plugin.getAndSetLogger(this.getClass().getName());
+	this.rules = config.getSnapshot().getRules();
+
+	snapshotService.addListener(this);
+	// Changed rules need to be applied to all clients.
+	config.addReloadListener(settings -> snapshotService.requestRefresh(System.currentTimeMillis()));
+
+	for (String replaced : Arrays.asList("afk", "recording", "badname")) {
+	  if (config.getSnapshot().getBotPlugins().contains(replaced)) {
+		logger.info("Plugin " + replaced + " is enabled next to the rules. Consider expressing its policy as rule and "
+				+ "removing it from " + ConfigNode.BOT_PLUGINS.getKey() + ".");
+	  }
+	}
+  }
+
+  /** New clients are checked right away, using the state known from their join event. */
+  @Override
+  public synchronized void onClientJoin(ClientJoinEvent e) {
+	if (e.getClientType() != 0) {
+	  return;
+	}
+
+	final RuleSet settings = currentRules();
+	if (!settings.isEmpty()) {
+	  final RuleSet.Pass pass = settings.newPass(groupCache, System.currentTimeMillis());
+	  apply(ClientSnapshot.fromJoinEvent(e), pass);
+	  requestDeadline(pass);
+	}
+  }
+
+  @Override
+  public synchronized void onClientLeave(ClientLeaveEvent e) {
+	matchedRules.remove(e.getClientId());
+  }
+
+  @Override
+  public synchronized void onClientLeft(Client client) {
+	matchedRules.remove(client.getId());
+  }
+
+  @Override
+  public synchronized void onSnapshot(ClientSnapshot snapshot) {
+	final RuleSet settings = currentRules();
+	if (settings.isEmpty()) {
+	  return;
+	}
+
+	final RuleSet.Pass pass = settings.newPass(groupCache, snapshot.getTimestamp());
+	for (Client client : snapshot.getClients()) {
+	  apply(client, pass);
+	}
+
+	requestDeadline(pass);
+  }
+
+  /** Requests a snapshot once the first evaluated client might exceed a rule's idle time. */
+  private void requestDeadline(RuleSet.Pass pass) {
+	if (pass.getNextDeadline() != Long.MAX_VALUE) {
+	  snapshotService.requestRefresh(pass.getNextDeadline());
+	}
+  }
+
+  /**
+   * Returns the current rules. If they were reloaded, the matched rules of every client are mapped to the new rules
+   * by their names, so unchanged rules are not performed again.
+   */
+  private RuleSet currentRules() {
+	final RuleSet current = config.getSnapshot().getRules();
+	if (current == rules) {
+	  return current;
+	}
+
+	final int[] indices = new int[rules.size()];
+	for (int i = 0; i < indices.length; i++) {
+	  indices[i] = current.indexOf(rules.getRule(i).getName());
+	}
+
+	matchedRules.replaceAll((clientId, matched) -> {
+	  long remapped = 0;
+	  for (int i = 0; i < indices.length; i++) {
+		if ((matched & 1L << i) != 0 && indices[i] >= 0) {
+		  remapped |= 1L << indices[i];
+		}
+	  }
+
+	  return remapped;
+	});
+	this.rules = current;
+	return current;
+  }
+
+  /**
+   * Evaluates all rules for the client and performs the actions of the rules it started matching. After an
+   * enforcing action, the remaining rules are not marked as matched, so they are checked again in the next pass.
+   */
+  private void apply(Client client, RuleSet.Pass pass) {
+	final long matched = pass.evaluate(client);
+	final Long previous = matchedRules.get(client.getId());
+	long newlyMatched = matched & ~(previous == null ? 0 : previous);
+	long remembered = matched;
+	for (int i = 0; newlyMatched != 0; i++) {
+	  final long bit = 1L << i;
+	  if ((newlyMatched & bit) == 0) {
+		continue;
+	  }
+
+	  newlyMatched &= ~bit;
+	  final Rule rule = rules.getRule(i);
+	  perform(rule, client);
+	  if (rule.getAction().isEnforcing()) {
+		remembered &= ~newlyMatched;
+		break;
+	  }
+	}
+
+	if (remembered == 0) {
+	  matchedRules.remove(client.getId());
+	} else {
+	  matchedRules.put(client.getId(), remembered);
+	}
+  }
+
+  /**
+   * Performs the rule's action for the given client.
+   */
+  private void perform(Rule rule, Client client) {
+	final int clientId = client.getId();
+	final String message = rule.getMessage().render(
+			placeholder -> placeholder.equals("clientName") ? client.getNickname() : null);
+	final String action = "rule-" + rule.getName();
+	switch (rule.getAction()) {
+	  case MOVE:
+		if (client.getChannelId() == rule.getTargetChannel()) {
+		  // Clients already in the target channel are not moved, so they do not receive the message either.
+		  break;
+		}
+
+		batcher.moveClient(getClass(), clientId, rule.getTargetChannel())
+				.onSuccess(v -> {
+				  history.recordAction(client, action, message);
+				  if (!message.isEmpty()) {
+					dispatcher.submit(CommandPriority.NOTIFICATION, clientId, "sendtextmessage",
+							api -> api.sendPrivateMessage(clientId, message));
+				  }
+				})
+				.onFailure(ex -> logger.error("Could not move client " + client.getNickname() + " by rule " + rule
+						+ ".", ex));
+		break;
+	  case KICK:
+		batcher.kickClientFromServer(getClass(), message, clientId)
+				.onSuccess(v -> {
+				  logger.info("Kicked client " + client.getNickname() + " (" + clientId + ") by rule " + rule + ".");
+				  history.recordAction(client, action, message);
+				})
+				.onFailure(ex -> logger.error("Could not kick client " + client.getNickname() + " by rule " + rule
+						+ ".", ex));
+		break;
+	  case CHANNEL_KICK:
+		batcher.kickClientFromChannel(getClass(), message.isEmpty() ? null : message, clientId)
+				.onSuccess(v -> history.recordAction(client, action, message))
+				.onFailure(ex -> logger.error("Could not kick client " + client.getNickname() + " from its channel by "
+						+ "rule " + rule + ".", ex));
+		break;
+	  case POKE:
+		dispatcher.submit(CommandPriority.NOTIFICATION, clientId, "clientpoke",
+				api -> api.pokeClient(clientId, message))
+				.onSuccess(v -> history.recordAction(client, action, message));
+		break;
+	  case MESSAGE:
+		dispatcher.submit(CommandPriority.NOTIFICATION, clientId, "sendtextmessage",
+				api -> api.sendPrivateMessage(clientId, message))
+				.onSuccess(v -> history.recordAction(client, action, message));
+		break;
+	}
+  }
+}
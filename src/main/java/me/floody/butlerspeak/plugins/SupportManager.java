@@ -18,81 +18,170 @@
 
 package me.floody.butlerspeak.plugins;
 
-import com.github.theholywaffle.teamspeak3.TS3Api;
 import com.github.theholywaffle.teamspeak3.api.ChannelProperty;
+import com.github.theholywaffle.teamspeak3.api.event.ClientJoinEvent;
+import com.github.theholywaffle.teamspeak3.api.event.ClientLeaveEvent;
 import com.github.theholywaffle.teamspeak3.api.event.ClientMovedEvent;
 import com.github.theholywaffle.teamspeak3.api.event.TS3EventAdapter;
-import com.github.theholywaffle.teamspeak3.api.exception.TS3CommandFailedException;
 import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
 import me.floody.butlerspeak.ButlerSpeak;
-import me.floody.butlerspeak.config.ConfigNode;
+import me.floody.butlerspeak.config.ConfigSnapshot;
 import me.floody.butlerspeak.config.Configuration;
-
-import java.text.SimpleDateFormat;
+import me.floody.butlerspeak.query.ClientSnapshot;
+import me.floody.butlerspeak.query.ClientSnapshotListener;
+import me.floody.butlerspeak.query.ClientSnapshotService;
+import me.floody.butlerspeak.query.CommandDispatcher;
+import me.floody.butlerspeak.query.CommandPriority;
+import me.floody.butlerspeak.query.ServerGroupCache;
+import me.floody.butlerspeak.utils.Log;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.stream.IntStream;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Notifies clients in specified groups that support is requested.
+ * <p>
+ * The online clients in the notified groups are kept in an index, which is updated by join and leave events and by
+ * the changes between client snapshots. A support request thus never has to query the server's clients.
+ * </p>
  */
-public class SupportManager extends TS3EventAdapter {
+public class SupportManager extends TS3EventAdapter implements ClientSnapshotListener {
 
-  private final TS3Api api;
+  private final CommandDispatcher dispatcher;
   private final Configuration config;
-  private final int queryId;
+  private final ServerGroupCache groupCache;
+  private final ClientSnapshotService snapshotService;
+  private final Map<Integer, Client> supporters;
+  private final Log logger;
+  private static final DateTimeFormatter CHANNEL_DATE = DateTimeFormatter.ofPattern("HH:mm");
 
   /**
    * Simply constructs a new instance.
+   * <p>
+   * The index of supporters is filled by the first snapshot, in which every client is reported as changed.
+   * </p>
    */
   public SupportManager(ButlerSpeak plugin) {
-	this.api = plugin.getApi();
+	this.dispatcher = plugin.getDispatcher();
 	this.config = plugin.getConfig();
-	this.queryId = plugin.getClientId();
+	this.groupCache = plugin.getServerGroupCache();
+	this.snapshotService = plugin.getSnapshotService();
+	this.supporters = new ConcurrentHashMap<>();
+	this.logger = plugin.getAndSetLogger(this.getClass().getName());
+
+	// The notified groups might have changed, so rebuild the index from the latest snapshot.
+	config.addReloadListener(settings -> {
+	  supporters.clear();
+	  snapshotService.getSnapshot().getClients().forEach(client -> updateSupporter(client, settings));
+	});
+	snapshotService.addListener(this);
+  }
+
+  @Override
+  public void onClientJoin(ClientJoinEvent e) {
+	if (e.getClientType() == 0) {
+	  updateSupporter(ClientSnapshot.fromJoinEvent(e), config.getSnapshot());
+	}
+  }
+
+  @Override
+  public void onClientLeave(ClientLeaveEvent e) {
+	supporters.remove(e.getClientId());
+  }
+
+  @Override
+  public void onClientEdited(Client before, Client after) {
+	updateSupporter(after, config.getSnapshot());
+  }
+
+  @Override
+  public void onClientLeft(Client client) {
+	supporters.remove(client.getId());
+  }
+
+  /** Changed server groups are reported via {@link #onClientEdited(Client, Client)}. */
+  @Override
+  public void onSnapshot(ClientSnapshot snapshot) {
   }
 
   @Override
   public void onClientMoved(ClientMovedEvent e) {
-	int supportChannel = config.getInt(ConfigNode.SUPPORT_CHANNEL);
+	final ConfigSnapshot settings = config.getSnapshot();
+	int supportChannel = settings.getSupportChannel();
 	if (e.getTargetChannelId() != supportChannel) {
 	  return;
 	}
 
-	int clientId = e.getClientId();
-	final Client client;
-	try {
-	  client = api.getClientInfo(clientId);
-	} catch (TS3CommandFailedException ex) {
+	final int clientId = e.getClientId();
+	if (supporters.containsKey(clientId)) {
 	  return;
 	}
 
-	List<Integer> notifyGroups = config.getIntegerList(ConfigNode.SUPPORT_NOTIFY_GROUPS);
-	if (IntStream.of(client.getServerGroups()).anyMatch(notifyGroups::contains)) {
+	final Client client = snapshotService.getClient(clientId);
+	if (client != null) {
+	  requestSupport(client, settings);
 	  return;
 	}
 
-	final List<Client> notifiedClients = new ArrayList<>();
-	api.getClients().forEach(c -> {
-	  if (IntStream.of(c.getServerGroups()).anyMatch(notifyGroups::contains)) {
-		notifiedClients.add(c);
+	// The client is not known yet, so ask the server. If the request fails, the client's a query, so do nothing.
+	dispatcher.submit(CommandPriority.NOTIFICATION, clientId, "clientinfo",
+			api -> api.getClientInfo(clientId)).onSuccess(info -> {
+	  if (!settings.getSupportNotifyGroups().containsAny(info.getServerGroups())) {
+		requestSupport(info, settings);
 	  }
 	});
+  }
+
+  /**
+   * Adds the client to the index of supporters if it is in one of the notified groups, otherwise removes it.
+   *
+   * @param client
+   * 		The client to check
+   * @param settings
+   * 		The configuration to use
+   */
+  private void updateSupporter(Client client, ConfigSnapshot settings) {
+	if (groupCache.isInAny(client, settings.getSupportNotifyGroups())) {
+	  supporters.put(client.getId(), client);
+	} else {
+	  supporters.remove(client.getId());
+	}
+  }
+
+  /**
+   * Notifies all online clients in the specified groups that the given client requested support.
+   *
+   * @param client
+   * 		The client who requested support
+   * @param settings
+   * 		The configuration to use
+   */
+  private void requestSupport(Client client, ConfigSnapshot settings) {
+	final int clientId = client.getId();
+	final List<Client> notifiedClients = new ArrayList<>(supporters.values());
 
 	if (notifiedClients.size() < 1) {
-	  api.sendPrivateMessage(client.getId(), config.get(ConfigNode.SUPPORT_NOTIFY_FAIL));
+	  dispatcher.submit(CommandPriority.NOTIFICATION, clientId, "sendtextmessage",
+			  api -> api.sendPrivateMessage(clientId, settings.getSupportNotifyFail()));
 	  return;
 	}
 
-	if (config.getBoolean(ConfigNode.SUPPORT_CREATE_CHANNEL)) {
-	  createChannel(supportChannel, client);
+	if (settings.isSupportCreateChannel()) {
+	  createChannel(settings.getSupportChannel(), client, settings);
 	}
 
 	// Notify all clients who should be notified when a client requests help.
-	notifiedClients.forEach(c -> api.pokeClient(c.getId(),
-			config.get(ConfigNode.SUPPORT_NOTIFY_MESSAGE).replaceAll("%clientName%",
-					"[URL=" + client.getClientURI() + "]" + client.getNickname() + "[/URL]")));
+	final String clientLink = "[URL=" + client.getClientURI() + "]" + client.getNickname() + "[/URL]";
+	final String notifyMessage = settings.getSupportNotifyMessage().render(
+			placeholder -> placeholder.equals("clientName") ? clientLink : null);
+	notifiedClients.forEach(c -> dispatcher.submit(CommandPriority.NOTIFICATION, c.getId(), "clientpoke",
+			api -> api.pokeClient(c.getId(), notifyMessage)));
 
 	// Finally, notify the client who requested help.
-	api.sendPrivateMessage(clientId, config.get(ConfigNode.SUPPORT_MESSAGE));
+	dispatcher.submit(CommandPriority.NOTIFICATION, clientId, "sendtextmessage",
+			api -> api.sendPrivateMessage(clientId, settings.getSupportMessage()));
   }
 
   /**
@@ -103,24 +192,44 @@ public class SupportManager extends TS3EventAdapter {
    * 		The channelId of the support channel
    * @param client
    * 		The client who requested support
+   * @param settings
+   * 		The configuration to use
    */
-  private void createChannel(int parentId, Client client) {
+  private void createChannel(int parentId, Client client, ConfigSnapshot settings) {
 	final Map<ChannelProperty, String> channelProperties = new HashMap<>();
 	channelProperties.put(ChannelProperty.CHANNEL_FLAG_PERMANENT, "0");
 	channelProperties.put(ChannelProperty.CHANNEL_FLAG_MAXCLIENTS_UNLIMITED, "1");
 	channelProperties.put(ChannelProperty.CPID, String.valueOf(parentId));
 
-	SimpleDateFormat formattedDate = new SimpleDateFormat();
-	formattedDate.applyPattern("HH:mm");
-	String channelName = config.get(ConfigNode.SUPPORT_CHANNEL_NAME)
-			.replaceAll("%clientName%", client.getNickname())
-			.replaceAll("%date%", formattedDate.format(new Date()));
-
-	// Create the channel with the desired name and save it's id.
-	int createdChannel = api.createChannel(channelName, channelProperties);
+	final String channelName = settings.getSupportChannelName().render(placeholder -> {
+	  switch (placeholder) {
+		case "clientName":
+		  return client.getNickname();
+		case "date":
+		  return CHANNEL_DATE.format(LocalTime.now());
+		default:
+		  return null;
+	  }
+	});
 
-	// Finally, move the client to the channel and move the query back to the default channel.
-	api.moveClient(client.getId(), createdChannel);
-	api.moveClient(queryId, config.getInt(ConfigNode.BOT_CHANNEL));
+	// Create the channel with the desired name, then move the client to the channel and finally move the query back
+	// to the default channel.
+	// All commands are sent through the same connection, since the query creating the channel is moved into it. They
+	// are never dropped, otherwise the query might stay in the support channel.
+	final int clientId = client.getId();
+	final int queryId = dispatcher.getClientId(clientId);
+	dispatcher.submit(CommandPriority.ENFORCEMENT, clientId, "channelcreate",
+			api -> api.createChannel(channelName, channelProperties))
+			.onSuccess(createdChannel -> {
+			  dispatcher.submit(CommandPriority.ENFORCEMENT, clientId, "clientmove",
+					  api -> api.moveClient(clientId, createdChannel))
+					  .onFailure(ex -> logger.error("Could not move " + client.getNickname()
+							  + " to the support channel.", ex));
+			  // Queued right after the move, so the query leaves the channel even if the client could not be moved.
+			  dispatcher.submit(CommandPriority.ENFORCEMENT, clientId, "clientmove",
+					  api -> api.moveClient(queryId, settings.getBotChannel()))
+					  .onFailure(ex -> logger.error("Could not move the query back to its channel.", ex));
+			})
+			.onFailure(ex -> logger.error("Could not create a support channel for " + client.getNickname() + ".", ex));
   }
 }
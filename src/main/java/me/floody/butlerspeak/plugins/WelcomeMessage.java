@@ -18,15 +18,21 @@
 
 package me.floody.butlerspeak.plugins;
 
-import com.github.theholywaffle.teamspeak3.TS3Api;
 import com.github.theholywaffle.teamspeak3.api.event.ClientJoinEvent;
 import com.github.theholywaffle.teamspeak3.api.event.TS3EventAdapter;
-import com.github.theholywaffle.teamspeak3.api.exception.TS3CommandFailedException;
-import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
 import com.github.theholywaffle.teamspeak3.api.wrapper.ClientInfo;
 import me.floody.butlerspeak.ButlerSpeak;
-import me.floody.butlerspeak.config.ConfigNode;
+import me.floody.butlerspeak.config.ConfigSnapshot;
 import me.floody.butlerspeak.config.Configuration;
+import me.floody.butlerspeak.history.ClientHistory;
+import me.floody.butlerspeak.history.ClientRecord;
+import me.floody.butlerspeak.query.CommandDispatcher;
+import me.floody.butlerspeak.query.CommandPriority;
+import me.floody.butlerspeak.utils.Log;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 /**
  * Sends a message to clients connecting to the TeamSpeak3 server.
@@ -37,57 +43,91 @@ import me.floody.butlerspeak.config.Configuration;
  */
 public class WelcomeMessage extends TS3EventAdapter {
 
-  private final TS3Api api;
+  private final CommandDispatcher dispatcher;
   private final Configuration config;
+  private final ClientHistory history;
+  private final Log logger;
+  private static final DateTimeFormatter SEEN_DATE = DateTimeFormatter.ofPattern("dd-MMM-yyyy, HH:mm")
+		  .withZone(ZoneId.systemDefault());
 
   /** Simply constructs a new instance. */
   public WelcomeMessage(ButlerSpeak plugin) {
-	this.api = plugin.getApi();
+	this.dispatcher = plugin.getDispatcher();
 	this.config = plugin.getConfig();
+	this.history = plugin.getClientHistory();
+	this.logger = plugin.getAndSetLogger(this.getClass().getName());
   }
 
   @Override
   public void onClientJoin(ClientJoinEvent e) {
+	if (e.getClientType() != 0) {
+	  return;
+	}
+
+	// The join event contains every property except the client's IP, the connections are taken from the history. So
+	// only query the client if the IP is needed.
 	final int clientId = e.getClientId();
-	final Client client;
-	try {
-	  client = api.getClientInfo(clientId);
-	} catch (TS3CommandFailedException ex) {
-	  // The task failed because the client's a query, so do nothing.
+	if (!config.getSnapshot().getWelcomeMessage().uses("clientIP")) {
+	  welcome(new ClientInfo(clientId, e.getMap()));
 	  return;
 	}
 
-	final ClientInfo clientInfo = api.getClientInfo(clientId);
-	final int configConnections = config.getInt(ConfigNode.WELCOME_CONNECTIONS);
+	// If the request fails, the client already left, so do nothing.
+	dispatcher.submit(CommandPriority.NOTIFICATION, clientId, "clientinfo", api -> api.getClientInfo(clientId))
+			.onSuccess(this::welcome);
+  }
+
+  /**
+   * Sends the welcome message to the client if the configuration allows it.
+   */
+  private void welcome(ClientInfo client) {
+	final ConfigSnapshot settings = config.getSnapshot();
+	final int configConnections = settings.getWelcomeConnections();
+	// The client's join was already recorded, so its record is only missing if the history is not consistent.
+	final ClientRecord record = history.get(client.getUniqueIdentifier());
+	final int connections = record == null ? 1 : record.getConnections();
 	// Checks whether the client exceeded the amount of connections needed to receive the
 	// welcome message if and only if not all clients should receive it.
-	if (configConnections != -1 && clientInfo.getTotalConnections() > configConnections) {
+	if (configConnections != -1 && connections > configConnections) {
 	  return;
 	}
 
-	final int[] configGroups = config.getIntArray(ConfigNode.WELCOME_GROUPS);
-	if (configGroups[0] != -1) {
-	  // If and only if groups should be excluded from receiving welcome messages, check
-	  // whether the client is in any of these groups.
-	  for (int configGroup : configGroups) {
-		if (client.isInServerGroup(configGroup)) {
-		  // If the client is in a server group which is excluded from receiving welcome
-		  // messages, do nothing.
-		  return;
-		}
-	  }
+	// If and only if groups should be excluded from receiving welcome messages, check
+	// whether the client is in any of these groups.
+	if (settings.getWelcomeGroups().containsAny(client.getServerGroups())) {
+	  // If the client is in a server group which is excluded from receiving welcome
+	  // messages, do nothing.
+	  return;
 	}
 
 	// Replace all provided placeholders with the corresponding value.
-	String message = config.get(ConfigNode.WELCOME_MESSAGE)
-			.replaceAll("%clientName%", client.getNickname())
-			.replaceAll("%clientIP%", client.getIp())
-			.replaceAll("%clientCountry%", client.getCountry())
-			.replaceAll("%totalConnections%",
-					String.valueOf(clientInfo.getTotalConnections()))
-			.replaceAll("%lastConnection%", client.getLastConnectedDate().toString());
+	final String message = settings.getWelcomeMessage().render(placeholder -> {
+	  switch (placeholder) {
+		case "clientName":
+		  return client.getNickname();
+		case "clientIP":
+		  return client.getIp();
+		case "clientCountry":
+		  return client.getCountry();
+		case "totalConnections":
+		  return connections;
+		case "lastConnection":
+		  return record == null || record.getPreviousJoin() == 0 ? "never"
+				  : SEEN_DATE.format(Instant.ofEpochMilli(record.getPreviousJoin()));
+		case "firstSeen":
+		  return record == null ? null : SEEN_DATE.format(Instant.ofEpochMilli(record.getFirstSeen()));
+		case "lastSeen":
+		  return record == null || record.getLastLeave() == 0 ? "never"
+				  : SEEN_DATE.format(Instant.ofEpochMilli(record.getLastLeave()));
+		default:
+		  return null;
+	  }
+	});
 
 	// Finally, send the welcome message to the client.
-	api.sendPrivateMessage(e.getClientId(), message);
+	final int clientId = client.getId();
+	dispatcher.submit(CommandPriority.NOTIFICATION, clientId, "sendtextmessage",
+			api -> api.sendPrivateMessage(clientId, message))
+			.onFailure(ex -> logger.error("Could not send the welcome message to " + client.getNickname() + ".", ex));
   }
 }
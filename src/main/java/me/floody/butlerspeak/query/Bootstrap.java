@@ -0,0 +1,94 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.query;
+
+import com.github.theholywaffle.teamspeak3.api.CommandFuture;
+import com.github.theholywaffle.teamspeak3.api.exception.TS3Exception;
+import com.github.theholywaffle.teamspeak3.api.wrapper.Channel;
+import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
+import com.github.theholywaffle.teamspeak3.api.wrapper.ServerGroup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The server's state retrieved once in bulk when starting the bot.
+ * <p>
+ * Clients, channels and server groups are requested at the same time, so plugins can initialize from this data
+ * instead of querying every client or channel on their own.
+ * </p>
+ */
+public final class Bootstrap {
+
+  /** Maximum time to wait for the server's state, in seconds. */
+  private static final long TIMEOUT = 30;
+
+  private final ClientSnapshot clients;
+  private final List<Channel> channels;
+  private final List<ServerGroup> serverGroups;
+
+  private Bootstrap(ClientSnapshot clients, List<Channel> channels, List<ServerGroup> serverGroups) {
+	this.clients = clients;
+	this.channels = Collections.unmodifiableList(channels);
+	this.serverGroups = Collections.unmodifiableList(serverGroups);
+  }
+
+  /**
+   * Retrieves the server's state and waits until all of it was received.
+   *
+   * @throws TS3Exception
+   * 		if any of the lists could not be retrieved in time
+   */
+  public static Bootstrap fetch(CommandDispatcher dispatcher) {
+	final CommandFuture<List<Client>> clients = dispatcher.submit(CommandPriority.ENFORCEMENT, "clientlist",
+			api -> api.getClients());
+	final CommandFuture<List<Channel>> channels = dispatcher.submit(CommandPriority.ENFORCEMENT, "channellist",
+			api -> api.getChannels());
+	final CommandFuture<List<ServerGroup>> serverGroups = dispatcher.submit(CommandPriority.ENFORCEMENT,
+			"servergrouplist", api -> api.getServerGroups());
+
+	return new Bootstrap(new ClientSnapshot(System.currentTimeMillis(), await(clients)), await(channels),
+			await(serverGroups));
+  }
+
+  private static <T> T await(CommandFuture<T> future) {
+	try {
+	  return future.getUninterruptibly(TIMEOUT, TimeUnit.SECONDS);
+	} catch (TimeoutException ex) {
+	  throw new TS3Exception("The server did not respond within " + TIMEOUT + " seconds.", ex);
+	}
+  }
+
+  /** Returns all clients connected when starting the bot. */
+  public ClientSnapshot getClients() {
+	return clients;
+  }
+
+  /** Returns all channels. */
+  public List<Channel> getChannels() {
+	return channels;
+  }
+
+  /** Returns all server groups. */
+  public List<ServerGroup> getServerGroups() {
+	return serverGroups;
+  }
+}
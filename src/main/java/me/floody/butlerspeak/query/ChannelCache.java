@@ -0,0 +1,177 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.query;
+
+import com.github.theholywaffle.teamspeak3.api.event.*;
+import com.github.theholywaffle.teamspeak3.api.wrapper.Channel;
+import me.floody.butlerspeak.utils.Log;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the server's channel tree in memory.
+ * <p>
+ * The tree is loaded once when starting the bot and kept current from the channel events, thus plugins never need to
+ * query a channel. Edit events only contain the changed properties, which are merged into the known channel. After
+ * the event connection was re-established, the tree is loaded again since events might have been missed.
+ * </p><p>
+ * Listeners added via {@link #addNameListener(Consumer)} are called with every channel that was created or renamed.
+ * </p>
+ */
+public class ChannelCache extends TS3EventAdapter {
+
+  /** Properties of events which describe the invoker rather than the channel. */
+  private static final Set<String> EVENT_PROPERTIES = new HashSet<>(Arrays.asList("invokerid", "invokername",
+		  "invokeruid", "reasonid", "reasonmsg"));
+
+  private final Map<Integer, Channel> channels;
+  private final List<Consumer<Channel>> nameListeners;
+  private final CommandDispatcher dispatcher;
+  private final Log logger;
+
+  /**
+   * Constructs a new instance with the given channels, usually retrieved by the {@link Bootstrap}.
+   */
+  public ChannelCache(List<Channel> channels, CommandDispatcher dispatcher, Log logger) {
+	this.channels = new ConcurrentHashMap<>();
+	this.nameListeners = new CopyOnWriteArrayList<>();
+	this.dispatcher = dispatcher;
+	this.logger = logger;
+	channels.forEach(channel -> this.channels.put(channel.getId(), channel));
+  }
+
+  /** Adds a listener which will be called with every channel that was created or renamed. */
+  public void addNameListener(Consumer<Channel> listener) {
+	nameListeners.add(listener);
+  }
+
+  /** Returns the channel with the given id, or {@code null} if it does not exist. */
+  public Channel getChannel(int channelId) {
+	return channels.get(channelId);
+  }
+
+  /** Returns all channels in no particular order. */
+  public Collection<Channel> getChannels() {
+	return Collections.unmodifiableCollection(channels.values());
+  }
+
+  /** Returns the direct sub-channels of the given channel, or the top level channels for {@code 0}. */
+  public List<Channel> getChildren(int channelId) {
+	final List<Channel> children = new ArrayList<>();
+	for (Channel channel : channels.values()) {
+	  if (channel.getParentChannelId() == channelId) {
+		children.add(channel);
+	  }
+	}
+
+	return children;
+  }
+
+  /**
+   * Loads the channel tree again, e.g. after the event connection was re-established. Channels that were created or
+   * renamed in the meantime are passed to the listeners.
+   */
+  public void reload() {
+	dispatcher.submit(CommandPriority.ENFORCEMENT, "channellist", api -> api.getChannels())
+			.onSuccess(this::replace)
+			.onFailure(ex -> logger.error("Could not retrieve the channel list.", ex));
+  }
+
+  @Override
+  public void onChannelCreate(ChannelCreateEvent e) {
+	final Map<String, String> properties = properties(e.getMap());
+	// Created channels name their parent "cpid", listed channels "pid".
+	properties.put("pid", e.getMap().get("cpid"));
+	final Channel channel = new Channel(properties);
+	channels.put(channel.getId(), channel);
+	notifyNameListeners(channel);
+  }
+
+  @Override
+  public void onChannelEdit(ChannelEditedEvent e) {
+	final Channel channel = merge(e.getChannelId(), properties(e.getMap()));
+	if (channel != null && e.getMap().containsKey("channel_name")) {
+	  notifyNameListeners(channel);
+	}
+  }
+
+  @Override
+  public void onChannelMoved(ChannelMovedEvent e) {
+	final Map<String, String> properties = new HashMap<>();
+	properties.put("pid", Integer.toString(e.getChannelParentId()));
+	properties.put("channel_order", Integer.toString(e.getChannelOrder()));
+	merge(e.getChannelId(), properties);
+  }
+
+  /** Deleting a channel deletes its sub-channels as well. */
+  @Override
+  public void onChannelDeleted(ChannelDeletedEvent e) {
+	final Deque<Integer> deleted = new ArrayDeque<>();
+	deleted.add(e.getChannelId());
+	while (!deleted.isEmpty()) {
+	  final int channelId = deleted.poll();
+	  channels.remove(channelId);
+	  getChildren(channelId).forEach(child -> deleted.add(child.getId()));
+	}
+  }
+
+  /** Replaces the channel tree and notifies the listeners about created or renamed channels. */
+  private void replace(List<Channel> current) {
+	final Set<Integer> channelIds = new HashSet<>();
+	for (Channel channel : current) {
+	  channelIds.add(channel.getId());
+	  final Channel previous = channels.put(channel.getId(), channel);
+	  if (previous == null || !previous.getName().equals(channel.getName())) {
+		notifyNameListeners(channel);
+	  }
+	}
+
+	channels.keySet().retainAll(channelIds);
+  }
+
+  /** Applies the changed properties to the known channel. Returns the updated channel, or {@code null} if unknown. */
+  private Channel merge(int channelId, Map<String, String> changed) {
+	return channels.computeIfPresent(channelId, (id, channel) -> {
+	  final Map<String, String> properties = new HashMap<>(channel.getMap());
+	  properties.putAll(changed);
+	  return new Channel(properties);
+	});
+  }
+
+  private static Map<String, String> properties(Map<String, String> event) {
+	final Map<String, String> properties = new HashMap<>(event);
+	properties.keySet().removeAll(EVENT_PROPERTIES);
+	return properties;
+  }
+
+  private void notifyNameListeners(Channel channel) {
+	for (Consumer<Channel> listener : nameListeners) {
+	  // A failing listener should neither affect other listeners nor the cache.
+	  try {
+		listener.accept(channel);
+	  } catch (RuntimeException ex) {
+		logger.error("Listener " + listener.getClass().getName() + " failed to handle channel " + channel.getId()
+				+ ".", ex);
+	  }
+	}
+  }
+}
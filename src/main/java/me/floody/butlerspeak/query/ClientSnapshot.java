@@ -0,0 +1,97 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.query;
+
+import com.github.theholywaffle.teamspeak3.api.event.ClientJoinEvent;
+import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
+
+import java.util.*;
+
+/**
+ * Immutable view of all clients connected to the server at a certain point in time.
+ * <p>
+ * The clients are indexed by their client id. Query clients are never part of a snapshot.
+ * </p>
+ */
+public final class ClientSnapshot {
+
+  /** A snapshot without any clients, used until the first snapshot was taken. */
+  public static final ClientSnapshot EMPTY = new ClientSnapshot(0L, Collections.emptyList());
+
+  private final long timestamp;
+  private final Map<Integer, Client> clients;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param timestamp
+   * 		the time the client list was received, in milliseconds
+   * @param clients
+   * 		the client list as returned by the server
+   */
+  public ClientSnapshot(long timestamp, List<Client> clients) {
+	this.timestamp = timestamp;
+
+	final Map<Integer, Client> indexed = new LinkedHashMap<>(clients.size() * 2);
+	for (Client client : clients) {
+	  if (client.isServerQueryClient()) {
+		continue;
+	  }
+
+	  indexed.put(client.getId(), client);
+	}
+	this.clients = Collections.unmodifiableMap(indexed);
+  }
+
+  /** Returns the time this snapshot was taken, in milliseconds. */
+  public long getTimestamp() {
+	return timestamp;
+  }
+
+  /** Returns the client with the given id or {@code null} if the client was not connected. */
+  public Client get(int clientId) {
+	return clients.get(clientId);
+  }
+
+  /** Returns whether the client with the given id was connected. */
+  public boolean contains(int clientId) {
+	return clients.containsKey(clientId);
+  }
+
+  /** Returns all connected clients. */
+  public Collection<Client> getClients() {
+	return clients.values();
+  }
+
+  /**
+   * Creates a client from the join event, so that joined clients can be handled like clients of a snapshot before
+   * they are part of one.
+   */
+  public static Client fromJoinEvent(ClientJoinEvent e) {
+	final Map<String, String> properties = new HashMap<>(e.getMap());
+	// The join event names the channel the client joined to differently.
+	properties.put("cid", String.valueOf(e.getClientTargetId()));
+	return new Client(properties);
+  }
+
+  /** Returns the amount of connected clients. */
+  public int size() {
+	return clients.size();
+  }
+}
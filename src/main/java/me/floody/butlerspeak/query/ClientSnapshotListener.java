@@ -0,0 +1,64 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.query;
+
+import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
+
+/**
+ * Receives every new {@link ClientSnapshot} taken by the {@link ClientSnapshotService}.
+ */
+public interface ClientSnapshotListener {
+
+  /**
+   * Called with every new snapshot, no matter which listener requested it.
+   * <p>
+   * All listeners receive the same instance, thus it must not be modified.
+   * </p>
+   */
+  void onSnapshot(ClientSnapshot snapshot);
+
+  /**
+   * Called for every client whose nickname, server groups or recording flag changed since it was seen last, before
+   * {@link #onSnapshot(ClientSnapshot)} is called.
+   * <p>
+   * Clients that joined are known from their {@link com.github.theholywaffle.teamspeak3.api.event.ClientJoinEvent},
+   * thus they are only reported if they changed afterwards. If a client was not known at all, e.g. on the first
+   * snapshot, <code>before</code> is {@code null}.
+   * </p>
+   *
+   * @param before
+   * 		the client as seen last, or {@code null}
+   * @param after
+   * 		the client as seen in the new snapshot
+   */
+  default void onClientEdited(Client before, Client after) {
+  }
+
+  /**
+   * Called for every client that was seen last but is not part of the new snapshot anymore, before
+   * {@link #onSnapshot(ClientSnapshot)} is called.
+   * <p>
+   * Usually, the client's {@link com.github.theholywaffle.teamspeak3.api.event.ClientLeaveEvent} was received
+   * before. However, leave events are missed while the connection is down, thus state kept per client should be
+   * removed here as well.
+   * </p>
+   */
+  default void onClientLeft(Client client) {
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.query;
+
+import com.github.theholywaffle.teamspeak3.api.event.ClientJoinEvent;
+import com.github.theholywaffle.teamspeak3.api.event.ClientLeaveEvent;
+import com.github.theholywaffle.teamspeak3.api.event.TS3EventAdapter;
+import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
+import me.floody.butlerspeak.ButlerSpeak;
+import me.floody.butlerspeak.config.ConfigSnapshot;
+import me.floody.butlerspeak.scheduler.ScheduledTask;
+import me.floody.butlerspeak.scheduler.Scheduler;
+import me.floody.butlerspeak.utils.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Fetches the list of all connected clients on demand and shares it with all plugins.
+ * <p>
+ * Instead of querying every client on its own, a single <code>clientlist</code> command (including times, groups,
+ * voice and info flags) is sent whenever a refresh is due. Thus, the amount of queries stays the same no matter how
+ * many clients are connected or how many plugins are enabled.
+ * </p><p>
+ * Listeners request the next refresh via {@link #requestRefresh(long)} at the time they actually need new data, e.g.
+ * when a client might exceed a threshold. Requests are coalesced, so only the earliest pending one is scheduled and
+ * every listener receives the resulting snapshot.
+ * </p><p>
+ * Changes the server does not notify about, such as renames, are observed by a single reconciliation the service
+ * schedules itself every <code>bot.reconcile-interval</code> seconds. Listeners must not request refreshes just to
+ * keep snapshots coming.
+ * </p><p>
+ * Since the server does not notify about changed clients, every new snapshot is compared against the clients seen
+ * last and the changes are passed to {@link ClientSnapshotListener#onClientEdited(Client, Client)}. Clients that
+ * joined in between are taken from their join event, so they are not reported as changed twice.
+ * </p>
+ */
+public class ClientSnapshotService extends TS3EventAdapter implements Runnable {
+
+  private final CommandDispatcher dispatcher;
+  private final Supplier<ConfigSnapshot> settings;
+  private final Scheduler scheduler;
+  private final List<ClientSnapshotListener> listeners;
+  private final Log logger;
+  private final AtomicBoolean inFlight;
+  private final Map<Integer, Client> joinedClients;
+  private volatile ClientSnapshot snapshot = ClientSnapshot.EMPTY;
+  private ScheduledTask task;
+  private long nextRefresh = Long.MAX_VALUE;
+  private boolean refreshAgain;
+
+  /** Simply constructs a new instance. The service needs to be started by calling {@link #start()}. */
+  public ClientSnapshotService(ButlerSpeak plugin) {
+	this(plugin.getDispatcher(), plugin.getConfig()::getSnapshot, plugin.getScheduler(),
+			plugin.getAndSetLogger(ClientSnapshotService.class.getName()));
+  }
+
+  /** Constructs a new instance reading the reconcile interval from the given settings. */
+  ClientSnapshotService(CommandDispatcher dispatcher, Supplier<ConfigSnapshot> settings, Scheduler scheduler,
+						Log logger) {
+	this.dispatcher = dispatcher;
+	this.settings = settings;
+	this.scheduler = scheduler;
+	this.listeners = new CopyOnWriteArrayList<>();
+	this.logger = logger;
+	this.inFlight = new AtomicBoolean();
+	this.joinedClients = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Publishes the snapshot taken when starting the bot. Further snapshots are taken once requested by the listeners.
+   */
+  public void start(ClientSnapshot initial) {
+	inFlight.set(true);
+	scheduler.execute(() -> publish(initial));
+  }
+
+  /**
+   * Requests a new snapshot at the given time. If an earlier refresh is already pending, the request is covered by
+   * it and nothing changes.
+   *
+   * @param atMillis
+   * 		the time at which the snapshot is needed, in milliseconds since the epoch
+   */
+  public synchronized void requestRefresh(long atMillis) {
+	if (task != null && nextRefresh <= atMillis) {
+	  return;
+	}
+
+	if (task != null) {
+	  task.cancel();
+	}
+
+	this.nextRefresh = atMillis;
+	this.task = scheduler.schedule(this, Math.max(0, atMillis - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+  }
+
+  /** Returns the interval in milliseconds in which the service takes a new snapshot at the latest. */
+  public long getReconcileInterval() {
+	return TimeUnit.SECONDS.toMillis(settings.get().getBotReconcileInterval());
+  }
+
+  /**
+   * Resynchronizes the state after the event connection was re-established. Events received before the connection
+   * was lost are outdated, thus the next snapshot is compared against the last snapshot only.
+   */
+  public void resync() {
+	joinedClients.clear();
+	requestRefresh(System.currentTimeMillis());
+  }
+
+  @Override
+  public void onClientJoin(ClientJoinEvent e) {
+	if (e.getClientType() == 0) {
+	  joinedClients.put(e.getClientId(), ClientSnapshot.fromJoinEvent(e));
+	}
+  }
+
+  @Override
+  public void onClientLeave(ClientLeaveEvent e) {
+	joinedClients.remove(e.getClientId());
+  }
+
+  /** Adds a listener which will be notified about every new snapshot. */
+  public void addListener(ClientSnapshotListener listener) {
+	listeners.add(listener);
+  }
+
+  /** Returns the latest snapshot. */
+  public ClientSnapshot getSnapshot() {
+	return snapshot;
+  }
+
+  /**
+   * Returns the most recent known state of the given client, taken from its join event if it joined after the latest
+   * snapshot, or {@code null} if the client is unknown.
+   */
+  public Client getClient(int clientId) {
+	final Client joined = joinedClients.get(clientId);
+	return joined != null ? joined : snapshot.get(clientId);
+  }
+
+  @Override
+  public void run() {
+	synchronized (this) {
+	  this.task = null;
+	  this.nextRefresh = Long.MAX_VALUE;
+
+	  // If the previous client list was not received yet, refresh again once it arrived instead of piling up requests.
+	  if (!inFlight.compareAndSet(false, true)) {
+		this.refreshAgain = true;
+		return;
+	  }
+	}
+
+	dispatcher.submit(CommandPriority.ENFORCEMENT, "clientlist", api -> api.getClients())
+			.onSuccess(clients -> {
+			  final ClientSnapshot current = new ClientSnapshot(System.currentTimeMillis(), clients);
+			  scheduler.execute(() -> publish(current));
+			})
+			.onFailure(ex -> {
+			  logger.error("Could not retrieve the client list.", ex);
+			  completed();
+			  // Listeners only request refreshes when receiving snapshots, thus retry on their behalf.
+			  requestRefresh(System.currentTimeMillis() + getReconcileInterval());
+			});
+  }
+
+  /**
+   * Compares the new snapshot with the previous one and notifies all listeners. The listeners are called on a worker
+   * thread of the scheduler, thus they never block the query's response handling.
+   */
+  void publish(ClientSnapshot current) {
+	try {
+	  final ClientSnapshot previous = snapshot;
+	  final List<Client[]> edits = diff(previous, current);
+	  final List<Client> left = new ArrayList<>();
+	  for (Client client : previous.getClients()) {
+		final Client now = current.get(client.getId());
+		// Client ids are reused, so a client with another unique id is a different client.
+		if (now == null || !Objects.equals(now.getUniqueIdentifier(), client.getUniqueIdentifier())) {
+		  left.add(client);
+		}
+	  }
+
+	  this.snapshot = current;
+	  for (ClientSnapshotListener listener : listeners) {
+		// A failing listener should neither affect other listeners nor stop the service.
+		try {
+		  for (Client client : left) {
+			listener.onClientLeft(client);
+		  }
+		  for (Client[] edit : edits) {
+			listener.onClientEdited(edit[0], edit[1]);
+		  }
+		  listener.onSnapshot(current);
+		} catch (RuntimeException ex) {
+		  logger.error("Listener " + listener.getClass().getName() + " failed to handle the client snapshot.", ex);
+		}
+	  }
+
+	  requestRefresh(current.getTimestamp() + getReconcileInterval());
+	} finally {
+	  completed();
+	}
+  }
+
+  /**
+   * Compares the new snapshot against the clients seen last.
+   *
+   * @return pairs of the client as seen last (or {@code null} if unknown) and the client as seen now
+   */
+  private List<Client[]> diff(ClientSnapshot previous, ClientSnapshot current) {
+	final List<Client[]> edits = new ArrayList<>();
+	for (Client after : current.getClients()) {
+	  // A join event is more recent than the previous snapshot, the client id might even have been reused.
+	  final Client joined = joinedClients.remove(after.getId());
+	  Client before = joined != null ? joined : previous.get(after.getId());
+	  if (before != null && !Objects.equals(before.getUniqueIdentifier(), after.getUniqueIdentifier())) {
+		before = null;
+	  }
+
+	  if (before == null || isEdited(before, after)) {
+		edits.add(new Client[] {before, after});
+	  }
+	}
+
+	return edits;
+  }
+
+  private static boolean isEdited(Client before, Client after) {
+	return !before.getNickname().equals(after.getNickname()) || before.isRecording() != after.isRecording()
+			|| !ServerGroupCache.hasSameServerGroups(before, after);
+  }
+
+  /** Marks the current request as done and catches up on refreshes requested in the meantime. */
+  private synchronized void completed() {
+	inFlight.set(false);
+	if (refreshAgain) {
+	  this.refreshAgain = false;
+	  requestRefresh(System.currentTimeMillis());
+	}
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.query;
+
+import com.github.theholywaffle.teamspeak3.TS3ApiAsync;
+import com.github.theholywaffle.teamspeak3.api.CommandFuture;
+import com.github.theholywaffle.teamspeak3.api.event.ClientLeaveEvent;
+import com.github.theholywaffle.teamspeak3.api.event.TS3EventAdapter;
+import com.github.theholywaffle.teamspeak3.api.exception.TS3CommandFailedException;
+import com.github.theholywaffle.teamspeak3.api.exception.TS3Exception;
+import me.floody.butlerspeak.metrics.Metrics;
+import me.floody.butlerspeak.scheduler.Scheduler;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects moves and kicks of single clients and sends them as multi-target commands.
+ * <p>
+ * After the first command was submitted, further commands are collected for {@link #WINDOW} milliseconds. Afterwards,
+ * all clients moved to the same channel or kicked with the same reason are sent as a single <code>clientmove</code>
+ * or <code>clientkick</code> command with {@link CommandPriority#ENFORCEMENT}. Thus, moving hundreds of idle clients
+ * at once only costs a few commands. If the dispatcher uses several connections, the clients are also grouped by the
+ * connection the dispatcher routes them to, so each command keeps its order relative to the other commands targeting
+ * its clients. Commands requested by different classes are never combined, so the metrics count each command for the
+ * class that requested it.
+ * </p><p>
+ * Clients that leave before their command was sent are removed from the batch. If a batch still fails, e.g. since a
+ * client left in the meantime, its clients are sent again one by one, so a single client cannot fail the others.
+ * </p>
+ */
+public class CommandBatcher extends TS3EventAdapter implements Runnable {
+
+  /** Time commands are collected before they are sent, in milliseconds. */
+  private static final long WINDOW = 100;
+  /** Maximum amount of clients per command, keeping the command's length reasonable. */
+  private static final int MAX_BATCH_SIZE = 100;
+  /** The error id the server answers a move with, if the client already is in the channel. */
+  private static final int ALREADY_MEMBER = 770;
+  /** The error id the server answers with, if the client is not connected. */
+  private static final int INVALID_CLIENT = 512;
+
+  private final CommandDispatcher dispatcher;
+  private final Scheduler scheduler;
+  private final Map<Batch, List<Entry>> batches;
+  private boolean scheduled;
+
+  /** Simply constructs a new instance. */
+  public CommandBatcher(CommandDispatcher dispatcher, Scheduler scheduler) {
+	this.dispatcher = dispatcher;
+	this.scheduler = scheduler;
+	this.batches = new LinkedHashMap<>();
+  }
+
+  /**
+   * Moves the client to the given channel.
+   *
+   * @param source
+   * 		the class the client is moved for, used for the metrics
+   * @return a future which completes once the client was moved
+   */
+  public CommandFuture<Void> moveClient(Class<?> source, int clientId, int channelId) {
+	return add(new Batch(source, Type.MOVE, channelId, null), clientId);
+  }
+
+  /**
+   * Kicks the client from the server.
+   *
+   * @param source
+   * 		the class the client is kicked for, used for the metrics
+   * @param reason
+   * 		the message shown to the client
+   * @return a future which completes once the client was kicked
+   */
+  public CommandFuture<Void> kickClientFromServer(Class<?> source, String reason, int clientId) {
+	return add(new Batch(source, Type.SERVER_KICK, 0, reason), clientId);
+  }
+
+  /**
+   * Kicks the client from its channel into the server's default channel.
+   *
+   * @param source
+   * 		the class the client is kicked for, used for the metrics
+   * @param reason
+   * 		the message shown to the client, or {@code null}
+   * @return a future which completes once the client was kicked
+   */
+  public CommandFuture<Void> kickClientFromChannel(Class<?> source, String reason, int clientId) {
+	return add(new Batch(source, Type.CHANNEL_KICK, 0, reason), clientId);
+  }
+
+  /** Removes the client from all batches, since commands targeting it would fail the batch. */
+  @Override
+  public void onClientLeave(ClientLeaveEvent e) {
+	final List<Entry> removed = new ArrayList<>();
+	synchronized (this) {
+	  for (List<Entry> entries : batches.values()) {
+		entries.removeIf(entry -> entry.clientId == e.getClientId() && removed.add(entry));
+	  }
+	}
+
+	removed.forEach(entry -> entry.result.cancel(false));
+  }
+
+  /** Sends all collected commands. */
+  @Override
+  public void run() {
+	final Map<Batch, List<Entry>> due;
+	synchronized (this) {
+	  due = new LinkedHashMap<>(batches);
+	  batches.clear();
+	  this.scheduled = false;
+	}
+
+	due.forEach((batch, entries) -> {
+	  final Map<Integer, List<Entry>> byConnection = new LinkedHashMap<>();
+	  for (Entry entry : entries) {
+		byConnection.computeIfAbsent(dispatcher.getConnection(entry.clientId), key -> new ArrayList<>()).add(entry);
+	  }
+
+	  for (List<Entry> connectionEntries : byConnection.values()) {
+		for (int i = 0; i < connectionEntries.size(); i += MAX_BATCH_SIZE) {
+		  send(batch, connectionEntries.subList(i, Math.min(connectionEntries.size(), i + MAX_BATCH_SIZE)), false);
+		}
+	  }
+	});
+  }
+
+  private synchronized CommandFuture<Void> add(Batch batch, int clientId) {
+	final Entry entry = new Entry(clientId, Metrics.getEventTime());
+	batches.computeIfAbsent(batch, key -> new ArrayList<>()).add(entry);
+	if (!scheduled) {
+	  this.scheduled = true;
+	  scheduler.schedule(this, WINDOW, TimeUnit.MILLISECONDS);
+	}
+
+	return entry.result;
+  }
+
+  private void send(Batch batch, List<Entry> entries, boolean retry) {
+	if (entries.isEmpty()) {
+	  return;
+	}
+
+	final int[] clientIds = new int[entries.size()];
+	long eventAt = 0;
+	for (int i = 0; i < clientIds.length; i++) {
+	  final Entry entry = entries.get(i);
+	  clientIds[i] = entry.clientId;
+	  if (entry.eventAt != 0 && (eventAt == 0 || entry.eventAt < eventAt)) {
+		eventAt = entry.eventAt;
+	  }
+	}
+
+	// The command is related to the earliest event that caused one of its moves or kicks. All clients are routed to the
+	// same connection, so any of them can be used as routing key.
+	Metrics.handleEvent(eventAt, () -> dispatcher.submit(CommandPriority.ENFORCEMENT, clientIds[0],
+			batch.type.command, batch.source, api -> batch.send(api, clientIds))
+			.onSuccess(v -> entries.forEach(entry -> entry.result.set(null)))
+			.onFailure(ex -> {
+			  if (entries.size() > 1) {
+				// The server stops at the failing client, so the clients before it were already handled.
+				entries.forEach(entry -> send(batch, Collections.singletonList(entry), true));
+			  } else if (retry && batch.isHandled(ex)) {
+				entries.get(0).result.set(null);
+			  } else {
+				entries.get(0).result.fail(ex);
+			  }
+			}));
+  }
+
+  private enum Type {
+	MOVE("clientmove"), SERVER_KICK("clientkick"), CHANNEL_KICK("clientkick");
+
+	/** The name of the command sent to the server. */
+	private final String command;
+
+	Type(String command) {
+	  this.command = command;
+	}
+  }
+
+  /**
+   * The commands that can be combined: same source, same type, same target channel and same reason.
+   */
+  private static final class Batch {
+
+	private final Class<?> source;
+	private final Type type;
+	private final int channelId;
+	private final String reason;
+
+	private Batch(Class<?> source, Type type, int channelId, String reason) {
+	  this.source = source;
+	  this.type = type;
+	  this.channelId = channelId;
+	  this.reason = reason;
+	}
+
+	private CommandFuture<Void> send(TS3ApiAsync api, int[] clientIds) {
+	  switch (type) {
+		case MOVE:
+		  return api.moveClients(clientIds, channelId);
+		case SERVER_KICK:
+		  return api.kickClientFromServer(reason, clientIds);
+		default:
+		  return reason == null ? api.kickClientFromChannel(clientIds) : api.kickClientFromChannel(reason, clientIds);
+	  }
+	}
+
+	/**
+	 * Returns whether a client sent again after its batch failed was already handled by the batch: a moved client is
+	 * already in the channel, a kicked client is not connected anymore.
+	 */
+	private boolean isHandled(TS3Exception ex) {
+	  if (!(ex instanceof TS3CommandFailedException)) {
+		return false;
+	  }
+
+	  final int error = ((TS3CommandFailedException) ex).getError().getId();
+	  return type == Type.MOVE ? error == ALREADY_MEMBER : type == Type.SERVER_KICK && error == INVALID_CLIENT;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+	  if (!(o instanceof Batch)) {
+		return false;
+	  }
+
+	  final Batch other = (Batch) o;
+	  return source == other.source && type == other.type && channelId == other.channelId
+			  && Objects.equals(reason, other.reason);
+	}
+
+	@Override
+	public int hashCode() {
+	  return Objects.hash(source, type, channelId, reason);
+	}
+  }
+
+  /**
+   * A single client waiting to be moved or kicked.
+   */
+  private static final class Entry {
+
+	private final int clientId;
+	private final long eventAt;
+	private final CommandFuture<Void> result;
+
+	private Entry(int clientId, long eventAt) {
+	  this.clientId = clientId;
+	  this.eventAt = eventAt;
+	  this.result = new CommandFuture<>();
+	}
+  }
+}
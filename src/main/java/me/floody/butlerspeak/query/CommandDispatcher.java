@@ -0,0 +1,352 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.query;
+
+import com.github.theholywaffle.teamspeak3.TS3ApiAsync;
+import com.github.theholywaffle.teamspeak3.api.CommandFuture;
+import com.github.theholywaffle.teamspeak3.api.exception.TS3Exception;
+import me.floody.butlerspeak.config.ConfigSnapshot;
+import me.floody.butlerspeak.metrics.Metrics;
+import me.floody.butlerspeak.utils.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Central dispatcher for all commands sent to the server.
+ * <p>
+ * Commands are queued by their {@link CommandPriority} and sent as long as the token bucket, which is matched to the
+ * server's flood limits (<code>bot.flood-commands</code> per <code>bot.flood-time</code> seconds), allows it. More
+ * important commands are always sent first. Under overload, queued notifications and broadcasts are dropped once
+ * their queue is full or they became stale, while enforcement is never dropped. Callers never wait for a free slot.
+ * </p><p>
+ * If several command connections are available, every connection has its own queues and token bucket. Commands
+ * submitted with a routing key (usually the targeted client's id) are always sent through the same connection, so
+ * they reach the server in the order they were submitted. Commands without a key use the least busy connection.
+ * </p><p>
+ * While a connection is down, its commands stay queued and are sent once it was re-established.
+ * </p><p>
+ * Every sent command and its response are recorded in the server's {@link Metrics}.
+ * </p>
+ */
+public class CommandDispatcher implements Runnable {
+
+  /** Maximum amount of queued commands per droppable priority. */
+  private static final int QUEUE_CAPACITY = 256;
+  /** Time after which droppable commands are considered stale, in milliseconds. */
+  private static final long MAX_QUEUE_TIME = 30_000;
+
+  private final Connection[] connections;
+  private final ConnectionManager connectionManager;
+  private final Metrics metrics;
+  private final Log logger = new Log(this.getClass().getName());
+  private long dropped;
+
+  /**
+   * Constructs a new instance. The dispatcher needs to be run periodically to send queued commands once new tokens
+   * are available.
+   */
+  public CommandDispatcher(ConnectionManager connectionManager, ConfigSnapshot settings, Metrics metrics) {
+	this.connectionManager = connectionManager;
+	this.metrics = metrics;
+	this.connections = new Connection[connectionManager.getCommandConnectionCount()];
+	for (int i = 0; i < connections.length; i++) {
+	  connections[i] = new Connection(connectionManager.getCommandApi(i));
+	}
+
+	applyLimits(settings);
+	for (Connection connection : connections) {
+	  connection.tokens = connection.burst;
+	}
+  }
+
+  /**
+   * Updates the flood limits. If the bot is not in slowmode and no limits are configured, commands are not limited.
+   */
+  public synchronized void applyLimits(ConfigSnapshot settings) {
+	final int floodCommands = settings.getBotFloodCommands();
+	for (Connection connection : connections) {
+	  if (floodCommands <= 0) {
+		connection.burst = Double.POSITIVE_INFINITY;
+		connection.tokensPerNano = Double.POSITIVE_INFINITY;
+	  } else {
+		connection.burst = floodCommands;
+		connection.tokensPerNano = floodCommands / (settings.getBotFloodTime() * 1_000_000_000D);
+	  }
+
+	  connection.tokens = Math.min(connection.tokens, connection.burst);
+	}
+  }
+
+  /**
+   * Queues a command and sends it through the least busy connection as soon as the flood limits allow it.
+   *
+   * @param priority
+   * 		the command's priority
+   * @param name
+   * 		the name of the command as sent to the server, e.g. <code>clientlist</code>, used for the metrics
+   * @param command
+   * 		the command to send, using the given API
+   * @return a future which completes with the command's result, or is cancelled if the command was dropped
+   */
+  public <T> CommandFuture<T> submit(CommandPriority priority, String name,
+									 Function<TS3ApiAsync, CommandFuture<T>> command) {
+	synchronized (this) {
+	  int leastBusy = 0;
+	  for (int i = 1; i < connections.length; i++) {
+		if (isLessBusy(i, leastBusy)) {
+		  leastBusy = i;
+		}
+	  }
+
+	  return submit(leastBusy, priority, name, command.getClass(), command);
+	}
+  }
+
+  /**
+   * Queues a command and sends it as soon as the flood limits allow it. All commands with the same routing key are
+   * sent through the same connection, thus they keep their order.
+   *
+   * @param priority
+   * 		the command's priority
+   * @param key
+   * 		the routing key, usually the id of the client the command targets
+   * @param name
+   * 		the name of the command as sent to the server, e.g. <code>clientmove</code>, used for the metrics
+   * @param command
+   * 		the command to send, using the given API
+   * @return a future which completes with the command's result, or is cancelled if the command was dropped
+   */
+  public <T> CommandFuture<T> submit(CommandPriority priority, int key, String name,
+									 Function<TS3ApiAsync, CommandFuture<T>> command) {
+	return submit(priority, key, name, command.getClass(), command);
+  }
+
+  /**
+   * Queues a command on behalf of another class and sends it as soon as the flood limits allow it. All commands with
+   * the same routing key are sent through the same connection, thus they keep their order.
+   *
+   * @param priority
+   * 		the command's priority
+   * @param key
+   * 		the routing key, usually the id of the client the command targets
+   * @param name
+   * 		the name of the command as sent to the server, e.g. <code>clientmove</code>, used for the metrics
+   * @param source
+   * 		the class the command is sent for, used for the metrics instead of the class submitting it
+   * @param command
+   * 		the command to send, using the given API
+   * @return a future which completes with the command's result, or is cancelled if the command was dropped
+   */
+  public <T> CommandFuture<T> submit(CommandPriority priority, int key, String name, Class<?> source,
+									 Function<TS3ApiAsync, CommandFuture<T>> command) {
+	synchronized (this) {
+	  return submit(route(key), priority, name, source, command);
+	}
+  }
+
+  /**
+   * Returns the client id of the connection that commands with the given routing key are sent through. This is
+   * needed by commands that affect the query client itself, e.g. moving it back after creating a channel.
+   */
+  public int getClientId(int key) {
+	return connectionManager.getCommandClientId(route(key));
+  }
+
+  /**
+   * Returns the index of the connection that commands with the given routing key are sent through. Commands combining
+   * several targets must only combine targets of the same connection, otherwise they overtake commands of the others.
+   */
+  public int getConnection(int key) {
+	return route(key);
+  }
+
+  /** Returns the amount of commands waiting to be sent. */
+  public synchronized int getQueuedCount() {
+	int queued = 0;
+	for (Connection connection : connections) {
+	  queued += connection.size();
+	}
+
+	return queued;
+  }
+
+  /** Returns the amount of commands dropped due to overload. */
+  public synchronized long getDroppedCount() {
+	return dropped;
+  }
+
+  @Override
+  public synchronized void run() {
+	for (int i = 0; i < connections.length; i++) {
+	  dispatch(i);
+	}
+  }
+
+  /** Compares two connections, preferring connected ones, then the one with fewer queued commands. */
+  private boolean isLessBusy(int connection, int other) {
+	final boolean ready = connectionManager.isReady(connection);
+	if (ready != connectionManager.isReady(other)) {
+	  return ready;
+	}
+
+	final int size = connections[connection].size();
+	final int otherSize = connections[other].size();
+	return size < otherSize || size == otherSize && connections[connection].tokens > connections[other].tokens;
+  }
+
+  private int route(int key) {
+	return Math.floorMod(key, connections.length);
+  }
+
+  private <T> CommandFuture<T> submit(int connection, CommandPriority priority, String name, Class<?> source,
+									  Function<TS3ApiAsync, CommandFuture<T>> command) {
+	final PendingCommand<T> pending = new PendingCommand<>(priority, name, source, command);
+	final Deque<PendingCommand<?>> queue = connections[connection].queues.get(priority.ordinal());
+	if (priority != CommandPriority.ENFORCEMENT && queue.size() >= QUEUE_CAPACITY) {
+	  drop(queue.pollFirst());
+	}
+
+	queue.addLast(pending);
+	dispatch(connection);
+	return pending.result;
+  }
+
+  /** Sends queued commands, most important first, as long as tokens are available and the connection is up. */
+  private void dispatch(int index) {
+	final Connection connection = connections[index];
+	connection.refill();
+	final boolean ready = connectionManager.isReady(index);
+
+	final long now = System.nanoTime();
+	for (Deque<PendingCommand<?>> queue : connection.queues) {
+	  while (!queue.isEmpty()) {
+		final PendingCommand<?> pending = queue.peekFirst();
+		if (pending.priority != CommandPriority.ENFORCEMENT && now - pending.queuedAt > MAX_QUEUE_TIME * 1_000_000) {
+		  drop(queue.pollFirst());
+		  continue;
+		}
+
+		if (!ready || connection.tokens < 1) {
+		  return;
+		}
+
+		connection.tokens--;
+		queue.pollFirst().send(connection.api, metrics);
+	  }
+	}
+  }
+
+  private void drop(PendingCommand<?> pending) {
+	dropped++;
+	pending.result.cancel(false);
+	if (dropped % 100 == 1) {
+	  logger.info("The server cannot keep up with the commands, dropped " + dropped + " low priority commands so "
+			  + "far.");
+	}
+  }
+
+  /**
+   * A command connection together with its queues and token bucket.
+   */
+  private static final class Connection {
+
+	private final TS3ApiAsync api;
+	private final List<Deque<PendingCommand<?>>> queues;
+	private double tokens;
+	private double burst;
+	private double tokensPerNano;
+	private long lastRefill;
+
+	private Connection(TS3ApiAsync api) {
+	  this.api = api;
+	  this.queues = new ArrayList<>();
+	  for (int i = 0; i < CommandPriority.values().length; i++) {
+		queues.add(new ArrayDeque<>());
+	  }
+	  this.lastRefill = System.nanoTime();
+	}
+
+	private void refill() {
+	  final long now = System.nanoTime();
+	  if (tokensPerNano == Double.POSITIVE_INFINITY) {
+		tokens = Double.POSITIVE_INFINITY;
+	  } else {
+		tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+	  }
+	  lastRefill = now;
+	}
+
+	private int size() {
+	  int size = 0;
+	  for (Deque<PendingCommand<?>> queue : queues) {
+		size += queue.size();
+	  }
+
+	  return size;
+	}
+  }
+
+  /**
+   * A queued command together with the future returned to the caller.
+   */
+  private static final class PendingCommand<T> {
+
+	private final CommandPriority priority;
+	private final String name;
+	private final Class<?> source;
+	private final Function<TS3ApiAsync, CommandFuture<T>> command;
+	private final CommandFuture<T> result;
+	private final long queuedAt;
+	private final long eventAt;
+
+	private PendingCommand(CommandPriority priority, String name, Class<?> source,
+						   Function<TS3ApiAsync, CommandFuture<T>> command) {
+	  this.priority = priority;
+	  this.name = name;
+	  this.source = source;
+	  this.command = command;
+	  this.result = new CommandFuture<>();
+	  this.queuedAt = System.nanoTime();
+	  this.eventAt = Metrics.getEventTime();
+	}
+
+	private void send(TS3ApiAsync api, Metrics metrics) {
+	  metrics.recordSent(name, source, priority, queuedAt, eventAt);
+	  final long sentAt = System.nanoTime();
+	  try {
+		// A future accepts only a single listener of each kind, so record and forward the response in one.
+		command.apply(api).onSuccess(response -> {
+		  metrics.recordResponse(name, sentAt, null);
+		  result.set(response);
+		}).onFailure(ex -> {
+		  metrics.recordResponse(name, sentAt, ex);
+		  result.fail(ex);
+		});
+	  } catch (TS3Exception ex) {
+		result.fail(ex);
+	  } catch (RuntimeException ex) {
+		result.fail(new TS3Exception("Could not send command.", ex));
+	  }
+	}
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.query;
+
+/**
+ * Priority classes of commands sent by the {@link CommandDispatcher}, from the most to the least important.
+ */
+public enum CommandPriority {
+  /** Kicks, moves and all lookups enforcement depends on. Never dropped. */
+  ENFORCEMENT,
+  /** Pokes, private messages and the lookups needed to send them. */
+  NOTIFICATION,
+  /** Server-wide broadcasts such as advertisements. */
+  BROADCAST
+}
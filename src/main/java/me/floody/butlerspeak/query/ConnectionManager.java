@@ -0,0 +1,194 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.query;
+
+import com.github.theholywaffle.teamspeak3.TS3Api;
+import com.github.theholywaffle.teamspeak3.TS3ApiAsync;
+import com.github.theholywaffle.teamspeak3.TS3Config;
+import com.github.theholywaffle.teamspeak3.TS3Query;
+import com.github.theholywaffle.teamspeak3.api.exception.TS3CommandFailedException;
+import com.github.theholywaffle.teamspeak3.api.exception.TS3ConnectionFailedException;
+import com.github.theholywaffle.teamspeak3.api.reconnect.ConnectionHandler;
+import com.github.theholywaffle.teamspeak3.api.reconnect.ReconnectStrategy;
+import me.floody.butlerspeak.config.ConfigNode;
+import me.floody.butlerspeak.config.ConfigSnapshot;
+import me.floody.butlerspeak.config.Configuration;
+import me.floody.butlerspeak.utils.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Manages all query connections to a single virtual server.
+ * <p>
+ * One connection is dedicated to receiving events, so a burst of commands never delays their delivery. Commands are
+ * sent through a pool of further connections (<code>bot.command-connections</code>), each with its own flood limits,
+ * which are used by the {@link CommandDispatcher}.
+ * </p><p>
+ * Lost connections are re-established with an exponential backoff. While a command connection is down, the
+ * dispatcher keeps its commands queued. Since events might have been missed while the event connection was down, the
+ * reconnect listeners are notified afterwards to resynchronize their state.
+ * </p>
+ */
+public class ConnectionManager {
+
+  private final Configuration config;
+  private final Log logger;
+  private final List<Connection> commandConnections;
+  private final List<Runnable> reconnectListeners;
+  private Connection eventConnection;
+
+  /** Simply constructs a new instance. The connections are opened by calling {@link #connect()}. */
+  public ConnectionManager(Configuration config, Log logger) {
+	this.config = config;
+	this.logger = logger;
+	this.commandConnections = new ArrayList<>();
+	this.reconnectListeners = new CopyOnWriteArrayList<>();
+  }
+
+  /**
+   * Opens the event connection and all command connections. If a connection cannot be established, the application
+   * shuts down.
+   */
+  public void connect() {
+	final ConfigSnapshot settings = config.getSnapshot();
+	this.eventConnection = open(new Connection(settings.getBotUsername(), true));
+	for (int i = 1; i <= settings.getBotCommandConnections(); i++) {
+	  commandConnections.add(open(new Connection(settings.getBotUsername() + " #" + i, false)));
+	}
+  }
+
+  /** Adds a listener which will be called after the event connection was re-established. */
+  public void addReconnectListener(Runnable listener) {
+	reconnectListeners.add(listener);
+  }
+
+  /** Returns the API of the connection receiving events. Every call blocks until the server responded. */
+  public TS3Api getEventApi() {
+	return eventConnection.query.getApi();
+  }
+
+  /** Returns the client id of the connection receiving events. */
+  public int getEventClientId() {
+	return eventConnection.clientId;
+  }
+
+  /** Returns the amount of command connections. */
+  public int getCommandConnectionCount() {
+	return commandConnections.size();
+  }
+
+  /** Returns the API of the given command connection. */
+  public TS3ApiAsync getCommandApi(int connection) {
+	return commandConnections.get(connection).query.getAsyncApi();
+  }
+
+  /** Returns the client id of the given command connection. */
+  public int getCommandClientId(int connection) {
+	return commandConnections.get(connection).clientId;
+  }
+
+  /** Returns whether the given command connection is logged in and can send commands. */
+  public boolean isReady(int connection) {
+	return commandConnections.get(connection).ready;
+  }
+
+  /**
+   * Connects and authenticates a new query. If the first attempt fails, the application shuts down.
+   */
+  private Connection open(Connection connection) {
+	final TS3Config ts3Config = new TS3Config();
+	ts3Config.setHost(config.get(ConfigNode.SERVER_HOST));
+	ts3Config.setQueryPort(config.getInt(ConfigNode.QUERY_PORT));
+	// Flood protection is handled by the command dispatcher, which knows what may be delayed or dropped.
+	ts3Config.setFloodRate(TS3Query.FloodRate.UNLIMITED);
+	ts3Config.setReconnectStrategy(ReconnectStrategy.exponentialBackoff());
+	ts3Config.setConnectionHandler(connection);
+
+	connection.query = new TS3Query(ts3Config);
+	// Tries to authenticate the TeamSpeak 3 server. If the connections fails, the application shuts
+	// down.
+	try {
+	  connection.query.connect();
+	} catch (TS3CommandFailedException e) {
+	  logger.error("Could not connect to host " + config.get(ConfigNode.SERVER_HOST) + ". Please check your " +
+			  "login credentials!", e);
+	  System.exit(1);
+	} catch (TS3ConnectionFailedException e) {
+	  logger.error("Could not establish a connection to " + config.get(ConfigNode.SERVER_HOST) + ". Please check your" +
+			  " hostname (note that the port is not part of the hostname) and ports.", e);
+	  System.exit(1);
+	}
+
+	return connection;
+  }
+
+  /**
+   * A single query connection. Logs in and selects the virtual server every time the connection is established.
+   */
+  private final class Connection implements ConnectionHandler {
+
+	private final String nickname;
+	private final boolean receivesEvents;
+	private TS3Query query;
+	private volatile boolean ready;
+	private volatile boolean connectedBefore;
+	private volatile int clientId;
+
+	private Connection(String nickname, boolean receivesEvents) {
+	  this.nickname = nickname;
+	  this.receivesEvents = receivesEvents;
+	}
+
+	@Override
+	public void onConnect(TS3Query query) {
+	  final TS3Api api = query.getApi();
+	  api.login(config.get(ConfigNode.QUERY_USERNAME), config.get(ConfigNode.QUERY_PASSWORD));
+	  api.selectVirtualServerByPort(config.getInt(ConfigNode.SERVER_PORT), nickname);
+	  if (receivesEvents) {
+		api.registerAllEvents();
+	  }
+	  this.clientId = api.whoAmI().getId();
+	  this.ready = true;
+
+	  if (!connectedBefore) {
+		this.connectedBefore = true;
+		return;
+	  }
+
+	  logger.info("Reconnected query " + nickname + ".");
+	  if (receivesEvents) {
+		for (Runnable listener : reconnectListeners) {
+		  try {
+			listener.run();
+		  } catch (RuntimeException ex) {
+			logger.error("Could not resynchronize after reconnecting.", ex);
+		  }
+		}
+	  }
+	}
+
+	@Override
+	public void onDisconnect(TS3Query query) {
+	  this.ready = false;
+	  logger.error("Lost the connection of query " + nickname + ", trying to reconnect.");
+	}
+  }
+}
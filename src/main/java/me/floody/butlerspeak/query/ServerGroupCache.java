@@ -0,0 +1,137 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.query;
+
+import com.github.theholywaffle.teamspeak3.api.event.ClientLeaveEvent;
+import com.github.theholywaffle.teamspeak3.api.event.TS3EventAdapter;
+import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
+import me.floody.butlerspeak.utils.IdSet;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the parsed server groups of every client.
+ * <p>
+ * The server groups are parsed once per client and only again after they changed. Checking a client against a filter
+ * (e.g. a plugin's bypass groups) is a lookup of each of the client's few groups in the filter's {@link IdSet}, so it
+ * neither parses nor allocates anything and needs no further caching. Entries are immutable, thus they can be shared
+ * between threads without further synchronization.
+ * </p>
+ */
+public class ServerGroupCache extends TS3EventAdapter implements ClientSnapshotListener {
+
+  private static final String SERVER_GROUPS = "client_servergroups";
+
+  private final Map<Integer, Entry> entries;
+
+  /** Simply constructs a new instance. */
+  public ServerGroupCache() {
+	this.entries = new ConcurrentHashMap<>();
+  }
+
+  /** Returns the ids of the client's server groups. The returned array must not be modified. */
+  public int[] getServerGroups(Client client) {
+	return entry(client).groups;
+  }
+
+  /** Returns whether the client is in any of the given server groups. */
+  public boolean isInAny(Client client, IdSet groups) {
+	if (groups.isEmpty()) {
+	  return false;
+	}
+
+	return groups.containsAny(entry(client).groups);
+  }
+
+  /** Returns whether both clients are in the same server groups. */
+  public static boolean hasSameServerGroups(Client client, Client other) {
+	return client.get(SERVER_GROUPS).equals(other.get(SERVER_GROUPS));
+  }
+
+  @Override
+  public void onClientLeave(ClientLeaveEvent e) {
+	entries.remove(e.getClientId());
+  }
+
+  @Override
+  public void onClientLeft(Client client) {
+	entries.remove(client.getId());
+  }
+
+  @Override
+  public void onSnapshot(ClientSnapshot snapshot) {
+  }
+
+  private Entry entry(Client client) {
+	final String serverGroups = client.get(SERVER_GROUPS);
+	final Entry entry = entries.get(client.getId());
+	if (entry != null && entry.serverGroups.equals(serverGroups)) {
+	  return entry;
+	}
+
+	final Entry parsed = new Entry(serverGroups);
+	entries.put(client.getId(), parsed);
+	return parsed;
+  }
+
+  /** Parses the comma-separated group ids. */
+  private static int[] parse(String serverGroups) {
+	if (serverGroups.isEmpty()) {
+	  return new int[0];
+	}
+
+	int count = 1;
+	for (int i = 0; i < serverGroups.length(); i++) {
+	  if (serverGroups.charAt(i) == ',') {
+		count++;
+	  }
+	}
+
+	final int[] groups = new int[count];
+	int index = 0;
+	int value = 0;
+	for (int i = 0; i < serverGroups.length(); i++) {
+	  final char c = serverGroups.charAt(i);
+	  if (c == ',') {
+		groups[index++] = value;
+		value = 0;
+	  } else if (c >= '0' && c <= '9') {
+		value = value * 10 + (c - '0');
+	  }
+	}
+	groups[index] = value;
+
+	return groups;
+  }
+
+  /**
+   * The parsed server groups of a single client.
+   */
+  private static final class Entry {
+
+	private final String serverGroups;
+	private final int[] groups;
+
+	private Entry(String serverGroups) {
+	  this.serverGroups = serverGroups;
+	  this.groups = parse(serverGroups);
+	}
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.rules;
+
+import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
+import me.floody.butlerspeak.query.ServerGroupCache;
+import me.floody.butlerspeak.utils.IdSet;
+import me.floody.butlerspeak.utils.PatternSet;
+
+/**
+ * A single condition of a {@link Rule}, i.e. a leaf of the compiled predicate tree.
+ * <p>
+ * Conditions are compared by their normalized definition, so a condition used by several rules is only evaluated once
+ * per client. Every condition has a cost, which decides the order in which a rule evaluates its conditions: cheap
+ * lookups reject most clients before a pattern has to be matched.
+ * </p>
+ */
+abstract class Condition {
+
+  private final String key;
+  private final int cost;
+
+  private Condition(String key, int cost) {
+	this.key = key;
+	this.cost = cost;
+  }
+
+  /** Returns a condition matching clients in any (or, if negated, none) of the given channels. */
+  static Condition channels(IdSet channels, boolean negate) {
+	return new Condition((negate ? "!" : "") + "channels:" + channels, 0) {
+	  @Override
+	  boolean test(Client client, ServerGroupCache groupCache) {
+		return channels.contains(client.getChannelId()) != negate;
+	  }
+	};
+  }
+
+  /** Returns a condition matching clients in any (or, if negated, none) of the given server groups. */
+  static Condition groups(IdSet groups, boolean negate) {
+	return new Condition((negate ? "!" : "") + "groups:" + groups, 1) {
+	  @Override
+	  boolean test(Client client, ServerGroupCache groupCache) {
+		return groupCache.isInAny(client, groups) != negate;
+	  }
+	};
+  }
+
+  /** Returns a condition matching clients whose recording flag equals the given value. */
+  static Condition recording(boolean recording) {
+	return new Condition("recording:" + recording, 0) {
+	  @Override
+	  boolean test(Client client, ServerGroupCache groupCache) {
+		return client.isRecording() == recording;
+	  }
+	};
+  }
+
+  /** Returns a condition matching clients whose nickname matches any of the given patterns. */
+  static Condition nickname(PatternSet patterns, String definition) {
+	return new Condition("nickname:" + definition, 2) {
+	  @Override
+	  boolean test(Client client, ServerGroupCache groupCache) {
+		return patterns.match(client.getNickname()) != null;
+	  }
+	};
+  }
+
+  /** Returns whether the client fulfills the condition. */
+  abstract boolean test(Client client, ServerGroupCache groupCache);
+
+  int getCost() {
+	return cost;
+  }
+
+  @Override
+  public String toString() {
+	return key;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+	return o instanceof Condition && key.equals(((Condition) o).key);
+  }
+
+  @Override
+  public int hashCode() {
+	return key.hashCode();
+  }
+}
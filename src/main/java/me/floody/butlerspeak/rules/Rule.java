@@ -0,0 +1,121 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.rules;
+
+import me.floody.butlerspeak.utils.MessageTemplate;
+
+import java.util.Locale;
+
+/**
+ * A compiled moderation rule: all of its conditions need to match for its action to be performed.
+ * <p>
+ * A rule only refers to its conditions by their index within the {@link RuleSet}, so conditions shared with other
+ * rules are evaluated once. The idle time is not part of these conditions, since a client that does not exceed it
+ * yet reaches it at a predictable time.
+ * </p>
+ */
+public final class Rule {
+
+  private final String name;
+  private final int[] conditions;
+  private final long idleMillis;
+  private final Action action;
+  private final int targetChannel;
+  private final MessageTemplate message;
+
+  Rule(String name, int[] conditions, long idleMillis, Action action, int targetChannel, MessageTemplate message) {
+	this.name = name;
+	this.conditions = conditions;
+	this.idleMillis = idleMillis;
+	this.action = action;
+	this.targetChannel = targetChannel;
+	this.message = message;
+  }
+
+  /** Returns the rule's name as listed in <code>rules.names</code>. */
+  public String getName() {
+	return name;
+  }
+
+  /** Returns the indices of the rule's conditions within the rule set, cheapest first. */
+  int[] getConditions() {
+	return conditions;
+  }
+
+  /**
+   * Returns the idle time in milliseconds a client needs to reach for the rule to match, or {@code -1} if the rule
+   * does not depend on the idle time.
+   */
+  long getIdleMillis() {
+	return idleMillis;
+  }
+
+  public Action getAction() {
+	return action;
+  }
+
+  /** Returns the channel clients are moved to, if the action is {@link Action#MOVE}. */
+  public int getTargetChannel() {
+	return targetChannel;
+  }
+
+  /** Returns the kick reason, poke or message text, which may be empty. */
+  public MessageTemplate getMessage() {
+	return message;
+  }
+
+  @Override
+  public String toString() {
+	return name;
+  }
+
+  /**
+   * The actions a rule can perform.
+   */
+  public enum Action {
+	/** Moves the client to the rule's target channel. */
+	MOVE,
+	/** Kicks the client from the server. */
+	KICK,
+	/** Kicks the client from its channel into the default channel. */
+	CHANNEL_KICK,
+	/** Pokes the client. */
+	POKE,
+	/** Sends a private message to the client. */
+	MESSAGE;
+
+	/**
+	 * Returns the action with the given name as used in the configuration.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if there is no action with the given name
+	 */
+	public static Action fromName(String name) {
+	  return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+	}
+
+	/**
+	 * Returns whether the action changes the client's channel or removes it from the server, so further rules need
+	 * to be checked against the client's new state.
+	 */
+	public boolean isEnforcing() {
+	  return this == MOVE || this == KICK || this == CHANNEL_KICK;
+	}
+  }
+}
@@ -0,0 +1,344 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.rules;
+
+import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
+import me.floody.butlerspeak.config.ConfigNode;
+import me.floody.butlerspeak.query.ServerGroupCache;
+import me.floody.butlerspeak.utils.IdSet;
+import me.floody.butlerspeak.utils.MessageTemplate;
+import me.floody.butlerspeak.utils.PatternSet;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The moderation rules listed in <code>rules.names</code>, compiled into a predicate tree.
+ * <p>
+ * Every rule is a conjunction of conditions, which are defined by the properties prefixed with
+ * <code>rules.&lt;name&gt;.</code>. Conditions are deduplicated across all rules, so a {@link Pass} evaluates every
+ * distinct condition at most once per client, no matter how many rules use it. Thus, all rules are checked in a
+ * single walk over the client list.
+ * </p>
+ */
+public final class RuleSet {
+
+  /** A rule set without any rules. */
+  public static final RuleSet EMPTY = new RuleSet(new Rule[0], new Condition[0]);
+
+  /** The matched rules of a client are kept as bitmask, which limits the amount of rules. */
+  private static final int MAX_RULES = Long.SIZE;
+  private static final String PREFIX = "rules.";
+
+  private static final byte UNKNOWN = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+
+  private final Rule[] rules;
+  private final Condition[] conditions;
+
+  private RuleSet(Rule[] rules, Condition[] conditions) {
+	this.rules = rules;
+	this.conditions = conditions;
+  }
+
+  /**
+   * Parses and compiles the given rules.
+   *
+   * @param names
+   * 		the names of the rules, in the order they should be checked
+   * @param properties
+   * 		returns the value of the given property, or {@code null} if it is missing
+   * @throws IllegalArgumentException
+   * 		if a rule is invalid
+   */
+  public static RuleSet parse(String[] names, Function<String, String> properties) {
+	final Set<String> seen = new HashSet<>();
+	final Map<Condition, Integer> conditions = new LinkedHashMap<>();
+	final List<Rule> rules = new ArrayList<>();
+	for (String name : names) {
+	  if (name.isEmpty()) {
+		continue;
+	  }
+
+	  if (!seen.add(name)) {
+		throw new IllegalArgumentException("Property " + ConfigNode.RULES_NAMES.getKey() + " lists the rule " + name
+				+ " more than once.");
+	  }
+
+	  rules.add(new Definition(name, properties).compile(conditions));
+	}
+
+	if (rules.size() > MAX_RULES) {
+	  throw new IllegalArgumentException("Property " + ConfigNode.RULES_NAMES.getKey() + " lists more than "
+			  + MAX_RULES + " rules.");
+	}
+
+	if (rules.isEmpty()) {
+	  return EMPTY;
+	}
+
+	return new RuleSet(rules.toArray(new Rule[0]), conditions.keySet().toArray(new Condition[0]));
+  }
+
+  /** Returns whether there are no rules. */
+  public boolean isEmpty() {
+	return rules.length == 0;
+  }
+
+  /** Returns the amount of rules. */
+  public int size() {
+	return rules.length;
+  }
+
+  /** Returns the rule with the given index, which is also its bit within the masks returned by a {@link Pass}. */
+  public Rule getRule(int index) {
+	return rules[index];
+  }
+
+  /** Returns the index of the rule with the given name, or {@code -1} if there is none. */
+  public int indexOf(String name) {
+	for (int i = 0; i < rules.length; i++) {
+	  if (rules[i].getName().equals(name)) {
+		return i;
+	  }
+	}
+
+	return -1;
+  }
+
+  /**
+   * Starts a new evaluation pass.
+   *
+   * @param groupCache
+   * 		the cache used to look up the clients' server groups
+   * @param timestamp
+   * 		the time the evaluated clients were seen, in milliseconds
+   */
+  public Pass newPass(ServerGroupCache groupCache, long timestamp) {
+	return new Pass(groupCache, timestamp);
+  }
+
+  /**
+   * A single evaluation of all rules against several clients. A pass must only be used by a single thread.
+   */
+  public final class Pass {
+
+	private final ServerGroupCache groupCache;
+	private final long timestamp;
+	private final byte[] results;
+	private long nextDeadline = Long.MAX_VALUE;
+
+	private Pass(ServerGroupCache groupCache, long timestamp) {
+	  this.groupCache = groupCache;
+	  this.timestamp = timestamp;
+	  this.results = new byte[conditions.length];
+	}
+
+	/**
+	 * Evaluates all rules for the given client.
+	 *
+	 * @return a bitmask with the bit of every matching rule set
+	 */
+	public long evaluate(Client client) {
+	  Arrays.fill(results, UNKNOWN);
+	  long matched = 0;
+	  for (int i = 0; i < rules.length; i++) {
+		final Rule rule = rules[i];
+		if (!matches(rule, client)) {
+		  continue;
+		}
+
+		// The idle time only grows until the client becomes active, so it cannot match before this deadline.
+		final long idleMillis = rule.getIdleMillis();
+		if (idleMillis >= 0 && client.getIdleTime() < idleMillis) {
+		  nextDeadline = Math.min(nextDeadline, timestamp + idleMillis - client.getIdleTime());
+		  continue;
+		}
+
+		matched |= 1L << i;
+	  }
+
+	  return matched;
+	}
+
+	/**
+	 * Returns the earliest time at which an evaluated client might match an idle time rule, or {@link Long#MAX_VALUE}
+	 * if there is none.
+	 */
+	public long getNextDeadline() {
+	  return nextDeadline;
+	}
+
+	private boolean matches(Rule rule, Client client) {
+	  for (int index : rule.getConditions()) {
+		if (results[index] == UNKNOWN) {
+		  results[index] = conditions[index].test(client, groupCache) ? TRUE : FALSE;
+		}
+
+		if (results[index] == FALSE) {
+		  return false;
+		}
+	  }
+
+	  return true;
+	}
+  }
+
+  /**
+   * The properties of a single rule, which are validated when compiling the rule.
+   */
+  private static final class Definition {
+
+	private final String name;
+	private final Function<String, String> properties;
+
+	private Definition(String name, Function<String, String> properties) {
+	  this.name = name;
+	  this.properties = properties;
+	}
+
+	/**
+	 * Compiles the rule, adding its conditions to the given ones unless an equal condition exists already.
+	 */
+	private Rule compile(Map<Condition, Integer> conditions) {
+	  final List<Condition> parsed = new ArrayList<>();
+	  final IdSet channels = idSet("channels");
+	  if (channels != null) {
+		parsed.add(Condition.channels(channels, false));
+	  }
+	  final IdSet bypassChannels = idSet("bypass-channels");
+	  if (bypassChannels != null) {
+		parsed.add(Condition.channels(bypassChannels, true));
+	  }
+	  final IdSet groups = idSet("groups");
+	  if (groups != null) {
+		parsed.add(Condition.groups(groups, false));
+	  }
+	  final IdSet bypassGroups = idSet("bypass-groups");
+	  if (bypassGroups != null) {
+		parsed.add(Condition.groups(bypassGroups, true));
+	  }
+	  final String recording = get("recording");
+	  if (recording != null) {
+		if (!recording.equalsIgnoreCase("true") && !recording.equalsIgnoreCase("false")) {
+		  throw new IllegalArgumentException("Property " + key("recording") + " needs to be either true or false.");
+		}
+		parsed.add(Condition.recording(Boolean.parseBoolean(recording)));
+	  }
+	  final String nickname = get("nickname");
+	  if (nickname != null) {
+		parsed.add(Condition.nickname(patterns(nickname), nickname));
+	  }
+
+	  final String idleTime = get("idle-time");
+	  final long idleMillis = idleTime == null ? -1 : (number("idle-time", idleTime, 0, Integer.MAX_VALUE) + 1) * 1000;
+	  if (parsed.isEmpty() && idleMillis < 0) {
+		throw new IllegalArgumentException("Rule " + name + " needs at least one condition.");
+	  }
+
+	  // Cheap conditions first, so most clients are rejected before a pattern needs to be matched.
+	  parsed.sort(Comparator.comparingInt(Condition::getCost));
+	  final int[] indices = new int[parsed.size()];
+	  for (int i = 0; i < indices.length; i++) {
+		indices[i] = conditions.computeIfAbsent(parsed.get(i), condition -> conditions.size());
+	  }
+
+	  final Rule.Action action = action();
+	  final int targetChannel = action == Rule.Action.MOVE
+			  ? (int) number("target-channel", required("target-channel"), 0, Integer.MAX_VALUE) : 0;
+	  final String message = get("message");
+	  if ((action == Rule.Action.POKE || action == Rule.Action.MESSAGE) && (message == null || message.isEmpty())) {
+		throw new IllegalArgumentException("Missing property " + key("message") + ".");
+	  }
+
+	  return new Rule(name, indices, idleMillis, action, targetChannel,
+			  message == null ? MessageTemplate.EMPTY : new MessageTemplate(message));
+	}
+
+	private Rule.Action action() {
+	  try {
+		return Rule.Action.fromName(required("action"));
+	  } catch (IllegalArgumentException ex) {
+		throw new IllegalArgumentException("Property " + key("action")
+				+ " needs to be either move, kick, channel-kick, poke or message.");
+	  }
+	}
+
+	private String key(String property) {
+	  return PREFIX + name + "." + property;
+	}
+
+	/** Returns the trimmed value or {@code null} if the property is missing. */
+	private String get(String property) {
+	  final String value = properties.apply(key(property));
+	  return value == null ? null : value.trim();
+	}
+
+	private String required(String property) {
+	  final String value = get(property);
+	  if (value == null) {
+		throw new IllegalArgumentException("Missing property " + key(property) + ".");
+	  }
+
+	  return value;
+	}
+
+	/** Returns the ids as set or {@code null} if the property is missing or a single id of {@code -1}. */
+	private IdSet idSet(String property) {
+	  final String value = get(property);
+	  if (value == null) {
+		return null;
+	  }
+
+	  final String[] values = value.replaceAll("\\s+", "").split(",");
+	  final int[] ids = new int[values.length];
+	  for (int i = 0; i < values.length; i++) {
+		ids[i] = (int) number(property, values[i], Integer.MIN_VALUE, Integer.MAX_VALUE);
+	  }
+
+	  return ids.length == 1 && ids[0] == -1 ? null : new IdSet(ids);
+	}
+
+	private PatternSet patterns(String value) {
+	  try {
+		return new PatternSet(Arrays.asList(value.replaceAll("\\s+", "").split(",")));
+	  } catch (PatternSyntaxException ex) {
+		throw new IllegalArgumentException("Property " + key("nickname") + " contains an invalid pattern: "
+				+ ex.getPattern(), ex);
+	  }
+	}
+
+	private long number(String property, String value, long min, long max) {
+	  final long number;
+	  try {
+		number = Long.parseLong(value);
+	  } catch (NumberFormatException ex) {
+		throw new IllegalArgumentException("Property " + key(property) + " needs to be a number, but was: " + value);
+	  }
+
+	  if (number < min || number > max) {
+		throw new IllegalArgumentException("Property " + key(property) + " is out of range: " + value);
+	  }
+
+	  return number;
+	}
+  }
+}
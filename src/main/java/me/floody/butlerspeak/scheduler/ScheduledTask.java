@@ -0,0 +1,111 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.scheduler;
+
+/**
+ * A task that was scheduled by the {@link Scheduler}.
+ * <p>
+ * The task is placed in one bucket of the scheduler's wheel. Buckets are doubly linked lists, thus a task can be
+ * removed from its bucket in constant time once cancelled.
+ * </p>
+ */
+public final class ScheduledTask {
+
+  final Scheduler scheduler;
+  final Runnable task;
+  final long periodTicks;
+  long deadlineTick;
+  long remainingRounds;
+  Bucket bucket;
+  ScheduledTask previous;
+  ScheduledTask next;
+  private volatile boolean cancelled;
+
+  ScheduledTask(Scheduler scheduler, Runnable task, long deadlineTick, long periodTicks) {
+	this.scheduler = scheduler;
+	this.task = task;
+	this.deadlineTick = deadlineTick;
+	this.periodTicks = periodTicks;
+  }
+
+  /**
+   * Cancels the task. A periodic task will not be executed again, a task that is currently running will not be
+   * interrupted.
+   */
+  public void cancel() {
+	if (cancelled) {
+	  return;
+	}
+
+	cancelled = true;
+	scheduler.cancel(this);
+  }
+
+  /** Returns whether the task was cancelled. */
+  public boolean isCancelled() {
+	return cancelled;
+  }
+
+  /** Returns whether the task is executed periodically. */
+  public boolean isPeriodic() {
+	return periodTicks > 0;
+  }
+
+  /**
+   * A single slot of the wheel, containing all tasks that expire when the wheel reaches this slot.
+   */
+  static final class Bucket {
+
+	private ScheduledTask head;
+	private ScheduledTask tail;
+
+	void add(ScheduledTask task) {
+	  task.bucket = this;
+	  if (head == null) {
+		head = tail = task;
+	  } else {
+		tail.next = task;
+		task.previous = tail;
+		tail = task;
+	  }
+	}
+
+	void remove(ScheduledTask task) {
+	  if (task.previous != null) {
+		task.previous.next = task.next;
+	  } else {
+		head = task.next;
+	  }
+
+	  if (task.next != null) {
+		task.next.previous = task.previous;
+	  } else {
+		tail = task.previous;
+	  }
+
+	  task.previous = null;
+	  task.next = null;
+	  task.bucket = null;
+	}
+
+	ScheduledTask head() {
+	  return head;
+	}
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.scheduler;
+
+import me.floody.butlerspeak.utils.Log;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bot-wide scheduler based on a hashed timing wheel.
+ * <p>
+ * The wheel consists of a fixed amount of buckets, each covering one tick. A single ticker thread advances the
+ * wheel and hands all expired tasks to a small pool of worker threads. Scheduling and cancelling a task are constant
+ * time operations, no matter how many tasks are scheduled.
+ * </p><p>
+ * All tasks are supervised: an exception thrown by a task is logged, and periodic tasks are executed again on their
+ * next period instead of silently dying.
+ * </p>
+ */
+public class Scheduler {
+
+  /** Default duration of a single tick, in milliseconds. */
+  public static final long DEFAULT_TICK_DURATION = 100;
+  /** Default amount of buckets, which needs to be a power of two. */
+  public static final int DEFAULT_WHEEL_SIZE = 512;
+
+  private final Log logger = new Log(this.getClass().getName());
+  private final long tickDuration;
+  private final ScheduledTask.Bucket[] wheel;
+  private final int mask;
+  private final Queue<ScheduledTask> pending;
+  private final Queue<ScheduledTask> cancelled;
+  private final ThreadPoolExecutor workers;
+  private final Thread ticker;
+  private final long startTime;
+  private volatile boolean running;
+  private long tick;
+
+  /**
+   * Constructs a new instance with the default tick duration and wheel size.
+   *
+   * @param workerThreads
+   * 		the amount of threads executing the tasks
+   */
+  public Scheduler(int workerThreads) {
+	this(DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE, workerThreads);
+  }
+
+  /**
+   * Constructs a new instance. The scheduler needs to be started by calling {@link #start()}.
+   *
+   * @param tickDuration
+   * 		the duration of a single tick, in milliseconds
+   * @param wheelSize
+   * 		the amount of buckets, will be rounded up to the next power of two
+   * @param workerThreads
+   * 		the amount of threads executing the tasks
+   */
+  public Scheduler(long tickDuration, int wheelSize, int workerThreads) {
+	if (tickDuration <= 0 || wheelSize <= 0 || workerThreads <= 0) {
+	  throw new IllegalArgumentException("Tick duration, wheel size and worker threads need to be positive.");
+	}
+
+	int size = Integer.highestOneBit(wheelSize - 1) << 1;
+	if (size <= 0) {
+	  size = 1;
+	}
+
+	this.tickDuration = tickDuration;
+	this.wheel = new ScheduledTask.Bucket[size];
+	for (int i = 0; i < size; i++) {
+	  wheel[i] = new ScheduledTask.Bucket();
+	}
+	this.mask = size - 1;
+	this.pending = new ConcurrentLinkedQueue<>();
+	this.cancelled = new ConcurrentLinkedQueue<>();
+
+	final AtomicInteger threadCount = new AtomicInteger();
+	this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<>(), runnable -> {
+	  final Thread thread = new Thread(runnable, "ButlerSpeak-Worker-" + threadCount.incrementAndGet());
+	  thread.setDaemon(true);
+	  return thread;
+	});
+	this.ticker = new Thread(this::runTicker, "ButlerSpeak-Scheduler");
+	this.startTime = System.nanoTime();
+  }
+
+  /** Starts the ticker thread. */
+  public synchronized void start() {
+	if (running) {
+	  return;
+	}
+
+	running = true;
+	ticker.start();
+  }
+
+  /** Stops the ticker thread and the worker threads. Scheduled tasks will not be executed anymore. */
+  public synchronized void shutdown() {
+	running = false;
+	ticker.interrupt();
+	workers.shutdown();
+  }
+
+  /**
+   * Executes the task once after the given delay.
+   */
+  public ScheduledTask schedule(Runnable task, long delay, TimeUnit unit) {
+	return enqueue(new ScheduledTask(this, task, deadline(delay, unit), 0));
+  }
+
+  /**
+   * Executes the task periodically. The first execution happens after {@code initialDelay}, all following
+   * executions {@code period} after the previous one was started.
+   */
+  public ScheduledTask schedulePeriodic(Runnable task, long initialDelay, long period, TimeUnit unit) {
+	final long periodTicks = Math.max(1, unit.toMillis(period) / tickDuration);
+	return enqueue(new ScheduledTask(this, task, deadline(initialDelay, unit), periodTicks));
+  }
+
+  /** Returns the amount of tasks which were scheduled but not yet placed in the wheel. */
+  public int getPendingCount() {
+	return pending.size();
+  }
+
+  /** Returns the amount of tasks which are due, but wait for a free worker thread. */
+  public int getQueuedCount() {
+	return workers.getQueue().size();
+  }
+
+  /** Executes the task on a worker thread without any delay. */
+  public void execute(Runnable task) {
+	workers.execute(() -> runSupervised(task));
+  }
+
+  void cancel(ScheduledTask task) {
+	cancelled.add(task);
+  }
+
+  private ScheduledTask enqueue(ScheduledTask task) {
+	pending.add(task);
+	return task;
+  }
+
+  /** Returns the tick at which a task scheduled now with the given delay expires. */
+  private long deadline(long delay, TimeUnit unit) {
+	final long elapsed = (System.nanoTime() - startTime) / 1_000_000;
+	return (elapsed + Math.max(0, unit.toMillis(delay)) + tickDuration - 1) / tickDuration;
+  }
+
+  private void runTicker() {
+	while (running) {
+	  final long nextTick = startTime + (tick + 1) * tickDuration * 1_000_000;
+	  final long sleep = nextTick - System.nanoTime();
+	  if (sleep > 0) {
+		try {
+		  TimeUnit.NANOSECONDS.sleep(sleep);
+		} catch (InterruptedException ex) {
+		  if (!running) {
+			return;
+		  }
+		}
+		continue;
+	  }
+
+	  tick++;
+	  transferPending();
+	  removeCancelled();
+	  expire(wheel[(int) (tick & mask)]);
+	}
+  }
+
+  /** Places all newly scheduled tasks into their bucket. */
+  private void transferPending() {
+	ScheduledTask task;
+	while ((task = pending.poll()) != null) {
+	  if (!task.isCancelled()) {
+		place(task);
+	  }
+	}
+  }
+
+  private void place(ScheduledTask task) {
+	// Tasks that should have been executed already will be executed with the current tick.
+	final long deadline = Math.max(task.deadlineTick, tick);
+	task.deadlineTick = deadline;
+	task.remainingRounds = (deadline - tick) / wheel.length;
+	wheel[(int) (deadline & mask)].add(task);
+  }
+
+  private void removeCancelled() {
+	ScheduledTask task;
+	while ((task = cancelled.poll()) != null) {
+	  if (task.bucket != null) {
+		task.bucket.remove(task);
+	  }
+	}
+  }
+
+  private void expire(ScheduledTask.Bucket bucket) {
+	ScheduledTask task = bucket.head();
+	while (task != null) {
+	  final ScheduledTask next = task.next;
+	  if (task.remainingRounds > 0) {
+		task.remainingRounds--;
+	  } else {
+		bucket.remove(task);
+		dispatch(task);
+	  }
+	  task = next;
+	}
+  }
+
+  private void dispatch(ScheduledTask task) {
+	if (task.isCancelled()) {
+	  return;
+	}
+
+	try {
+	  workers.execute(() -> {
+		if (task.isCancelled()) {
+		  return;
+		}
+
+		runSupervised(task.task);
+		if (task.isPeriodic() && !task.isCancelled()) {
+		  // Periodic tasks are rescheduled once finished, thus a slow task will never run concurrently to itself.
+		  task.deadlineTick = task.deadlineTick + task.periodTicks;
+		  enqueue(task);
+		}
+	  });
+	} catch (RejectedExecutionException ex) {
+	  // The scheduler is shutting down.
+	}
+  }
+
+  private void runSupervised(Runnable task) {
+	try {
+	  task.run();
+	} catch (Throwable t) {
+	  logger.error("Scheduled task " + task.getClass().getName() + " failed, it will be executed again on its next "
+			  + "period if it is periodic.", t);
+	}
+  }
+}
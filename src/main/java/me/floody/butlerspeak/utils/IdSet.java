@@ -0,0 +1,102 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.utils;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of ids, such as server group or channel ids, which is checked without boxing or allocating.
+ * <p>
+ * Small ids (as usually assigned by the server) are stored as bitset, so a lookup is a single array access. If the
+ * set contains any larger id, the ids are kept sorted and looked up via binary search instead.
+ * </p>
+ */
+public final class IdSet {
+
+  /** A set without any ids. */
+  public static final IdSet EMPTY = new IdSet(new int[0]);
+
+  /** Ids up to this bound are stored as bitset, which needs at most 8 KiB. */
+  private static final int BITSET_BOUND = 1 << 16;
+
+  private final int[] ids;
+  private final long[] bits;
+
+  /**
+   * Constructs a new set.
+   *
+   * @param ids
+   * 		the ids, which may contain duplicates
+   */
+  public IdSet(int... ids) {
+	final int[] sorted = Arrays.stream(ids).distinct().sorted().toArray();
+	this.ids = sorted;
+
+	final boolean small = sorted.length == 0 || sorted[0] >= 0 && sorted[sorted.length - 1] < BITSET_BOUND;
+	if (small && sorted.length > 0) {
+	  this.bits = new long[(sorted[sorted.length - 1] >>> 6) + 1];
+	  for (int id : sorted) {
+		bits[id >>> 6] |= 1L << id;
+	  }
+	} else {
+	  this.bits = small ? new long[0] : null;
+	}
+  }
+
+  /** Returns whether the set contains the given id. */
+  public boolean contains(int id) {
+	if (bits == null) {
+	  return Arrays.binarySearch(ids, id) >= 0;
+	}
+
+	final int index = id >>> 6;
+	return id >= 0 && index < bits.length && (bits[index] & 1L << id) != 0;
+  }
+
+  /** Returns whether the set contains any of the given ids. */
+  public boolean containsAny(int[] values) {
+	for (int value : values) {
+	  if (contains(value)) {
+		return true;
+	  }
+	}
+
+	return false;
+  }
+
+  /** Returns whether the set does not contain any id. */
+  public boolean isEmpty() {
+	return ids.length == 0;
+  }
+
+  /** Returns the amount of ids. */
+  public int size() {
+	return ids.length;
+  }
+
+  /** Returns a sorted copy of all ids. */
+  public int[] toArray() {
+	return ids.clone();
+  }
+
+  @Override
+  public String toString() {
+	return Arrays.toString(ids);
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A message with placeholders like <code>%clientName%</code>, which is parsed once into literal and placeholder
+ * segments.
+ * <p>
+ * Rendering appends the segments to a builder reused per thread, so no RegEx is compiled and no intermediate strings
+ * are created. The placeholders used by the message are known beforehand, so callers only need to retrieve the
+ * values that are actually needed.
+ * </p>
+ */
+public final class MessageTemplate {
+
+  /** A template without any content. */
+  public static final MessageTemplate EMPTY = new MessageTemplate("");
+
+  private static final ThreadLocal<StringBuilder> BUILDER = ThreadLocal.withInitial(StringBuilder::new);
+
+  private final String template;
+  /** The literal segments, with the placeholder {@code placeholders[i]} following {@code literals[i]}. */
+  private final String[] literals;
+  private final String[] placeholders;
+
+  /**
+   * Parses the given message. A placeholder is a name consisting of letters only, enclosed by percent signs. Any other
+   * text, including single percent signs, is kept as it is.
+   *
+   * @param template
+   * 		the message to parse
+   */
+  public MessageTemplate(String template) {
+	this.template = template;
+
+	final List<String> literals = new ArrayList<>();
+	final List<String> placeholders = new ArrayList<>();
+	int literalStart = 0;
+	int index = template.indexOf('%');
+	while (index >= 0) {
+	  final int end = placeholderEnd(template, index);
+	  if (end < 0) {
+		index = template.indexOf('%', index + 1);
+		continue;
+	  }
+
+	  literals.add(template.substring(literalStart, index));
+	  placeholders.add(template.substring(index + 1, end));
+	  literalStart = end + 1;
+	  index = template.indexOf('%', literalStart);
+	}
+	literals.add(template.substring(literalStart));
+
+	this.literals = literals.toArray(new String[0]);
+	this.placeholders = placeholders.toArray(new String[0]);
+  }
+
+  /**
+   * Returns the index of the percent sign closing the placeholder starting at the given index, or {@code -1} if the
+   * text at the given index is no placeholder.
+   */
+  private static int placeholderEnd(String template, int start) {
+	int index = start + 1;
+	while (index < template.length() && Character.isLetter(template.charAt(index))) {
+	  index++;
+	}
+
+	return index > start + 1 && index < template.length() && template.charAt(index) == '%' ? index : -1;
+  }
+
+  /**
+   * Returns whether the message contains the placeholder with the given name.
+   *
+   * @param placeholder
+   * 		the name of the placeholder, without percent signs
+   */
+  public boolean uses(String placeholder) {
+	for (String name : placeholders) {
+	  if (name.equals(placeholder)) {
+		return true;
+	  }
+	}
+
+	return false;
+  }
+
+  /** Returns whether the message contains any placeholder. */
+  public boolean hasPlaceholders() {
+	return placeholders.length > 0;
+  }
+
+  /**
+   * Replaces all placeholders with their values.
+   *
+   * @param values
+   * 		returns the value for the given placeholder name, or {@code null} to keep the placeholder as it is
+   */
+  public String render(Function<String, Object> values) {
+	if (placeholders.length == 0) {
+	  return template;
+	}
+
+	final StringBuilder builder = BUILDER.get();
+	builder.setLength(0);
+	for (int i = 0; i < placeholders.length; i++) {
+	  builder.append(literals[i]);
+	  final Object value = values.apply(placeholders[i]);
+	  if (value == null) {
+		builder.append('%').append(placeholders[i]).append('%');
+	  } else {
+		builder.append(value);
+	  }
+	}
+	builder.append(literals[placeholders.length]);
+
+	return builder.toString();
+  }
+
+  @Override
+  public String toString() {
+	return template;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+	return o instanceof MessageTemplate && template.equals(((MessageTemplate) o).template);
+  }
+
+  @Override
+  public int hashCode() {
+	return template.hashCode();
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * An ordered set of case-insensitive RegEx patterns which are compiled once.
+ * <p>
+ * For every pattern, the literal parts which any matching input needs to contain are extracted beforehand. When
+ * matching, these literals are searched first and the (comparatively expensive) RegEx engine only runs for patterns
+ * whose literals were all found.
+ * </p>
+ */
+public final class PatternSet {
+
+  private final Entry[] entries;
+  private final boolean prefiltered;
+
+  /**
+   * Compiles the given patterns.
+   *
+   * @param patterns
+   * 		the patterns, in the order they should be checked
+   * @throws java.util.regex.PatternSyntaxException
+   * 		if any of the patterns is invalid
+   */
+  public PatternSet(Collection<String> patterns) {
+	this.entries = new Entry[patterns.size()];
+
+	boolean anyLiterals = false;
+	int index = 0;
+	for (String pattern : patterns) {
+	  final Entry entry = new Entry(index, pattern);
+	  anyLiterals |= entry.literals.length > 0;
+	  entries[index++] = entry;
+	}
+	this.prefiltered = anyLiterals;
+  }
+
+  /**
+   * Returns the first pattern matching the whole input or {@code null} if no pattern matches.
+   */
+  public Match match(CharSequence input) {
+	final String lowerInput = prefiltered ? input.toString().toLowerCase(Locale.ROOT) : null;
+	for (Entry entry : entries) {
+	  if (entry.accepts(lowerInput) && entry.pattern.matcher(input).matches()) {
+		return entry.match;
+	  }
+	}
+
+	return null;
+  }
+
+  /** Returns the amount of patterns. */
+  public int size() {
+	return entries.length;
+  }
+
+  /**
+   * The result of a successful match, containing the pattern that matched.
+   */
+  public static final class Match {
+
+	private final int index;
+	private final String pattern;
+
+	private Match(int index, String pattern) {
+	  this.index = index;
+	  this.pattern = pattern;
+	}
+
+	/** Returns the position of the pattern in the configured list. */
+	public int getIndex() {
+	  return index;
+	}
+
+	/** Returns the pattern as configured. */
+	public String getPattern() {
+	  return pattern;
+	}
+  }
+
+  /**
+   * A single compiled pattern together with the literals required for a match.
+   */
+  private static final class Entry {
+
+	private final Pattern pattern;
+	private final String[] literals;
+	private final Match match;
+
+	private Entry(int index, String pattern) {
+	  this.pattern = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
+	  this.literals = requiredLiterals(pattern);
+	  this.match = new Match(index, pattern);
+	}
+
+	/** Returns whether the lowercase input contains all required literals. */
+	private boolean accepts(String lowerInput) {
+	  for (String literal : literals) {
+		if (!lowerInput.contains(literal)) {
+		  return false;
+		}
+	  }
+
+	  return true;
+	}
+  }
+
+  /**
+   * Extracts the literals that need to be part of every input matching the given pattern.
+   * <p>
+   * The extraction is conservative: only ASCII literals outside of groups and character classes which are not made
+   * optional by a quantifier are considered. Patterns using alternations, quotations, inline flags or escapes whose
+   * length is not fixed (such as {@code \x41} or {@code \p{L}}) are never prefiltered.
+   * </p><p>
+   * Non-ASCII characters end a literal, since {@link Pattern#CASE_INSENSITIVE} only folds ASCII characters, while
+   * lowercasing the input is context-sensitive (e.g. a final sigma).
+   * </p>
+   */
+  static String[] requiredLiterals(String pattern) {
+	if (pattern.indexOf('|') >= 0 || pattern.contains("\\Q") || pattern.contains("(?")) {
+	  return new String[0];
+	}
+
+	final List<String> literals = new ArrayList<>();
+	final StringBuilder run = new StringBuilder();
+	int depth = 0;
+	for (int i = 0; i < pattern.length(); i++) {
+	  final char c = pattern.charAt(i);
+	  switch (c) {
+		case '\\':
+		  // Escaped characters and predefined classes are skipped.
+		  flush(run, literals);
+		  i = skipEscape(pattern, i);
+		  if (i < 0) {
+			return new String[0];
+		  }
+		  break;
+		case '[':
+		  flush(run, literals);
+		  i = skipClass(pattern, i);
+		  break;
+		case '(':
+		  depth++;
+		  flush(run, literals);
+		  break;
+		case ')':
+		  depth--;
+		  flush(run, literals);
+		  break;
+		case '?':
+		case '*':
+		case '{':
+		  // The previous character is optional.
+		  if (run.length() > 0) {
+			run.setLength(run.length() - 1);
+		  }
+		  flush(run, literals);
+		  if (c == '{') {
+			final int end = pattern.indexOf('}', i);
+			i = end < 0 ? pattern.length() : end;
+		  }
+		  break;
+		case '+':
+		  // The previous character is required at least once, but may be repeated.
+		  flush(run, literals);
+		  break;
+		case '.':
+		case '^':
+		case '$':
+		  flush(run, literals);
+		  break;
+		default:
+		  if (c >= 0x80) {
+			flush(run, literals);
+		  } else if (depth == 0) {
+			run.append(Character.toLowerCase(c));
+		  }
+		  break;
+	  }
+	}
+	flush(run, literals);
+
+	return literals.toArray(new String[0]);
+  }
+
+  private static void flush(StringBuilder run, List<String> literals) {
+	if (run.length() > 0) {
+	  literals.add(run.toString().toLowerCase(Locale.ROOT));
+	  run.setLength(0);
+	}
+  }
+
+  /**
+   * Returns the index of the last character of the escape sequence starting at {@code start}, or {@code -1} if its
+   * length cannot be determined cheaply.
+   */
+  private static int skipEscape(String pattern, int start) {
+	if (start + 1 >= pattern.length()) {
+	  return start;
+	}
+
+	final char c = pattern.charAt(start + 1);
+	if ("xu0cpPkN".indexOf(c) >= 0) {
+	  return -1;
+	}
+
+	// A back reference consumes as many digits as there are groups, thus skip all of them.
+	int end = start + 1;
+	if (c >= '1' && c <= '9') {
+	  while (end + 1 < pattern.length() && Character.isDigit(pattern.charAt(end + 1))) {
+		end++;
+	  }
+	}
+
+	return end;
+  }
+
+  /** Returns the index of the bracket closing the character class which starts at {@code start}. */
+  private static int skipClass(String pattern, int start) {
+	int depth = 0;
+	for (int i = start; i < pattern.length(); i++) {
+	  final char c = pattern.charAt(i);
+	  if (c == '\\') {
+		i++;
+	  } else if (c == '[') {
+		depth++;
+		// A closing bracket directly after the opening one is part of the class.
+		if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '^') {
+		  i++;
+		}
+		if (i + 1 < pattern.length() && pattern.charAt(i + 1) == ']') {
+		  i++;
+		}
+	  } else if (c == ']' && --depth == 0) {
+		return i;
+	  }
+	}
+
+	return pattern.length();
+  }
+}
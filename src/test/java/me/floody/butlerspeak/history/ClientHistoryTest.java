@@ -0,0 +1,204 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.history;
+
+import com.github.theholywaffle.teamspeak3.api.event.ClientJoinEvent;
+import com.github.theholywaffle.teamspeak3.api.event.ClientLeaveEvent;
+import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
+import me.floody.butlerspeak.query.ClientSnapshot;
+import me.floody.butlerspeak.utils.Log;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClientHistoryTest {
+
+  private static final Log LOGGER = new Log(ClientHistoryTest.class.getName());
+
+  @TempDir
+  Path directory;
+
+  private static Map<String, String> client(int clientId, String uniqueIdentifier) {
+	final Map<String, String> properties = new HashMap<>();
+	properties.put("clid", String.valueOf(clientId));
+	properties.put("client_unique_identifier", uniqueIdentifier);
+	properties.put("client_type", "0");
+	return properties;
+  }
+
+  private static void join(ClientHistory history, int clientId, String uniqueIdentifier) {
+	history.onClientJoin(new ClientJoinEvent(client(clientId, uniqueIdentifier)));
+  }
+
+  private static void leave(ClientHistory history, int clientId) {
+	history.onClientLeave(new ClientLeaveEvent(Collections.singletonMap("clid", String.valueOf(clientId))));
+  }
+
+  @Test
+  void escapesActionReasons() {
+	final Path file = directory.resolve("history");
+	final String reason = "tab\there\nnew\tline\r\\ and a backslash: \\t";
+	final ClientHistory history = new ClientHistory(file, LOGGER);
+	final Client client = new Client(client(1, "uid="));
+	history.recordAction(client, "badname\tkick", reason);
+	history.recordAction(client, "afk-move", null);
+	history.run();
+
+	final ClientRecord record = new ClientHistory(file, LOGGER).get("uid=");
+	assertEquals(2, record.getActions().size());
+	assertEquals("badname\tkick", record.getActions().get(0).getAction());
+	assertEquals(reason, record.getActions().get(0).getReason());
+	assertEquals("", record.getActions().get(1).getReason());
+	assertEquals(1, record.countActions("afk-move"));
+  }
+
+  @Test
+  void replaysAndCompactsTheFile() throws IOException {
+	final Path file = directory.resolve("history");
+	final ClientHistory history = new ClientHistory(file, LOGGER);
+	join(history, 1, "a");
+	leave(history, 1);
+	join(history, 2, "a");
+	join(history, 3, "b");
+	history.recordAction(new Client(client(3, "b")), "recording-kick", "No recording.");
+	history.run();
+	assertEquals(5, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+
+	final ClientRecord before = history.get("a");
+	final ClientHistory replayed = new ClientHistory(file, LOGGER);
+	final ClientRecord after = replayed.get("a");
+	assertEquals(2, replayed.size());
+	assertEquals(2, after.getConnections());
+	assertEquals(before.getFirstSeen(), after.getFirstSeen());
+	assertEquals(before.getLastJoin(), after.getLastJoin());
+	assertEquals(before.getLastLeave(), after.getLastLeave());
+	assertEquals(1, replayed.get("b").getConnections());
+	assertEquals("No recording.", replayed.get("b").getActions().get(0).getReason());
+
+	// One line per record and action remains.
+	final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+	assertEquals(3, lines.size());
+	assertEquals(2, lines.stream().filter(line -> line.startsWith("R\t")).count());
+	assertEquals(1, lines.stream().filter(line -> line.startsWith("A\t")).count());
+  }
+
+  @Test
+  void compactsOnceTheAppendedLinesOutgrowTheCompactedOnes() throws IOException {
+	final Path file = directory.resolve("history");
+	final ClientHistory history = new ClientHistory(file, LOGGER);
+	for (int i = 0; i < ClientHistory.MIN_COMPACTION_LINES / 2; i++) {
+	  join(history, 1, "a");
+	  leave(history, 1);
+	}
+	history.run();
+	assertEquals(ClientHistory.MIN_COMPACTION_LINES, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+
+	join(history, 1, "a");
+	history.run();
+	assertEquals(1, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+	join(history, 2, "b");
+	history.run();
+	assertEquals(2, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+
+	final ClientHistory replayed = new ClientHistory(file, LOGGER);
+	assertEquals(ClientHistory.MIN_COMPACTION_LINES / 2 + 1, replayed.get("a").getConnections());
+	assertEquals(1, replayed.get("b").getConnections());
+  }
+
+  @Test
+  void ignoresLinesAlreadyPartOfACompactedRecord() throws IOException {
+	final Path file = directory.resolve("history");
+	Files.write(file, Arrays.asList(
+			"R	a	100	400	300	4",
+			"A	a	450	kick	",
+			"J	a	400",
+			"A	a	450	kick	",
+			"J	a	500"), StandardCharsets.UTF_8);
+
+	final ClientRecord record = new ClientHistory(file, LOGGER).get("a");
+	assertEquals(5, record.getConnections());
+	assertEquals(500, record.getLastJoin());
+	assertEquals(1, record.getActions().size());
+  }
+
+  @Test
+  void keepsThePreviousJoin() {
+	final ClientHistory history = new ClientHistory(null, LOGGER);
+	join(history, 1, "a");
+	assertEquals(0, history.get("a").getPreviousJoin());
+	final long firstJoin = history.get("a").getLastJoin();
+	leave(history, 1);
+	join(history, 2, "a");
+	assertEquals(firstJoin, history.get("a").getPreviousJoin());
+	assertEquals(2, history.get("a").getConnections());
+  }
+
+  @Test
+  void skipsMalformedLines() throws IOException {
+	final Path file = directory.resolve("history");
+	Files.write(file, Arrays.asList(
+			"R\ta\t100\t200\t300\t4",
+			"J\ta\t400",
+			"X\tb\t100",
+			"J\tc\tnot a number",
+			"A\ta\t500\tkick\tcut off\\",
+			"A\ta\t500\tkick",
+			"L\ta\t600",
+			"P\td\t700",
+			"J\ta"), StandardCharsets.UTF_8);
+
+	final ClientHistory history = new ClientHistory(file, LOGGER);
+	assertEquals(2, history.size());
+	final ClientRecord record = history.get("a");
+	assertEquals(100, record.getFirstSeen());
+	assertEquals(400, record.getLastJoin());
+	assertEquals(600, record.getLastLeave());
+	assertEquals(5, record.getConnections());
+	assertTrue(record.getActions().isEmpty());
+	assertEquals(0, history.get("d").getConnections());
+  }
+
+  @Test
+  void registersClientsOfSnapshotsWithoutCountingAConnection() {
+	final ClientHistory history = new ClientHistory(null, LOGGER);
+	final ClientSnapshot snapshot = new ClientSnapshot(1_000, Arrays.asList(new Client(client(1, "a")),
+			new Client(client(2, "b"))));
+	history.onSnapshot(snapshot);
+	history.onSnapshot(snapshot);
+	join(history, 3, "a");
+	history.run();
+
+	assertEquals(2, history.size());
+	assertEquals(1_000, history.get("b").getFirstSeen());
+	assertEquals(0, history.get("b").getConnections());
+	assertEquals(1, history.get("a").getConnections());
+	assertNull(history.get("c"));
+  }
+}
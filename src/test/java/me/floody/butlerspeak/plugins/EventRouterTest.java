@@ -0,0 +1,225 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.plugins;
+
+import com.github.theholywaffle.teamspeak3.api.event.ClientJoinEvent;
+import com.github.theholywaffle.teamspeak3.api.event.ClientMovedEvent;
+import com.github.theholywaffle.teamspeak3.api.event.TS3Event;
+import com.github.theholywaffle.teamspeak3.api.event.TS3EventAdapter;
+import me.floody.butlerspeak.utils.Log;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventRouterTest {
+
+  private static final Log LOGGER = new Log(EventRouterTest.class.getName());
+
+  /** The drain tasks submitted by the router, which are only run when the test runs them. */
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+
+  private EventRouter router(EventRouter.Overflow overflow) {
+	final EventRouter router = new EventRouter(tasks::add, overflow, LOGGER);
+	final Set<Class<? extends TS3Event>> events = new HashSet<>(Arrays.asList(ClientMovedEvent.class,
+			ClientJoinEvent.class));
+	router.register(events, new TS3EventAdapter() {
+	  @Override
+	  public void onClientMoved(ClientMovedEvent e) {
+		received.add("move " + e.getClientId() + " to " + e.getTargetChannelId());
+	  }
+
+	  @Override
+	  public void onClientJoin(ClientJoinEvent e) {
+		received.add("join " + e.getClientId());
+	  }
+	});
+	return router;
+  }
+
+  private static ClientMovedEvent move(int clientId, int channelId) {
+	final Map<String, String> properties = new HashMap<>();
+	properties.put("clid", String.valueOf(clientId));
+	properties.put("ctid", String.valueOf(channelId));
+	properties.put("reasonid", "0");
+	return new ClientMovedEvent(properties);
+  }
+
+  private static ClientJoinEvent join(int clientId) {
+	final Map<String, String> properties = new HashMap<>();
+	properties.put("clid", String.valueOf(clientId));
+	properties.put("ctid", "1");
+	properties.put("client_type", "0");
+	return new ClientJoinEvent(properties);
+  }
+
+  /** Fills the queue with one move per client, the client's id being its position. */
+  private static void fill(EventRouter router) {
+	for (int clientId = 0; clientId < EventRouter.QUEUE_CAPACITY; clientId++) {
+	  router.onClientMoved(move(clientId, 1));
+	}
+  }
+
+  private void drain() {
+	Runnable task;
+	while ((task = tasks.poll()) != null) {
+	  task.run();
+	}
+  }
+
+  @Test
+  void drainsTheQueueInBatches() {
+	final EventRouter router = router(EventRouter.Overflow.COALESCE);
+	for (int clientId = 0; clientId < EventRouter.BATCH_SIZE + 1; clientId++) {
+	  router.onClientMoved(move(clientId, 1));
+	}
+	assertEquals(1, tasks.size());
+	assertEquals(EventRouter.BATCH_SIZE + 1, router.getQueuedCount());
+
+	// A batch gives up its thread and submits the rest of the queue again.
+	tasks.poll().run();
+	assertEquals(EventRouter.BATCH_SIZE, received.size());
+	assertEquals(1, tasks.size());
+	tasks.poll().run();
+	assertEquals(EventRouter.BATCH_SIZE + 1, received.size());
+	assertEquals("move 0 to 1", received.get(0));
+	assertEquals("move " + EventRouter.BATCH_SIZE + " to 1", received.get(EventRouter.BATCH_SIZE));
+	assertTrue(tasks.isEmpty());
+
+	router.onClientJoin(join(1));
+	assertEquals(1, tasks.size());
+  }
+
+  @Test
+  void coalescesEventsAboutTheSameClient() {
+	final EventRouter router = router(EventRouter.Overflow.COALESCE);
+	fill(router);
+	router.onClientMoved(move(100, 2));
+	assertEquals(EventRouter.QUEUE_CAPACITY, router.getQueuedCount());
+	assertEquals(1, router.getDroppedCount());
+
+	// Without a queued move of the client, the oldest event is dropped.
+	router.onClientJoin(join(EventRouter.QUEUE_CAPACITY));
+	assertEquals(2, router.getDroppedCount());
+
+	drain();
+	assertEquals(EventRouter.QUEUE_CAPACITY, received.size());
+	assertEquals("move 1 to 1", received.get(0));
+	assertEquals("move 100 to 2", received.get(99));
+	assertEquals("join " + EventRouter.QUEUE_CAPACITY, received.get(EventRouter.QUEUE_CAPACITY - 1));
+  }
+
+  @Test
+  void doesNotCoalescePastAnotherEventAboutTheClient() {
+	final EventRouter router = router(EventRouter.Overflow.COALESCE);
+	router.onClientMoved(move(0, 1));
+	router.onClientJoin(join(0));
+	for (int clientId = 1; clientId < EventRouter.QUEUE_CAPACITY - 1; clientId++) {
+	  router.onClientMoved(move(clientId, 1));
+	}
+	router.onClientMoved(move(0, 2));
+
+	drain();
+	assertEquals(Arrays.asList("join 0", "move 1 to 1"), received.subList(0, 2));
+	assertEquals("move 0 to 2", received.get(received.size() - 1));
+  }
+
+  @Test
+  void dropsTheOldestEvent() {
+	final EventRouter router = router(EventRouter.Overflow.DROP_OLDEST);
+	fill(router);
+	router.onClientMoved(move(100, 2));
+	assertEquals(1, router.getDroppedCount());
+
+	drain();
+	assertEquals(EventRouter.QUEUE_CAPACITY, received.size());
+	assertEquals("move 1 to 1", received.get(0));
+	assertEquals("move 100 to 1", received.get(99));
+	assertEquals("move 100 to 2", received.get(EventRouter.QUEUE_CAPACITY - 1));
+  }
+
+  @Test
+  void blocksUntilThePluginCaughtUp() throws InterruptedException {
+	final EventRouter router = router(EventRouter.Overflow.BLOCK);
+	fill(router);
+	final Thread eventThread = new Thread(() -> router.onClientMoved(move(100, 2)));
+	eventThread.start();
+	eventThread.join(200);
+	assertTrue(eventThread.isAlive());
+
+	tasks.poll().run();
+	eventThread.join(TimeUnit.SECONDS.toMillis(10));
+	assertFalse(eventThread.isAlive());
+
+	drain();
+	assertEquals(0, router.getDroppedCount());
+	assertEquals(EventRouter.QUEUE_CAPACITY + 1, received.size());
+	assertEquals("move 100 to 2", received.get(EventRouter.QUEUE_CAPACITY));
+  }
+
+  @Test
+  void keepsDeliveringAfterAPluginFailed() {
+	final EventRouter router = new EventRouter(tasks::add, EventRouter.Overflow.COALESCE, LOGGER);
+	router.register(Collections.<Class<? extends TS3Event>>singleton(ClientJoinEvent.class), new TS3EventAdapter() {
+	  @Override
+	  public void onClientJoin(ClientJoinEvent e) {
+		received.add("join " + e.getClientId());
+		if (e.getClientId() == 1) {
+		  throw new IllegalStateException("Failing on purpose.");
+		}
+	  }
+	});
+	router.onClientJoin(join(1));
+	router.onClientJoin(join(2));
+	// Events not declared by the plugin are not queued at all.
+	router.onClientMoved(move(1, 2));
+
+	drain();
+	assertEquals(Arrays.asList("join 1", "join 2"), received);
+  }
+
+  @Test
+  void fallsBackToAPoolWithoutVirtualThreads() throws Exception {
+	final boolean virtualThreads = Arrays.stream(Executors.class.getMethods())
+			.anyMatch(method -> method.getName().equals("newVirtualThreadPerTaskExecutor"));
+	final ExecutorService executor = EventRouter.newExecutor(2);
+	try {
+	  final Thread thread = executor.submit(Thread::currentThread).get(10, TimeUnit.SECONDS);
+	  assertEquals(!virtualThreads, thread.getName().startsWith("ButlerSpeak-Events-"));
+	  // Neither pool keeps the bot running on its own.
+	  assertTrue(thread.isDaemon());
+	} finally {
+	  executor.shutdown();
+	}
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.query;
+
+import com.github.theholywaffle.teamspeak3.api.event.ClientJoinEvent;
+import com.github.theholywaffle.teamspeak3.api.event.ClientLeaveEvent;
+import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
+import me.floody.butlerspeak.scheduler.Scheduler;
+import me.floody.butlerspeak.utils.Log;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClientSnapshotServiceTest {
+
+  private static final Log LOGGER = new Log(ClientSnapshotServiceTest.class.getName());
+
+  private final List<String> changes = new ArrayList<>();
+  // The scheduler is never started, so refreshes requested by the service are never run.
+  private final ClientSnapshotService service = new ClientSnapshotService(null, () -> null, new Scheduler(1),
+		  LOGGER) {
+	@Override
+	public long getReconcileInterval() {
+	  return 1_000;
+	}
+  };
+
+  ClientSnapshotServiceTest() {
+	service.addListener(new ClientSnapshotListener() {
+	  @Override
+	  public void onSnapshot(ClientSnapshot snapshot) {
+		changes.add("snapshot " + snapshot.size());
+	  }
+
+	  @Override
+	  public void onClientEdited(Client before, Client after) {
+		changes.add((before == null ? "new " : "edited " + before.getNickname() + " -> ") + after.getNickname());
+	  }
+
+	  @Override
+	  public void onClientLeft(Client client) {
+		changes.add("left " + client.getNickname());
+	  }
+	});
+  }
+
+  private static Map<String, String> properties(int clientId, String uniqueIdentifier, String nickname) {
+	final Map<String, String> properties = new HashMap<>();
+	properties.put("clid", String.valueOf(clientId));
+	properties.put("client_unique_identifier", uniqueIdentifier);
+	properties.put("client_nickname", nickname);
+	properties.put("client_type", "0");
+	properties.put("client_is_recording", "0");
+	properties.put("client_servergroups", "8");
+	return properties;
+  }
+
+  private static Client client(int clientId, String uniqueIdentifier, String nickname) {
+	return new Client(properties(clientId, uniqueIdentifier, nickname));
+  }
+
+  private static ClientJoinEvent join(int clientId, String uniqueIdentifier, String nickname) {
+	final Map<String, String> properties = properties(clientId, uniqueIdentifier, nickname);
+	properties.put("ctid", "1");
+	return new ClientJoinEvent(properties);
+  }
+
+  private void publish(Client... clients) {
+	service.publish(new ClientSnapshot(System.currentTimeMillis(), Arrays.asList(clients)));
+  }
+
+  @Test
+  void reportsNewEditedAndLeftClients() {
+	publish(client(1, "a", "Alice"), client(2, "b", "Bob"));
+	assertEquals(Arrays.asList("new Alice", "new Bob", "snapshot 2"), changes);
+
+	changes.clear();
+	final Map<String, String> recording = properties(2, "b", "Bob");
+	recording.put("client_is_recording", "1");
+	publish(client(1, "a", "Alice"), new Client(recording));
+	assertEquals(Arrays.asList("edited Bob -> Bob", "snapshot 2"), changes);
+
+	changes.clear();
+	publish(client(2, "b", "Robert"));
+	assertEquals(Arrays.asList("left Alice", "edited Bob -> Robert", "snapshot 1"), changes);
+	assertNull(service.getClient(1));
+  }
+
+  @Test
+  void treatsAReusedClientIdAsAnotherClient() {
+	publish(client(1, "a", "Alice"));
+	changes.clear();
+	publish(client(1, "c", "Carol"));
+	assertEquals(Arrays.asList("left Alice", "new Carol", "snapshot 1"), changes);
+  }
+
+  @Test
+  void comparesJoinedClientsAgainstTheirJoinEvent() {
+	publish(client(1, "a", "Alice"));
+	service.onClientJoin(join(2, "b", "Bob"));
+	assertEquals("Bob", service.getClient(2).getNickname());
+
+	// The joined client is not reported again, only its later rename.
+	changes.clear();
+	publish(client(1, "a", "Alice"), client(2, "b", "Bob"));
+	assertEquals(Collections.singletonList("snapshot 2"), changes);
+	service.onClientJoin(join(3, "c", "Carol"));
+	changes.clear();
+	publish(client(1, "a", "Alice"), client(2, "b", "Bob"), client(3, "c", "Caroline"));
+	assertEquals(Arrays.asList("edited Carol -> Caroline", "snapshot 3"), changes);
+
+	// The join event of a client that left is forgotten, so a client reusing its id is new.
+	service.onClientJoin(join(4, "d", "Dave"));
+	service.onClientLeave(new ClientLeaveEvent(Collections.singletonMap("clid", "4")));
+	changes.clear();
+	publish(client(1, "a", "Alice"), client(2, "b", "Bob"), client(3, "c", "Caroline"), client(4, "e", "Dave"));
+	assertEquals(Arrays.asList("new Dave", "snapshot 4"), changes);
+  }
+
+  @Test
+  void forgetsJoinEventsOnResync() {
+	publish(client(1, "a", "Alice"));
+	service.onClientJoin(join(2, "b", "Bob"));
+	service.resync();
+
+	changes.clear();
+	publish(client(1, "a", "Alice"), client(2, "b", "Bob"));
+	assertEquals(Arrays.asList("new Bob", "snapshot 2"), changes);
+  }
+}
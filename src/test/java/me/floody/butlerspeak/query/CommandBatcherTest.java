@@ -0,0 +1,211 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.query;
+
+import com.github.theholywaffle.teamspeak3.TS3ApiAsync;
+import com.github.theholywaffle.teamspeak3.api.CommandFuture;
+import com.github.theholywaffle.teamspeak3.api.event.ClientLeaveEvent;
+import com.github.theholywaffle.teamspeak3.api.exception.TS3CommandFailedException;
+import com.github.theholywaffle.teamspeak3.api.wrapper.QueryError;
+import me.floody.butlerspeak.config.ConfigSnapshot;
+import me.floody.butlerspeak.metrics.Metrics;
+import me.floody.butlerspeak.scheduler.Scheduler;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandBatcherTest {
+
+  /** The error id the server answers a move with, if the client already is in the channel. */
+  private static final int ALREADY_MEMBER = 770;
+  /** The error id the server answers with, if the client is not connected. */
+  private static final int INVALID_CLIENT = 512;
+
+  private final FakeApi api = new FakeApi();
+
+  private CommandBatcher batcher(boolean... ready) throws IOException {
+	final Properties properties = new Properties();
+	try (InputStream in = CommandBatcherTest.class.getResourceAsStream("/ButlerSpeak_EXAMPLE.properties")) {
+	  properties.load(in);
+	}
+	properties.setProperty("bot.slowmode", "false");
+	properties.setProperty("bot.flood-commands", "0");
+
+	final FakeConnections connections = new FakeConnections(ready);
+	connections.api = api;
+	final CommandDispatcher dispatcher = new CommandDispatcher(connections, ConfigSnapshot.parse(properties),
+			new Metrics(null));
+	// The scheduler is never started, so the batches are only sent when running the batcher.
+	return new CommandBatcher(dispatcher, new Scheduler(1));
+  }
+
+  @Test
+  void combinesCommandsOfTheSameKindAndSource() throws IOException {
+	final CommandBatcher batcher = batcher(true);
+	final List<CommandFuture<Void>> results = new ArrayList<>();
+	results.add(batcher.moveClient(String.class, 1, 5));
+	results.add(batcher.moveClient(String.class, 2, 5));
+	results.add(batcher.moveClient(String.class, 3, 6));
+	results.add(batcher.moveClient(Integer.class, 4, 5));
+	results.add(batcher.kickClientFromServer(String.class, "Bye", 7));
+	results.add(batcher.kickClientFromServer(String.class, "Bye", 8));
+	results.add(batcher.kickClientFromChannel(String.class, null, 9));
+	assertTrue(api.sent.isEmpty());
+
+	batcher.run();
+	assertEquals(Arrays.asList("move [1, 2] to 5", "move [3] to 6", "move [4] to 5", "kick [7, 8] from server: Bye",
+			"kick [9] from channel"), api.sent);
+	for (CommandFuture<Void> result : results) {
+	  assertTrue(result.isSuccessful());
+	}
+  }
+
+  @Test
+  void groupsClientsByTheirConnection() throws IOException {
+	final CommandBatcher batcher = batcher(true, true);
+	for (int clientId = 1; clientId <= 4; clientId++) {
+	  batcher.moveClient(String.class, clientId, 5);
+	}
+
+	batcher.run();
+	assertEquals(Arrays.asList("move [1, 3] to 5", "move [2, 4] to 5"), api.sent);
+  }
+
+  @Test
+  void removesClientsThatLeftFromTheBatch() throws IOException {
+	final CommandBatcher batcher = batcher(true);
+	final CommandFuture<Void> left = batcher.moveClient(String.class, 1, 5);
+	batcher.moveClient(String.class, 2, 5);
+	batcher.onClientLeave(new ClientLeaveEvent(Collections.singletonMap("clid", "1")));
+	assertTrue(left.isCancelled());
+
+	batcher.run();
+	assertEquals(Collections.singletonList("move [2] to 5"), api.sent);
+  }
+
+  @Test
+  void sendsTheClientsOfAFailedBatchOneByOne() throws IOException {
+	final CommandBatcher batcher = batcher(true);
+	api.errors.put(2, ALREADY_MEMBER);
+	api.errors.put(3, INVALID_CLIENT);
+	final CommandFuture<Void> moved = batcher.moveClient(String.class, 1, 5);
+	final CommandFuture<Void> alreadyMember = batcher.moveClient(String.class, 2, 5);
+	final CommandFuture<Void> gone = batcher.moveClient(String.class, 3, 5);
+
+	batcher.run();
+	assertEquals(Arrays.asList("move [1, 2, 3] to 5", "move [1] to 5", "move [2] to 5", "move [3] to 5"), api.sent);
+	assertTrue(moved.isSuccessful());
+	// A client already in the channel was moved by the batch, a client that left was not.
+	assertTrue(alreadyMember.isSuccessful());
+	assertTrue(gone.hasFailed());
+  }
+
+  @Test
+  void treatsKickedClientsThatLeftAsKicked() throws IOException {
+	final CommandBatcher batcher = batcher(true);
+	api.errors.put(1, INVALID_CLIENT);
+	api.errors.put(2, ALREADY_MEMBER);
+	final CommandFuture<Void> gone = batcher.kickClientFromServer(String.class, "Bye", 1);
+	final CommandFuture<Void> failed = batcher.kickClientFromServer(String.class, "Bye", 2);
+	final CommandFuture<Void> kicked = batcher.kickClientFromServer(String.class, "Bye", 3);
+	final CommandFuture<Void> notConnected = batcher.kickClientFromChannel(String.class, null, 1);
+	final CommandFuture<Void> kickedFromChannel = batcher.kickClientFromChannel(String.class, null, 3);
+
+	batcher.run();
+	assertTrue(gone.isSuccessful());
+	assertTrue(failed.hasFailed());
+	assertTrue(kicked.isSuccessful());
+	// Only server kicks treat a client that is not connected anymore as kicked.
+	assertTrue(notConnected.hasFailed());
+	assertTrue(kickedFromChannel.isSuccessful());
+  }
+
+  @Test
+  void doesNotRetryASingleClient() throws IOException {
+	final CommandBatcher batcher = batcher(true);
+	api.errors.put(1, ALREADY_MEMBER);
+	final CommandFuture<Void> result = batcher.moveClient(String.class, 1, 5);
+
+	batcher.run();
+	assertEquals(Collections.singletonList("move [1] to 5"), api.sent);
+	// Only a retry knows that the batch was sent before, so a single move into the same channel fails.
+	assertTrue(result.hasFailed());
+  }
+
+  /**
+   * An API recording the commands it is asked to send. Commands targeting a client with an error fail with it.
+   */
+  private static final class FakeApi extends TS3ApiAsync {
+
+	private final List<String> sent = new ArrayList<>();
+	private final Map<Integer, Integer> errors = new HashMap<>();
+
+	private FakeApi() {
+	  super(null);
+	}
+
+	@Override
+	public CommandFuture<Void> moveClients(int[] clientIds, int channelId) {
+	  return send("move " + Arrays.toString(clientIds) + " to " + channelId, clientIds);
+	}
+
+	@Override
+	public CommandFuture<Void> kickClientFromServer(String message, int... clientIds) {
+	  return send("kick " + Arrays.toString(clientIds) + " from server: " + message, clientIds);
+	}
+
+	@Override
+	public CommandFuture<Void> kickClientFromChannel(int... clientIds) {
+	  return send("kick " + Arrays.toString(clientIds) + " from channel", clientIds);
+	}
+
+	@Override
+	public CommandFuture<Void> kickClientFromChannel(String message, int... clientIds) {
+	  return send("kick " + Arrays.toString(clientIds) + " from channel: " + message, clientIds);
+	}
+
+	private CommandFuture<Void> send(String command, int[] clientIds) {
+	  sent.add(command);
+	  final CommandFuture<Void> future = new CommandFuture<>();
+	  for (int clientId : clientIds) {
+		final Integer error = errors.get(clientId);
+		if (error != null) {
+		  final Map<String, String> properties = new HashMap<>();
+		  properties.put("id", String.valueOf(error));
+		  properties.put("msg", "error");
+		  future.fail(new TS3CommandFailedException(new QueryError(properties), command));
+		  return future;
+		}
+	  }
+
+	  future.set(null);
+	  return future;
+	}
+  }
+}
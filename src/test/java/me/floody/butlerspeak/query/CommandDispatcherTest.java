@@ -0,0 +1,158 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.query;
+
+import com.github.theholywaffle.teamspeak3.TS3ApiAsync;
+import com.github.theholywaffle.teamspeak3.api.CommandFuture;
+import me.floody.butlerspeak.config.ConfigSnapshot;
+import me.floody.butlerspeak.metrics.Metrics;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandDispatcherTest {
+
+  /** The capacity of the queues of droppable priorities. */
+  private static final int QUEUE_CAPACITY = 256;
+
+  private final List<String> sent = new ArrayList<>();
+
+  private static ConfigSnapshot settings(int floodCommands, int floodTime) throws IOException {
+	final Properties properties = new Properties();
+	try (InputStream in = CommandDispatcherTest.class.getResourceAsStream("/ButlerSpeak_EXAMPLE.properties")) {
+	  properties.load(in);
+	}
+	properties.setProperty("bot.slowmode", "false");
+	properties.setProperty("bot.flood-commands", String.valueOf(floodCommands));
+	properties.setProperty("bot.flood-time", String.valueOf(floodTime));
+	return ConfigSnapshot.parse(properties);
+  }
+
+  /** Returns a command that records its name once it is sent. */
+  private Function<TS3ApiAsync, CommandFuture<String>> command(String name) {
+	return api -> {
+	  sent.add(name);
+	  return CommandFuture.immediate(name);
+	};
+  }
+
+  @Test
+  void limitsCommandsToTheBurst() throws IOException {
+	final FakeConnections connections = new FakeConnections(true);
+	// Three commands per minute, so no token is refilled during the test.
+	final CommandDispatcher dispatcher = new CommandDispatcher(connections, settings(3, 60), new Metrics(null));
+	for (int i = 0; i < 5; i++) {
+	  dispatcher.submit(CommandPriority.ENFORCEMENT, "clientmove", command("move" + i));
+	}
+
+	assertEquals(3, sent.size());
+	assertEquals(2, dispatcher.getQueuedCount());
+	dispatcher.run();
+	assertEquals(3, sent.size());
+
+	// Lowering the limits must not grant tokens, raising them must not add tokens at once either.
+	dispatcher.applyLimits(settings(1, 60));
+	dispatcher.applyLimits(settings(100, 60));
+	dispatcher.run();
+	assertEquals(3, sent.size());
+  }
+
+  @Test
+  void sendsWithoutLimitsIfNoneAreConfigured() throws IOException {
+	final CommandDispatcher dispatcher = new CommandDispatcher(new FakeConnections(true), settings(0, 3),
+			new Metrics(null));
+	for (int i = 0; i < 1_000; i++) {
+	  dispatcher.submit(CommandPriority.BROADCAST, "sendtextmessage", command("message" + i));
+	}
+
+	assertEquals(1_000, sent.size());
+	assertEquals(0, dispatcher.getQueuedCount());
+  }
+
+  @Test
+  void sendsMoreImportantCommandsFirst() throws IOException {
+	final FakeConnections connections = new FakeConnections(false);
+	final CommandDispatcher dispatcher = new CommandDispatcher(connections, settings(0, 3), new Metrics(null));
+	dispatcher.submit(CommandPriority.BROADCAST, "sendtextmessage", command("broadcast"));
+	dispatcher.submit(CommandPriority.NOTIFICATION, "clientpoke", command("poke"));
+	dispatcher.submit(CommandPriority.ENFORCEMENT, "clientkick", command("kick"));
+	dispatcher.submit(CommandPriority.NOTIFICATION, "clientpoke", command("poke2"));
+	assertTrue(sent.isEmpty());
+	assertEquals(4, dispatcher.getQueuedCount());
+
+	connections.ready[0] = true;
+	dispatcher.run();
+	assertEquals(Arrays.asList("kick", "poke", "poke2", "broadcast"), sent);
+  }
+
+  @Test
+  void dropsTheOldestDroppableCommandsOnceTheQueueIsFull() throws IOException {
+	final CommandDispatcher dispatcher = new CommandDispatcher(new FakeConnections(false), settings(0, 3),
+			new Metrics(null));
+	final CommandFuture<String> oldest = dispatcher.submit(CommandPriority.NOTIFICATION, "clientpoke",
+			command("oldest"));
+	for (int i = 1; i < QUEUE_CAPACITY; i++) {
+	  dispatcher.submit(CommandPriority.NOTIFICATION, "clientpoke", command("poke" + i));
+	}
+	assertFalse(oldest.isDone());
+	assertEquals(0, dispatcher.getDroppedCount());
+
+	final CommandFuture<String> newest = dispatcher.submit(CommandPriority.NOTIFICATION, "clientpoke",
+			command("newest"));
+	assertTrue(oldest.isCancelled());
+	assertFalse(newest.isDone());
+	assertEquals(1, dispatcher.getDroppedCount());
+	assertEquals(QUEUE_CAPACITY, dispatcher.getQueuedCount());
+
+	// Every priority has a queue of its own, and enforcement is never dropped.
+	for (int i = 0; i < QUEUE_CAPACITY * 2; i++) {
+	  dispatcher.submit(CommandPriority.ENFORCEMENT, "clientkick", command("kick" + i));
+	}
+	assertEquals(1, dispatcher.getDroppedCount());
+	assertEquals(QUEUE_CAPACITY * 3, dispatcher.getQueuedCount());
+  }
+
+  @Test
+  void routesCommandsWithTheSameKeyThroughTheSameConnection() throws IOException {
+	final FakeConnections connections = new FakeConnections(false, true);
+	final CommandDispatcher dispatcher = new CommandDispatcher(connections, settings(0, 3), new Metrics(null));
+	assertEquals(dispatcher.getConnection(4), dispatcher.getConnection(6));
+	assertNotEquals(dispatcher.getConnection(4), dispatcher.getConnection(5));
+	assertEquals(101, dispatcher.getClientId(5));
+
+	dispatcher.submit(CommandPriority.ENFORCEMENT, 4, "clientmove", command("move4"));
+	dispatcher.submit(CommandPriority.ENFORCEMENT, 5, "clientmove", command("move5"));
+	// Commands without a key prefer a connection that is up.
+	dispatcher.submit(CommandPriority.ENFORCEMENT, "clientlist", command("list"));
+	assertEquals(Arrays.asList("move5", "list"), sent);
+	assertEquals(1, dispatcher.getQueuedCount());
+
+	connections.ready[0] = true;
+	dispatcher.run();
+	assertEquals(Arrays.asList("move5", "list", "move4"), sent);
+  }
+}
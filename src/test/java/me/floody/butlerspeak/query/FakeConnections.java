@@ -0,0 +1,56 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.query;
+
+import com.github.theholywaffle.teamspeak3.TS3ApiAsync;
+
+/**
+ * Command connections without a server. Unless an API is given, commands are passed {@code null} and need to ignore
+ * the API they are given.
+ */
+class FakeConnections extends ConnectionManager {
+
+  final boolean[] ready;
+  TS3ApiAsync api;
+
+  FakeConnections(boolean... ready) {
+	super(null, null);
+	this.ready = ready;
+  }
+
+  @Override
+  public int getCommandConnectionCount() {
+	return ready.length;
+  }
+
+  @Override
+  public TS3ApiAsync getCommandApi(int connection) {
+	return api;
+  }
+
+  @Override
+  public int getCommandClientId(int connection) {
+	return 100 + connection;
+  }
+
+  @Override
+  public boolean isReady(int connection) {
+	return ready[connection];
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.rules;
+
+import com.github.theholywaffle.teamspeak3.api.wrapper.Client;
+import me.floody.butlerspeak.query.ServerGroupCache;
+import me.floody.butlerspeak.utils.IdSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RuleSetTest {
+
+  private static RuleSet parse(String names, String... properties) {
+	final Properties values = new Properties();
+	for (int i = 0; i < properties.length; i += 2) {
+	  values.setProperty(properties[i], properties[i + 1]);
+	}
+
+	return RuleSet.parse(names.split(","), values::getProperty);
+  }
+
+  private static void assertInvalid(String message, String names, String... properties) {
+	final IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> parse(names, properties));
+	assertTrue(ex.getMessage().contains(message), ex.getMessage());
+  }
+
+  private static Client client(int channelId, String nickname, String serverGroups, boolean recording,
+							   long idleMillis) {
+	final Map<String, String> properties = new HashMap<>();
+	properties.put("clid", "1");
+	properties.put("cid", String.valueOf(channelId));
+	properties.put("client_nickname", nickname);
+	properties.put("client_servergroups", serverGroups);
+	properties.put("client_is_recording", recording ? "1" : "0");
+	properties.put("client_idle_time", String.valueOf(idleMillis));
+	return new Client(properties);
+  }
+
+  @Test
+  void parsesRules() {
+	final RuleSet rules = parse("afk,recording",
+			"rules.afk.idle-time", "600",
+			"rules.afk.bypass-channels", "5, 6",
+			"rules.afk.action", "move",
+			"rules.afk.target-channel", "5",
+			"rules.recording.recording", " true ",
+			"rules.recording.channels", "-1",
+			"rules.recording.action", "channel-kick");
+
+	assertEquals(2, rules.size());
+	assertFalse(rules.isEmpty());
+	assertEquals(1, rules.indexOf("recording"));
+	assertEquals(-1, rules.indexOf("unknown"));
+
+	final Rule afk = rules.getRule(0);
+	assertEquals("afk", afk.getName());
+	assertEquals(Rule.Action.MOVE, afk.getAction());
+	assertEquals(5, afk.getTargetChannel());
+	assertEquals(601_000, afk.getIdleMillis());
+	assertEquals(1, afk.getConditions().length);
+
+	final Rule recording = rules.getRule(1);
+	assertEquals(Rule.Action.CHANNEL_KICK, recording.getAction());
+	assertEquals(-1, recording.getIdleMillis());
+	assertEquals(1, recording.getConditions().length);
+  }
+
+  @Test
+  void returnsEmptySetWithoutRules() {
+	assertSame(RuleSet.EMPTY, parse(""));
+	assertTrue(RuleSet.EMPTY.isEmpty());
+  }
+
+  @Test
+  void rejectsInvalidRules() {
+	assertInvalid("more than once", "a,a", "rules.a.recording", "true", "rules.a.action", "kick");
+	assertInvalid("at least one condition", "a", "rules.a.action", "kick");
+	assertInvalid("at least one condition", "a", "rules.a.channels", "-1", "rules.a.action", "kick");
+	assertInvalid("rules.a.action", "a", "rules.a.recording", "true");
+	assertInvalid("rules.a.action", "a", "rules.a.recording", "true", "rules.a.action", "ban");
+	assertInvalid("rules.a.recording", "a", "rules.a.recording", "yes", "rules.a.action", "kick");
+	assertInvalid("rules.a.target-channel", "a", "rules.a.recording", "true", "rules.a.action", "move");
+	assertInvalid("rules.a.message", "a", "rules.a.recording", "true", "rules.a.action", "poke");
+	assertInvalid("rules.a.channels", "a", "rules.a.channels", "1,x", "rules.a.action", "kick");
+	assertInvalid("rules.a.idle-time", "a", "rules.a.idle-time", "-1", "rules.a.action", "kick");
+	assertInvalid("rules.a.nickname", "a", "rules.a.nickname", "(admin", "rules.a.action", "kick");
+
+	final StringBuilder names = new StringBuilder();
+	final Properties properties = new Properties();
+	for (int i = 0; i <= Long.SIZE; i++) {
+	  names.append("r").append(i).append(',');
+	  properties.setProperty("rules.r" + i + ".recording", "true");
+	  properties.setProperty("rules.r" + i + ".action", "kick");
+	}
+	final IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+			() -> RuleSet.parse(names.toString().split(","), properties::getProperty));
+	assertTrue(ex.getMessage().contains("more than " + Long.SIZE), ex.getMessage());
+  }
+
+  @Test
+  void evaluatesAllRulesInOnePass() {
+	final RuleSet rules = parse("badname,recording,staff",
+			"rules.badname.nickname", ".*admin.*",
+			"rules.badname.bypass-groups", "6",
+			"rules.badname.action", "kick",
+			"rules.recording.recording", "true",
+			"rules.recording.channels", "10,11",
+			"rules.recording.action", "channel-kick",
+			"rules.staff.groups", "7",
+			"rules.staff.bypass-groups", "6",
+			"rules.staff.action", "message",
+			"rules.staff.message", "Hello %clientName%");
+	final RuleSet.Pass pass = rules.newPass(new ServerGroupCache(), 0);
+
+	assertEquals(0b001, pass.evaluate(client(1, "TheAdmin", "8", false, 0)));
+	assertEquals(0b000, pass.evaluate(client(1, "TheAdmin", "6,8", false, 0)));
+	assertEquals(0b110, pass.evaluate(client(10, "Floody", "7", true, 0)));
+	assertEquals(0b100, pass.evaluate(client(12, "Floody", "7", true, 0)));
+	assertEquals(0b011, pass.evaluate(client(11, "admin", "8", true, 0)));
+	assertEquals(Long.MAX_VALUE, pass.getNextDeadline());
+  }
+
+  @Test
+  void evaluatesSharedConditionsOnce() {
+	final int[] lookups = {0};
+	final ServerGroupCache groupCache = new ServerGroupCache() {
+	  @Override
+	  public boolean isInAny(Client client, IdSet groups) {
+		lookups[0]++;
+		return super.isInAny(client, groups);
+	  }
+	};
+	final RuleSet rules = parse("a,b",
+			"rules.a.groups", "7",
+			"rules.a.action", "kick",
+			"rules.b.groups", " 7 ",
+			"rules.b.recording", "true",
+			"rules.b.action", "kick");
+	final RuleSet.Pass pass = rules.newPass(groupCache, 0);
+
+	assertEquals(0b11, pass.evaluate(client(1, "Floody", "7", true, 0)));
+	assertEquals(1, lookups[0]);
+	assertEquals(0b01, pass.evaluate(client(1, "Floody", "7", false, 0)));
+	assertEquals(2, lookups[0]);
+	assertEquals(0b00, pass.evaluate(client(1, "Floody", "8", false, 0)));
+	assertEquals(3, lookups[0]);
+  }
+
+  @Test
+  void reportsTheNextIdleDeadline() {
+	final RuleSet rules = parse("warn,afk",
+			"rules.warn.idle-time", "60",
+			"rules.warn.action", "poke",
+			"rules.warn.message", "Wake up!",
+			"rules.afk.idle-time", "120",
+			"rules.afk.bypass-channels", "5",
+			"rules.afk.action", "move",
+			"rules.afk.target-channel", "5");
+	final RuleSet.Pass pass = rules.newPass(new ServerGroupCache(), 1_000_000);
+
+	assertEquals(0b00, pass.evaluate(client(1, "Floody", "8", false, 30_000)));
+	assertEquals(1_000_000 + 61_000 - 30_000, pass.getNextDeadline());
+	assertEquals(0b01, pass.evaluate(client(1, "Floody", "8", false, 61_000)));
+	assertEquals(0b11, pass.evaluate(client(1, "Floody", "8", false, 121_000)));
+	assertEquals(0b01, pass.evaluate(client(5, "Floody", "8", false, 121_000)));
+	assertEquals(0b00, pass.evaluate(client(1, "Floody", "8", false, 50_000)));
+	assertEquals(1_000_000 + 61_000 - 50_000, pass.getNextDeadline());
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.scheduler;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SchedulerTest {
+
+  /** A wheel of 4 buckets with 5 ms ticks, so it wraps around every 20 ms. */
+  private static final long TICK = 5;
+  private static final int WHEEL_SIZE = 4;
+  private static final long ROUND = TICK * WHEEL_SIZE;
+
+  private final Scheduler scheduler = new Scheduler(TICK, WHEEL_SIZE, 2);
+
+  @AfterEach
+  void shutdown() {
+	scheduler.shutdown();
+  }
+
+  @Test
+  void waitsForTasksBeyondOneRound() throws InterruptedException {
+	scheduler.start();
+	final long[] delays = {ROUND * 4 + TICK, ROUND + TICK, TICK, ROUND * 2 + TICK};
+	final List<Long> executed = new CopyOnWriteArrayList<>();
+	final CountDownLatch done = new CountDownLatch(delays.length);
+	final long start = System.nanoTime();
+	for (long delay : delays) {
+	  // All tasks share a bucket, but need a different amount of rounds.
+	  scheduler.schedule(() -> {
+		final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue(elapsed >= delay - 1, "Task with delay " + delay + " ms ran after " + elapsed + " ms.");
+		executed.add(delay);
+		done.countDown();
+	  }, delay, TimeUnit.MILLISECONDS);
+	}
+
+	assertTrue(done.await(5, TimeUnit.SECONDS));
+	assertEquals(4, executed.size());
+	assertEquals(TICK, (long) executed.get(0));
+	assertEquals(ROUND + TICK, (long) executed.get(1));
+	assertEquals(ROUND * 2 + TICK, (long) executed.get(2));
+	assertEquals(ROUND * 4 + TICK, (long) executed.get(3));
+  }
+
+  @Test
+  void runsTasksScheduledBeforeStartWithTheFirstTick() throws InterruptedException {
+	final CountDownLatch done = new CountDownLatch(1);
+	scheduler.schedule(done::countDown, 0, TimeUnit.MILLISECONDS);
+	scheduler.start();
+	assertTrue(done.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void doesNotRunCancelledTasks() throws InterruptedException {
+	scheduler.start();
+	final AtomicInteger runs = new AtomicInteger();
+	scheduler.schedule(runs::incrementAndGet, ROUND + TICK, TimeUnit.MILLISECONDS).cancel();
+	final ScheduledTask periodic = scheduler.schedulePeriodic(runs::incrementAndGet, ROUND * 2, TICK,
+			TimeUnit.MILLISECONDS);
+	periodic.cancel();
+	assertTrue(periodic.isCancelled());
+
+	final CountDownLatch done = new CountDownLatch(1);
+	scheduler.schedule(done::countDown, ROUND * 3, TimeUnit.MILLISECONDS);
+	assertTrue(done.await(5, TimeUnit.SECONDS));
+	assertEquals(0, runs.get());
+  }
+
+  @Test
+  void keepsRunningPeriodicTasksThatFail() throws InterruptedException {
+	scheduler.start();
+	final CountDownLatch runs = new CountDownLatch(3);
+	final ScheduledTask task = scheduler.schedulePeriodic(() -> {
+	  runs.countDown();
+	  throw new IllegalStateException("Expected by the test.");
+	}, 0, ROUND + TICK, TimeUnit.MILLISECONDS);
+
+	assertTrue(task.isPeriodic());
+	assertTrue(runs.await(5, TimeUnit.SECONDS));
+	task.cancel();
+  }
+
+  @Test
+  void rejectsInvalidArguments() {
+	assertThrows(IllegalArgumentException.class, () -> new Scheduler(0, WHEEL_SIZE, 1));
+	assertThrows(IllegalArgumentException.class, () -> new Scheduler(TICK, 0, 1));
+	assertThrows(IllegalArgumentException.class, () -> new Scheduler(TICK, WHEEL_SIZE, 0));
+  }
+}
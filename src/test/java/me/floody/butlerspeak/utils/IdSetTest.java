@@ -0,0 +1,75 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdSetTest {
+
+  @Test
+  void containsSmallIds() {
+	final IdSet set = new IdSet(9, 0, 63, 64, 9);
+	assertArrayEquals(new int[]{0, 9, 63, 64}, set.toArray());
+	assertEquals(4, set.size());
+	for (int id = -70; id < 200; id++) {
+	  assertEquals(id == 0 || id == 9 || id == 63 || id == 64, set.contains(id), "id " + id);
+	}
+	assertFalse(set.contains(Integer.MIN_VALUE));
+	assertFalse(set.contains(Integer.MAX_VALUE));
+  }
+
+  @Test
+  void containsLargeAndNegativeIds() {
+	final IdSet set = new IdSet(5, 1 << 20, -3);
+	assertArrayEquals(new int[]{-3, 5, 1 << 20}, set.toArray());
+	assertTrue(set.contains(-3));
+	assertTrue(set.contains(5));
+	assertTrue(set.contains(1 << 20));
+	assertFalse(set.contains(4));
+	assertFalse(set.contains(-3 + 64));
+	assertFalse(set.contains((1 << 20) + 1));
+  }
+
+  @Test
+  void containsAny() {
+	final IdSet set = new IdSet(6, 8);
+	assertTrue(set.containsAny(new int[]{1, 8}));
+	assertFalse(set.containsAny(new int[]{1, 7, 9}));
+	assertFalse(set.containsAny(new int[0]));
+  }
+
+  @Test
+  void emptySetContainsNothing() {
+	assertTrue(IdSet.EMPTY.isEmpty());
+	assertTrue(new IdSet().isEmpty());
+	assertFalse(IdSet.EMPTY.contains(0));
+	assertFalse(IdSet.EMPTY.containsAny(new int[]{0, 1}));
+	assertFalse(new IdSet(0).isEmpty());
+  }
+
+  @Test
+  void toArrayReturnsACopy() {
+	final IdSet set = new IdSet(1, 2);
+	set.toArray()[0] = 3;
+	assertArrayEquals(new int[]{1, 2}, set.toArray());
+	assertEquals("[1, 2]", set.toString());
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageTemplateTest {
+
+  private static final Map<String, Object> VALUES = new HashMap<>();
+
+  static {
+	VALUES.put("clientName", "Floody");
+	VALUES.put("totalConnections", 42);
+	VALUES.put("date", "13:37");
+  }
+
+  private static String render(String template) {
+	return new MessageTemplate(template).render(VALUES::get);
+  }
+
+  @Test
+  void replacesPlaceholders() {
+	assertEquals("Welcome Floody, this is your 42. visit!",
+			render("Welcome %clientName%, this is your %totalConnections%. visit!"));
+	assertEquals("Floody13:37", render("%clientName%%date%"));
+	assertEquals("Floody", render("%clientName%"));
+  }
+
+  @Test
+  void keepsUnknownPlaceholders() {
+	assertEquals("Hello %unknown% Floody", render("Hello %unknown% %clientName%"));
+  }
+
+  @Test
+  void keepsTextThatIsNoPlaceholder() {
+	assertEquals("100% sure", render("100% sure"));
+	assertEquals("50%%", render("50%%"));
+	assertEquals("%client name% Floody %", render("%client name% %clientName% %"));
+	assertEquals("%1% %", render("%1% %"));
+	assertEquals("50%Floody", render("50%%clientName%"));
+	assertEquals("", render(""));
+  }
+
+  @Test
+  void knowsItsPlaceholders() {
+	final MessageTemplate template = new MessageTemplate("Hi %clientName%, it is %date%. 100% sure.");
+	assertTrue(template.hasPlaceholders());
+	assertTrue(template.uses("clientName"));
+	assertTrue(template.uses("date"));
+	assertFalse(template.uses("sure"));
+	assertFalse(new MessageTemplate("100% sure").hasPlaceholders());
+	assertFalse(MessageTemplate.EMPTY.hasPlaceholders());
+  }
+
+  @Test
+  void rendersWithoutPlaceholdersAsIs() {
+	final String message = "No placeholders here.";
+	assertSame(message, new MessageTemplate(message).render(name -> {
+	  throw new AssertionError("Queried " + name);
+	}));
+  }
+
+  @Test
+  void equalsByTemplate() {
+	assertEquals(new MessageTemplate("Hi %clientName%"), new MessageTemplate("Hi %clientName%"));
+	assertNotEquals(new MessageTemplate("Hi %clientName%"), new MessageTemplate("Hi %date%"));
+	assertEquals("Hi %clientName%", new MessageTemplate("Hi %clientName%").toString());
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * ButlerSpeak - TeamSpeak 3 Server Query Bot
+ * Copyright (C) 2019 FLOODY88 (https://github.com/FLOODY88)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.floody.butlerspeak.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PatternSetTest {
+
+  private static final String[] PATTERNS = {
+		  ".*f[u4]ck.*",
+		  "a\\x41bc",
+		  "a\\u0041bc",
+		  "a\\0101bc",
+		  "a\\cAbc",
+		  "\\p{L}+admin",
+		  "(?<n>ab)\\k<n>cd",
+		  "a\\N{LATIN CAPITAL LETTER A}bc",
+		  "(a)\\12",
+		  "ab\\.cd",
+		  "\\d+ admin\\s?bot",
+		  ".*\u03A3.*",
+		  "x\u03A3y",
+		  "te?st[0-9]{2,3}x"
+  };
+
+  private static final String[] INPUTS = {
+		  "fuck", "xxF4CKxx", "aAbc", "AABC", "aabc", "a\u0001bc", "\u00E9admin", "abABcd", "ababcd", "aa2", "a2",
+		  "ab.cd", "abxcd", "12 adminbot", "12 admin bot", "\u039F\u0394\u03A3", "\u03BF\u03B4\u03C3",
+		  "\u03BF\u03B4\u03C2", "x\u03A3y", "X\u03C3Y", "tst123x", "test12x", ""
+  };
+
+  @Test
+  void matchesLikeUnfilteredPattern() {
+	for (String pattern : PATTERNS) {
+	  final PatternSet set = new PatternSet(Collections.singletonList(pattern));
+	  final Pattern compiled = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
+	  for (String input : INPUTS) {
+		assertEquals(compiled.matcher(input).matches(), set.match(input) != null,
+				() -> "Pattern " + pattern + " on input " + input);
+	  }
+	}
+  }
+
+  @Test
+  void variableLengthEscapesAreNotPrefiltered() {
+	assertArrayEquals(new String[0], PatternSet.requiredLiterals("a\\x41bc"));
+	assertArrayEquals(new String[0], PatternSet.requiredLiterals("\\p{L}admin"));
+	assertArrayEquals(new String[0], PatternSet.requiredLiterals("a\\cAbc"));
+  }
+
+  @Test
+  void extractsRequiredLiterals() {
+	assertArrayEquals(new String[]{"f", "ck"}, PatternSet.requiredLiterals(".*f[u4]ck.*"));
+	assertArrayEquals(new String[]{"ab", "cd"}, PatternSet.requiredLiterals("ab\\.cd"));
+	assertArrayEquals(new String[]{"t", "st", "x"}, PatternSet.requiredLiterals("te?st[0-9]{2,3}x"));
+	assertArrayEquals(new String[]{"x", "y"}, PatternSet.requiredLiterals("x\u03A3y"));
+	assertArrayEquals(new String[0], PatternSet.requiredLiterals("admin|mod"));
+  }
+
+  @Test
+  void returnsFirstMatchingPattern() {
+	final PatternSet set = new PatternSet(Arrays.asList(".*admin.*", ".*mod.*", ".*"));
+	assertEquals(1, set.match("Moderator").getIndex());
+	assertEquals(".*mod.*", set.match("Moderator").getPattern());
+	assertEquals(0, set.match("ADMIN").getIndex());
+	assertEquals(2, set.match("guest").getIndex());
+	assertNull(new PatternSet(Collections.singletonList("admin")).match("guest"));
+  }
+}